@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for the feed hosts. Serves the bundled fixtures 
+ * and documents registered with {@link #serve(String, byte[])} at <code>/fixtures/&lt;name&gt;</code>.
+ * <p>
+ * Every response ends with a different XML comment, so the documents never match 
+ * the content hash of the previous synchronization and are always parsed.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class FixtureServer implements AutoCloseable {
+	
+	private final HttpServer server;
+	
+	private final AtomicLong requests = new AtomicLong();
+	
+	private final Map<String, byte[]> fixtures = new ConcurrentHashMap<>();
+	
+	/**
+	 * Start a server on a free port of the loopback interface
+	 */
+	public FixtureServer() {
+		try{
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		server.createContext("/fixtures/", exchange -> {
+			String name = exchange.getRequestURI().getPath().substring("/fixtures/".length());
+			byte[] body = fixtures.computeIfAbsent(name, Fixtures::load);
+			byte[] trailer = ("<!-- " + requests.incrementAndGet() + " -->").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", Fixtures.contentType(name));
+			exchange.sendResponseHeaders(200, body.length + trailer.length);
+			try(OutputStream out = exchange.getResponseBody()){
+				out.write(body);
+				out.write(trailer);
+			}
+		});
+		server.start();
+	}
+	
+	/**
+	 * Serve a generated document instead of a bundled fixture
+	 * 
+	 * @param name
+	 * 		The file name of the document
+	 * @param body
+	 * 		The document
+	 * @return
+	 * 		The url of the document
+	 */
+	public String serve(String name, byte[] body) {
+		fixtures.put(name, body);
+		return url(name);
+	}
+	
+	/**
+	 * Get the url of a fixture
+	 * 
+	 * @param name
+	 * 		The file name of the fixture
+	 */
+	public String url(String name) {
+		InetSocketAddress address = server.getAddress();
+		return "http://" + address.getHostString() + ":" + address.getPort() + "/fixtures/" + name;
+	}
+	
+	/**
+	 * Get the number of requests served
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
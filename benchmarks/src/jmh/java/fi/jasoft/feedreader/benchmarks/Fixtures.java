@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.data.FeedEntry;
+import fi.jasoft.feedreader.service.FeedPersistence;
+import fi.jasoft.feedreader.service.FeedService;
+import fi.jasoft.feedreader.service.FeedServiceImpl;
+import fi.jasoft.feedreader.service.FeedServices;
+import fi.jasoft.feedreader.service.SearchIndex;
+import fi.jasoft.feedreader.service.SyncExecutor;
+
+/**
+ * Fixture feeds and database setup shared by the benchmarks.
+ * <p>
+ * The feed service implementation is selected with the <code>feedreader.service</code> 
+ * system property, see {@link FeedServices}. Fixture feeds of the database implementation 
+ * are written straight to the database. The log implementation has no such shortcut, its 
+ * fixture feeds are generated as RSS documents and synchronized from a {@link FixtureServer}.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public final class Fixtures {
+	
+	private static final String SERVICE = FeedServices.getType();
+	
+	private static Path logDirectory;
+	
+	private static FeedService logService;
+	
+	private static FixtureServer server;
+	
+	private Fixtures() {
+		// Only static access
+	}
+	
+	/**
+	 * Read a bundled fixture feed
+	 * 
+	 * @param name
+	 * 		The file name of the fixture, for example <code>rss-200.xml</code>
+	 */
+	public static byte[] load(String name) {
+		try(InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)){
+			if(in == null){
+				throw new IllegalArgumentException("No fixture " + name);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1){
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Get the content type a server would send a fixture with
+	 * 
+	 * @param name
+	 * 		The file name of the fixture
+	 */
+	public static String contentType(String name) {
+		return (name.startsWith("atom") ? "application/atom+xml" : "application/rss+xml") + "; charset=UTF-8";
+	}
+	
+	/**
+	 * Create a feed service using an empty search index in a temporary file. The log 
+	 * implementation returns the service the fixture feeds were created with.
+	 */
+	public static FeedService newService() {
+		if(FeedServices.LOG.equals(SERVICE)){
+			return logService();
+		}
+		return newDatabaseService();
+	}
+	
+	/**
+	 * Create a database backed feed service using an empty search index in a temporary file, 
+	 * regardless of the selected implementation
+	 */
+	public static FeedServiceImpl newDatabaseService() {
+		return new FeedServiceImpl(SyncExecutor.getDefault(), newIndex());
+	}
+	
+	private static SearchIndex newIndex() {
+		try{
+			File file = File.createTempFile("benchmark", ".idx");
+			file.delete();
+			file.deleteOnExit();
+			return new SearchIndex(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static synchronized FeedService logService() {
+		if(logService == null){
+			try{
+				logDirectory = Files.createTempDirectory("benchmark-log");
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			logService = FeedServices.create(SERVICE, SyncExecutor.getDefault(), newIndex(), logDirectory.toFile());
+		}
+		return logService;
+	}
+	
+	private static synchronized void closeLogService() {
+		if(logService == null){
+			return;
+		}
+		try{
+			((Closeable) logService).close();
+			try(Stream<Path> files = Files.walk(logDirectory)){
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			logService = null;
+			logDirectory = null;
+		}
+	}
+	
+	/**
+	 * Remove all feeds and entries from the database and the logs
+	 */
+	public static void clearDatabase() {
+		closeLogService();
+		if(FeedServices.LOG.equals(SERVICE) && !FeedPersistence.isStarted()){
+			return;
+		}
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			em.getTransaction().begin();
+			em.createQuery("DELETE FROM FeedEntry e").executeUpdate();
+			em.createQuery("DELETE FROM Feed f").executeUpdate();
+			em.getTransaction().commit();
+			em.getEntityManagerFactory().getCache().evictAll();
+		} finally {
+			em.close();
+		}
+	}
+	
+	/**
+	 * Create a feed with the selected implementation
+	 * 
+	 * @param url
+	 * 		The url of the feed
+	 * @param entries
+	 * 		The number of entries to create in the feed
+	 * @param content
+	 * 		The body of every entry
+	 * @return
+	 * 		The stored feed
+	 */
+	public static Feed createFeed(String url, int entries, String content) {
+		if(FeedServices.LOG.equals(SERVICE)){
+			return syncFeed(url, entries, content);
+		}
+		return createDatabaseFeed(url, entries, content);
+	}
+	
+	/**
+	 * Store a feed directly in the database regardless of the selected implementation
+	 * 
+	 * @param url
+	 * 		The url of the feed
+	 * @param entries
+	 * 		The number of entries to create in the feed
+	 * @param content
+	 * 		The body of every entry
+	 * @return
+	 * 		The stored feed
+	 */
+	public static Feed createDatabaseFeed(String url, int entries, String content) {
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			em.getTransaction().begin();
+			Feed feed = new Feed();
+			feed.setUrl(url);
+			feed.setTitle("Feed " + url);
+			feed.setEntryCount(entries);
+			feed.setLastUpdated(new Date());
+			em.persist(feed);
+			
+			long now = System.currentTimeMillis();
+			for(int i = 0; i < entries; i++){
+				FeedEntry entry = new FeedEntry();
+				entry.setFeed(feed);
+				entry.setEntryKey(url + "/" + i);
+				entry.setTitle("Entry " + i);
+				entry.setUrl(url + "/" + i);
+				entry.setContent(content);
+				entry.setPublished(new Date(now - i * 3600000L));
+				em.persist(entry);
+				if(i % 500 == 499){
+					em.flush();
+					em.clear();
+					feed = em.find(Feed.class, feed.getId());
+				}
+			}
+			em.getTransaction().commit();
+			return feed;
+		} finally {
+			em.close();
+		}
+	}
+	
+	/**
+	 * Create a feed by synchronizing a generated RSS document with the log service
+	 */
+	private static synchronized Feed syncFeed(String url, int entries, String content) {
+		if(server == null){
+			server = new FixtureServer();
+		}
+		SimpleDateFormat rfc822 = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.ENGLISH);
+		String description = escape(content);
+		StringBuilder rss = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<rss version=\"2.0\"><channel><title>Feed " + escape(url) + "</title>");
+		long now = System.currentTimeMillis();
+		for(int i = 0; i < entries; i++){
+			rss.append("<item><title>Entry ").append(i).append("</title>")
+				.append("<link>").append(escape(url + "/" + i)).append("</link>")
+				.append("<guid>").append(escape(url + "/" + i)).append("</guid>")
+				.append("<pubDate>").append(rfc822.format(new Date(now - i * 3600000L))).append("</pubDate>")
+				.append("<description>").append(description).append("</description></item>");
+		}
+		rss.append("</channel></rss>");
+		
+		Feed feed = new Feed();
+		feed.setUrl(server.serve(url.replaceAll("[^A-Za-z0-9]", "_") + ".xml", 
+				rss.toString().getBytes(StandardCharsets.UTF_8)));
+		FeedService service = logService();
+		service.add(feed);
+		service.syncronize(feed);
+		return feed;
+	}
+	
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+	
+	/**
+	 * Release the shared resources used by the benchmarks
+	 */
+	public static void shutdown() {
+		closeLogService();
+		synchronized (Fixtures.class) {
+			if(server != null){
+				server.close();
+				server = null;
+			}
+		}
+		SyncExecutor.shutdownDefault();
+		FeedPersistence.stop();
+	}
+}
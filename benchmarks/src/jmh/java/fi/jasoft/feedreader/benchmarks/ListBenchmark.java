@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import fi.jasoft.feedreader.data.EntrySummary;
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.data.FeedSummary;
+import fi.jasoft.feedreader.service.FeedService;
+
+/**
+ * Benchmarks of listing feeds and entries with a database of 
+ * <code>feeds</code> feeds of <code>entries</code> entries each.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListBenchmark {
+	
+	private static final int PAGE = 50;
+	
+	@Param({"10", "100"})
+	int feeds;
+	
+	@Param({"10", "500"})
+	int entries;
+	
+	FeedService service;
+	
+	Feed feed;
+	
+	EntrySummary ninthPage;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		Fixtures.clearDatabase();
+		String content = "<p>" + new String(Fixtures.load("rss-10.xml")).substring(0, 1500) + "</p>";
+		for(int i = 0; i < feeds; i++){
+			feed = Fixtures.createFeed("http://localhost/feeds/" + i, entries, content);
+		}
+		service = Fixtures.newService();
+		List<EntrySummary> first = service.getTimeline(null, PAGE * 9);
+		ninthPage = first.isEmpty() ? null : first.get(first.size() - 1);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.shutdown();
+	}
+	
+	/**
+	 * Load all feeds as entities
+	 */
+	@Benchmark
+	public List<Feed> getFeeds() {
+		return service.getFeeds();
+	}
+	
+	/**
+	 * Load the first page of the feed grid
+	 */
+	@Benchmark
+	public List<FeedSummary> getFeedSummaries() {
+		return service.getFeedSummaries(0, PAGE);
+	}
+	
+	/**
+	 * Load the first page of the entry grid of a feed
+	 */
+	@Benchmark
+	public List<EntrySummary> getEntries() {
+		return service.getEntries(feed, null, PAGE);
+	}
+	
+	/**
+	 * Load the first page of the entries of all feeds
+	 */
+	@Benchmark
+	public List<EntrySummary> getTimeline() {
+		return service.getTimeline(null, PAGE);
+	}
+	
+	/**
+	 * Load the tenth page of the entries of all feeds, continuing from the ninth
+	 */
+	@Benchmark
+	public List<EntrySummary> getTimelineDeep() {
+		return service.getTimeline(ninthPage, PAGE);
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import fi.jasoft.feedreader.data.ContentCodec;
+import fi.jasoft.feedreader.data.EntrySummary;
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.data.FeedEntry;
+import fi.jasoft.feedreader.service.CachingFeedService;
+import fi.jasoft.feedreader.service.FeedService;
+
+/**
+ * Benchmarks of preparing an entry for display, which is what the reader does when 
+ * an entry is clicked: load the entry and decompress its body, or look up the 
+ * sanitized HTML from the render cache.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderBenchmark {
+	
+	/*
+	 * Size of the entry bodies in characters
+	 */
+	@Param({"500", "20000"})
+	int contentLength;
+	
+	FeedService service;
+	
+	FeedService cached;
+	
+	long[] ids;
+	
+	byte[] compressed;
+	
+	int next;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		Fixtures.clearDatabase();
+		String fixture = new String(Fixtures.load("rss-200.xml"));
+		String content = fixture.substring(fixture.indexOf("<item>"), 
+				fixture.indexOf("<item>") + contentLength);
+		
+		Feed feed = Fixtures.createFeed("http://localhost/render", 100, content);
+		service = Fixtures.newService();
+		cached = new CachingFeedService(service);
+		List<EntrySummary> entries = service.getEntries(feed, null, 100);
+		ids = entries.stream().mapToLong(EntrySummary::getId).toArray();
+		compressed = ContentCodec.compress(content);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.shutdown();
+	}
+	
+	/**
+	 * Load an entry and its body
+	 */
+	@Benchmark
+	public String render() {
+		FeedEntry entry = service.getEntry(ids[next++ % ids.length]);
+		return entry.getContent();
+	}
+	
+	/**
+	 * Get the sanitized HTML of an entry through the render cache, as the reader does
+	 */
+	@Benchmark
+	public String renderCached() {
+		return cached.getRenderedEntry(ids[next++ % ids.length]).getHtml();
+	}
+	
+	/**
+	 * Decompress a body
+	 */
+	@Benchmark
+	public String decompress() {
+		return ContentCodec.decompress(compressed);
+	}
+}
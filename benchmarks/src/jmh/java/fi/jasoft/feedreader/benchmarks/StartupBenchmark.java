@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.jasoft.feedreader.data.FeedSummary;
+import fi.jasoft.feedreader.service.FeedPersistence;
+
+/**
+ * Benchmarks of what the application does before it can show the first page of 
+ * the feed grid: start the persistence layer on an existing database and load the 
+ * first page of feeds. Every invocation starts the persistence layer from scratch.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+public class StartupBenchmark {
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		Fixtures.clearDatabase();
+		for(int i = 0; i < 50; i++){
+			Fixtures.createDatabaseFeed("http://localhost/startup/" + i, 10, "Startup");
+		}
+	}
+	
+	@Setup(Level.Invocation)
+	public void stop() {
+		FeedPersistence.stop();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.shutdown();
+	}
+	
+	/**
+	 * Start the persistence layer
+	 */
+	@Benchmark
+	public boolean start() {
+		FeedPersistence.start();
+		return FeedPersistence.isStarted();
+	}
+	
+	/**
+	 * Start the persistence layer and load the first page of feeds, as the first request does
+	 */
+	@Benchmark
+	public List<FeedSummary> firstPage() {
+		FeedPersistence.start();
+		return Fixtures.newDatabaseService().getFeedSummaries(0, 40);
+	}
+}
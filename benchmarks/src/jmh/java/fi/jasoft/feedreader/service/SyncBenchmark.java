@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import fi.jasoft.feedreader.benchmarks.FixtureServer;
+import fi.jasoft.feedreader.benchmarks.Fixtures;
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Benchmarks of {@link FeedServiceImpl#syncronize(Feed)}, as a whole and split into its 
+ * parse, entry matching and persist phases. Lives in the service package to reach the 
+ * phases of the synchronization. Always uses the database implementation.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SyncBenchmark {
+	
+	@Param({"rss-10.xml", "atom-50.xml", "rss-200.xml"})
+	String fixture;
+	
+	FixtureServer server;
+	
+	FeedServiceImpl service;
+	
+	Feed feed;
+	
+	FetchResult fetched;
+	
+	FeedServiceImpl.Incoming incoming;
+	
+	Set<String> recent;
+	
+	EntityManager em;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		Fixtures.clearDatabase();
+		server = new FixtureServer();
+		feed = Fixtures.createDatabaseFeed(server.url(fixture), 0, null);
+		service = Fixtures.newDatabaseService();
+		service.syncronize(feed);
+		
+		byte[] body = Fixtures.load(fixture);
+		fetched = FetchResult.fetched(body, Fixtures.contentType(fixture), null, null, Digests.sha1(body), 0);
+		em = FeedPersistence.createEntityManager();
+		recent = FeedServiceImpl.findRecentKeys(feed, em);
+		try{
+			incoming = service.parse(fetched, Collections.emptySet());
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		em.close();
+		server.close();
+		Fixtures.shutdown();
+	}
+	
+	/**
+	 * Parse the whole document
+	 */
+	@Benchmark
+	public FeedServiceImpl.Incoming parse() throws Exception {
+		return service.parse(fetched, Collections.emptySet());
+	}
+	
+	/**
+	 * Parse until a run of already stored entries, the common case when polling
+	 */
+	@Benchmark
+	public FeedServiceImpl.Incoming parseKnown() throws Exception {
+		return service.parse(fetched, recent);
+	}
+	
+	/**
+	 * Parse the whole document with Rome, for comparison with the streaming parser
+	 */
+	@Benchmark
+	public ParsedFeed parseRome() throws Exception {
+		return new RomeFeedParser().parse(new ByteArrayInputStream(fetched.getBody()), 
+				fetched.getContentType(), e -> true);
+	}
+	
+	/**
+	 * Match every entry of the document against the stored entries
+	 */
+	@Benchmark
+	public FeedServiceImpl.Changes match() {
+		FeedServiceImpl.Changes changes = service.match(feed, incoming, em);
+		em.clear();
+		return changes;
+	}
+	
+	/**
+	 * Store every entry of the document as new entries
+	 */
+	@Benchmark
+	public void persist(NewEntries batch) {
+		service.persist(feed, fetched, incoming, batch.changes, em);
+		em.clear();
+	}
+	
+	/**
+	 * Fetch, parse and match an unchanged document from the local server
+	 */
+	@Benchmark
+	public void syncronize() {
+		service.syncronize(feed);
+	}
+	
+	/**
+	 * The entries of the fixture under keys not stored yet
+	 */
+	@State(Scope.Thread)
+	public static class NewEntries {
+		
+		private long generation;
+		
+		FeedServiceImpl.Changes changes;
+		
+		@Setup(Level.Invocation)
+		public void prepare(SyncBenchmark benchmark) {
+			generation++;
+			changes = new FeedServiceImpl.Changes();
+			for(Map.Entry<String, ParsedEntry> e : benchmark.incoming.entries.entrySet()){
+				changes.added.put(e.getKey() + "#" + generation, e.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the bodies of feed entries for storage.
+ * <p>
+ * Entry bodies are short HTML documents that share a lot of markup but are too 
+ * small for deflate to learn it on its own. The bodies are therefore deflated 
+ * with a preset dictionary of common feed HTML. The first byte of the stored 
+ * value identifies the format so the dictionary can be changed without 
+ * rewriting old rows.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public final class ContentCodec {
+	
+	/*
+	 * Stored as plain UTF-8, used when compression would not save anything
+	 */
+	private static final byte RAW = 0;
+	
+	/*
+	 * Deflated with version 1 of the dictionary
+	 */
+	private static final byte DEFLATE_V1 = 1;
+	
+	/*
+	 * Feed HTML fragments, the most common ones last as deflate prefers short distances
+	 */
+	private static final byte[] DICTIONARY_V1 = (
+			"<table><tr><td></td></tr></table><blockquote></blockquote><iframe src=\"https://www.youtube.com/embed/"
+			+ "<h1></h1><h2></h2><h3></h3><h4></h4><pre><code></code></pre><figure><figcaption></figcaption></figure>"
+			+ "<span style=\"\"></span><div class=\"feedflare\"><img src=\"http://feeds.feedburner.com/~ff/"
+			+ "<ol><li></li></ol><ul><li></li></ul><em></em><strong></strong><b></b><i></i>&quot;&amp;&#8217;&#8220;&#8221;"
+			+ " width=\"\" height=\"\" alt=\"\" title=\"\" border=\"0\" rel=\"nofollow\" target=\"_blank\" "
+			+ "The post  appeared first on  Continue reading  Read more &raquo; &hellip;&nbsp;"
+			+ " of the  and the  to the  in the  for the  on the  that  with  this  from  is  are  was "
+			+ "<br /><br><div></div><div class=\"\"><img src=\"https://<a href=\"http://<a href=\"https://"
+			+ "</a></p><p></p>\n<p>").getBytes(StandardCharsets.UTF_8);
+	
+	private ContentCodec() {
+		// Only static access
+	}
+	
+	/**
+	 * Compress an entry body for storage
+	 * 
+	 * @param content
+	 * 		The body to compress, can be <code>null</code>
+	 * @return
+	 * 		The stored form of the body or <code>null</code> if the body was <code>null</code>
+	 */
+	public static byte[] compress(String content) {
+		if(content == null){
+			return null;
+		}
+		
+		byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try{
+			deflater.setDictionary(DICTIONARY_V1);
+			deflater.setInput(raw);
+			deflater.finish();
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+			out.write(DEFLATE_V1);
+			byte[] buffer = new byte[4096];
+			while(!deflater.finished()){
+				int length = deflater.deflate(buffer);
+				out.write(buffer, 0, length);
+				if(out.size() > raw.length){
+					return stored(raw);
+				}
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Restore an entry body compressed with {@link #compress(String)}
+	 * 
+	 * @param stored
+	 * 		The stored form of the body, can be <code>null</code>
+	 * @return
+	 * 		The body or <code>null</code> if the stored value was <code>null</code>
+	 */
+	public static String decompress(byte[] stored) {
+		if(stored == null || stored.length == 0){
+			return null;
+		}
+		
+		switch(stored[0]){
+			case RAW:
+				return new String(stored, 1, stored.length - 1, StandardCharsets.UTF_8);
+			case DEFLATE_V1:
+				return inflate(stored, DICTIONARY_V1);
+			default:
+				throw new IllegalArgumentException("Unknown content format " + stored[0]);
+		}
+	}
+	
+	private static String inflate(byte[] stored, byte[] dictionary) {
+		Inflater inflater = new Inflater();
+		try{
+			inflater.setInput(stored, 1, stored.length - 1);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+			byte[] buffer = new byte[4096];
+			while(!inflater.finished()){
+				int length = inflater.inflate(buffer);
+				if(length == 0){
+					if(inflater.needsDictionary()){
+						inflater.setDictionary(dictionary);
+					} else if(inflater.needsInput()){
+						throw new IllegalArgumentException("Truncated content");
+					}
+				}
+				out.write(buffer, 0, length);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Corrupted content", e);
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	private static byte[] stored(byte[] raw) {
+		byte[] stored = Arrays.copyOf(new byte[]{ RAW }, raw.length + 1);
+		System.arraycopy(raw, 0, stored, 1, raw.length);
+		return stored;
+	}
+}
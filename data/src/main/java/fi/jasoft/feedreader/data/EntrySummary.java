@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A lightweight, read-only view of a {@link FeedEntry} without its content. Used for 
+ * listing entries. 
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class EntrySummary implements Serializable {
+	
+	private final long id;
+	
+	private final String title;
+	
+	private final Date published;
+
+	/**
+	 * Create a new summary. Used by JPQL constructor expressions.
+	 * 
+	 * @param id
+	 * 		The id of the entry
+	 * @param title
+	 * 		The title of the entry
+	 * @param published
+	 * 		The publish date of the entry
+	 */
+	public EntrySummary(long id, String title, Date published) {
+		this.id = id;
+		this.title = title;
+		this.published = published;
+	}
+
+	/**
+	 * Get the id of the entry
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Get the title of the entry
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Get the publish date of the entry
+	 */
+	public Date getPublished() {
+		return published;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof EntrySummary && ((EntrySummary) obj).id == id;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(id);
+	}
+}
@@ -16,16 +16,21 @@
 package fi.jasoft.feedreader.data;
 
 import java.io.Serializable;
+import java.util.Date;
 import java.util.List;
 
 import javax.annotation.Generated;
 import javax.persistence.Column;
-import javax.persistence.ElementCollection;
 import javax.persistence.Embedded;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.OneToMany;
+import javax.persistence.OrderBy;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.persistence.Version;
 
 /**
@@ -46,9 +51,49 @@ public class Feed implements Serializable{
 	@Column(length=256,nullable=false,unique=true) 
 	String url;
 	
-	@ElementCollection 
+	@Column(length=256)
+	String title;
+	
+	int entryCount;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	Date lastUpdated;
+	
+	int ttl;
+	
+	@Column(length=100)
+	String skipHours;
+	
+	long postInterval;
+	
+	@OneToMany(mappedBy="feed", fetch=FetchType.LAZY)
+	@OrderBy("published DESC")
 	List<FeedEntry> entries;
 	
+	@Column(length=256)
+	String etag;
+	
+	@Column(length=64)
+	String lastModified;
+	
+	@Column(length=64)
+	String contentHash;
+	
+	int maxEntries;
+	
+	int maxAge;
+	
+	Boolean keepStarred;
+	
+	/*
+	 * Maintained by the feed service with relative updates, never written from the entity
+	 */
+	@Column(name="NEXTORDINAL", updatable=false)
+	int nextOrdinal;
+	
+	@Column(name="UNREADCOUNT", updatable=false)
+	int unreadCount;
+	
 	/**
 	 * Get the URL identifying the feed
 	 */
@@ -67,14 +112,68 @@ public class Feed implements Serializable{
 	}
 
 	/**
-	 * Get the entries of the of the feed
+	 * Get the title of the feed as published in the feed document
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Set the title of the feed. Usually this is done during synchronization
+	 * 
+	 * @param title
+	 * 		The title of the feed
+	 */
+	public void setTitle(String title) {
+		this.title = title;
+	}
+
+	/**
+	 * Get the number of entries stored for the feed. Maintained by synchronization 
+	 * so the entries do not need to be counted.
+	 */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Set the number of entries stored for the feed.
+	 * 
+	 * @param entryCount
+	 * 		The number of entries
+	 */
+	public void setEntryCount(int entryCount) {
+		this.entryCount = entryCount;
+	}
+
+	/**
+	 * Get the time a synchronization last stored new or changed entries for the feed
+	 */
+	public Date getLastUpdated() {
+		return lastUpdated;
+	}
+
+	/**
+	 * Set the time a synchronization last stored new or changed entries for the feed
+	 * 
+	 * @param lastUpdated
+	 * 		The time of the synchronization
+	 */
+	public void setLastUpdated(Date lastUpdated) {
+		this.lastUpdated = lastUpdated;
+	}
+
+	/**
+	 * Get the entries of the of the feed. The entries are loaded lazily, newest first. 
+	 * Entries are owned by the {@link FeedEntry#getFeed()} side, changes to this list
+	 * are not persisted.
 	 */
 	public List<FeedEntry> getEntries() {
 		return entries;
 	}
 
 	/**
-	 * Set the entries of the feed. Usually this is done during synchronization
+	 * Set the entries of the feed. Provided for JPA, entries are added by synchronization.
 	 * 
 	 * @param entries
 	 * 		The entries of the feed
@@ -117,4 +216,201 @@ public class Feed implements Serializable{
 	public void setVersion(int version) {
 		this.version = version;
 	}
+
+	/**
+	 * Get the HTTP ETag the feed was last fetched with. Used for conditional requests.
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Set the HTTP ETag the feed was last fetched with.
+	 * 
+	 * @param etag
+	 * 		The value of the ETag response header
+	 */
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+
+	/**
+	 * Get the HTTP Last-Modified date the feed was last fetched with. Used for conditional requests.
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Set the HTTP Last-Modified date the feed was last fetched with.
+	 * 
+	 * @param lastModified
+	 * 		The value of the Last-Modified response header
+	 */
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Get the hash of the feed document last fetched. Used to detect unchanged feeds 
+	 * from servers which do not support conditional requests.
+	 */
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * Set the hash of the feed document last fetched.
+	 * 
+	 * @param contentHash
+	 * 		The hex encoded hash of the feed document
+	 */
+	public void setContentHash(String contentHash) {
+		this.contentHash = contentHash;
+	}
+
+	/**
+	 * Get the minimum time in minutes between polls declared by the publisher, 
+	 * for example with the RSS <code>ttl</code> element. 0 if not declared.
+	 */
+	public int getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Set the minimum time in minutes between polls declared by the publisher
+	 * 
+	 * @param ttl
+	 * 		The time to live in minutes, 0 if not declared
+	 */
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Get the hours of the day (GMT) during which the feed should not be polled, as 
+	 * a comma separated list. <code>null</code> if not declared.
+	 */
+	public String getSkipHours() {
+		return skipHours;
+	}
+
+	/**
+	 * Set the hours of the day (GMT) during which the feed should not be polled
+	 * 
+	 * @param skipHours
+	 * 		Comma separated list of hours between 0 and 23
+	 */
+	public void setSkipHours(String skipHours) {
+		this.skipHours = skipHours;
+	}
+
+	/**
+	 * Get the observed average time in seconds between new entries in the feed. 
+	 * 0 if not yet known.
+	 */
+	public long getPostInterval() {
+		return postInterval;
+	}
+
+	/**
+	 * Set the observed average time in seconds between new entries in the feed
+	 * 
+	 * @param postInterval
+	 * 		The interval in seconds
+	 */
+	public void setPostInterval(long postInterval) {
+		this.postInterval = postInterval;
+	}
+
+	/**
+	 * Get the maximum number of entries kept for the feed. 0 if the default retention 
+	 * applies, negative if the number of entries is not limited.
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Set the maximum number of entries kept for the feed. The oldest entries 
+	 * exceeding the limit are purged.
+	 * 
+	 * @param maxEntries
+	 * 		The number of entries, 0 for the default or negative for no limit
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Get the maximum age in days of the entries kept for the feed. 0 if the default 
+	 * retention applies, negative if the age of entries is not limited.
+	 */
+	public int getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * Set the maximum age in days of the entries kept for the feed. Entries published 
+	 * earlier are purged.
+	 * 
+	 * @param maxAge
+	 * 		The age in days, 0 for the default or negative for no limit
+	 */
+	public void setMaxAge(int maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Are starred entries of the feed kept regardless of the retention limits. 
+	 * <code>null</code> if the default applies.
+	 */
+	public Boolean getKeepStarred() {
+		return keepStarred;
+	}
+
+	/**
+	 * Set whether starred entries of the feed are kept regardless of the retention limits
+	 * 
+	 * @param keepStarred
+	 * 		Whether to keep starred entries, or <code>null</code> for the default
+	 */
+	public void setKeepStarred(Boolean keepStarred) {
+		this.keepStarred = keepStarred;
+	}
+
+	/**
+	 * Get the ordinal the next new entry of the feed gets. Entries are numbered 
+	 * in the order they are stored.
+	 */
+	public int getNextOrdinal() {
+		return nextOrdinal;
+	}
+
+	/**
+	 * Set the ordinal the next new entry of the feed gets. Not stored by updates of the feed.
+	 * 
+	 * @param nextOrdinal
+	 * 		The next ordinal
+	 */
+	public void setNextOrdinal(int nextOrdinal) {
+		this.nextOrdinal = nextOrdinal;
+	}
+
+	/**
+	 * Get the number of entries of the feed which have not been read
+	 */
+	public int getUnreadCount() {
+		return unreadCount;
+	}
+
+	/**
+	 * Set the number of unread entries. Not stored by updates of the feed.
+	 * 
+	 * @param unreadCount
+	 * 		The number of unread entries
+	 */
+	public void setUnreadCount(int unreadCount) {
+		this.unreadCount = unreadCount;
+	}
 }
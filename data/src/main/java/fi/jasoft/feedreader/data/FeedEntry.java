@@ -16,27 +16,146 @@
 
 package fi.jasoft.feedreader.data;
 
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
 import javax.persistence.Column;
-import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
-import javax.persistence.OrderColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+
+import org.eclipse.persistence.annotations.Index;
+import org.eclipse.persistence.annotations.Indexes;
 
 /**
  * A entry in a RSS/ATOM feed
  * 
  * @author John Ahlroos / www.jasoft.fi
  */
-@Embeddable
-public class FeedEntry {
+@Entity
+@Table(uniqueConstraints=@UniqueConstraint(columnNames={"FEED_ID", "ENTRYKEY"}))
+@Indexes({
+	@Index(name="FEEDENTRY_PUBLISHED", columnNames={"FEED_ID", "PUBLISHED", "ID"}),
+	@Index(name="FEEDENTRY_TIMELINE", columnNames={"PUBLISHED", "ID"})
+})
+public class FeedEntry implements Serializable {
+	
+	/**
+	 * The maximum length of the preview text of an entry
+	 */
+	public static final int PREVIEW_LENGTH = 300;
+	
+	@Id 
+	@GeneratedValue(strategy=GenerationType.SEQUENCE)
+	long id;
+	
+	@ManyToOne(fetch=FetchType.LAZY, optional=false)
+	@JoinColumn(name="FEED_ID", nullable=false)
+	Feed feed;
 
 	@Column(length=256)
 	String title;
 	
+	/*
+	 * Uncompressed body of entries stored before compression, emptied by the migration
+	 */
+	@Lob
+	@Column(name="CONTENT")
+	String legacyContent;
+	
 	@Lob
-	String content;
+	@Column(name="CONTENTZ")
+	byte[] compressedContent;
+	
+	/*
+	 * Size of the body in UTF-8 bytes, before and after compression
+	 */
+	@Column(name="CONTENTSIZE")
+	int contentSize;
+	
+	@Column(name="STOREDSIZE")
+	int storedSize;
+	
+	transient String content;
+	
+	/*
+	 * Sanitized HTML of the body rendered at ingest, compressed
+	 */
+	@Lob
+	@Column(name="HTMLZ")
+	byte[] compressedHtml;
+	
+	transient String html;
+	
+	@Column(name="PREVIEW", length=PREVIEW_LENGTH)
+	String preview;
 	
 	@Column(length=256)
 	String url;
+	
+	@Column(length=256)
+	String entryKey;
+	
+	@Column(length=40)
+	String fingerprint;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name="PUBLISHED")
+	Date published;
+	
+	@Column(name="STARRED")
+	boolean starred;
+	
+	/*
+	 * Number of the entry within its feed in the order entries were stored, 
+	 * null for entries stored before entries were numbered
+	 */
+	@Column(name="ORDINAL")
+	Integer ordinal;
+	
+	/**
+	 * Get id identifying this entry. Autogenerated by JPA
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Set id identifying this entry. Do not set manually, provided for JPA.
+	 * 
+	 * @param id
+	 * 		The id of the entry
+	 */
+	public void setId(long id) {
+		this.id = id;
+	}
+	
+	/**
+	 * Get the feed this entry belongs to
+	 */
+	public Feed getFeed() {
+		return feed;
+	}
+
+	/**
+	 * Set the feed this entry belongs to
+	 * 
+	 * @param feed
+	 * 		The owning feed
+	 */
+	public void setFeed(Feed feed) {
+		this.feed = feed;
+	}
 
 	/**
 	 * Get the title of the feed entry
@@ -56,20 +175,137 @@ public class FeedEntry {
 	}
 
 	/**
-	 * Get the body text of the feed entry. Can be HTML or text
+	 * Get the body text of the feed entry. Can be HTML or text. 
+	 * The body is decompressed on the first call.
 	 */
 	public String getContent() {
+		if(content == null){
+			content = compressedContent != null 
+					? ContentCodec.decompress(compressedContent) 
+					: legacyContent;
+		}
 		return content;
 	}
 
 	/**
-	 * Set the body text of the feed entry. HTML and text supported
+	 * Set the body text of the feed entry. HTML and text supported. 
+	 * The body is stored compressed.
 	 * 
 	 * @param content
 	 * 		The body text
 	 */
 	public void setContent(String content) {
 		this.content = content;
+		this.legacyContent = null;
+		this.compressedContent = ContentCodec.compress(content);
+		this.contentSize = content == null ? 0 : content.getBytes(StandardCharsets.UTF_8).length;
+		this.storedSize = compressedContent == null ? 0 : compressedContent.length;
+	}
+	
+	/**
+	 * Get the body as compressed by {@link ContentCodec}. <code>null</code> if the entry 
+	 * has no body or the body is still stored uncompressed.
+	 */
+	public byte[] getCompressedContent() {
+		return compressedContent;
+	}
+	
+	/**
+	 * Set the body already compressed by {@link ContentCodec}. The body is decompressed 
+	 * when it is first read.
+	 * 
+	 * @param compressedContent
+	 * 		The compressed body
+	 * @param contentSize
+	 * 		The size of the body in UTF-8 bytes before compression
+	 */
+	public void setCompressedContent(byte[] compressedContent, int contentSize) {
+		this.content = null;
+		this.legacyContent = null;
+		this.compressedContent = compressedContent;
+		this.contentSize = contentSize;
+		this.storedSize = compressedContent == null ? 0 : compressedContent.length;
+	}
+	
+	/**
+	 * Get the sanitized HTML of the body, safe to show as is. The HTML is decompressed on the first call.
+	 * 
+	 * @return
+	 * 		The HTML, or <code>null</code> if the body has not been rendered
+	 */
+	public String getHtml() {
+		if(html == null && compressedHtml != null){
+			html = ContentCodec.decompress(compressedHtml);
+		}
+		return html;
+	}
+	
+	/**
+	 * Set the sanitized HTML of the body. The HTML is stored compressed.
+	 * 
+	 * @param html
+	 * 		The sanitized HTML
+	 */
+	public void setHtml(String html) {
+		this.html = html;
+		this.compressedHtml = ContentCodec.compress(html);
+	}
+	
+	/**
+	 * Get the sanitized HTML as compressed by {@link ContentCodec}, <code>null</code> if the 
+	 * body has not been rendered
+	 */
+	public byte[] getCompressedHtml() {
+		return compressedHtml;
+	}
+	
+	/**
+	 * Set the sanitized HTML already compressed by {@link ContentCodec}
+	 * 
+	 * @param compressedHtml
+	 * 		The compressed HTML
+	 */
+	public void setCompressedHtml(byte[] compressedHtml) {
+		this.html = null;
+		this.compressedHtml = compressedHtml;
+	}
+	
+	/**
+	 * Get the beginning of the body as plain text, at most {@link #PREVIEW_LENGTH} characters
+	 */
+	public String getPreview() {
+		return preview;
+	}
+	
+	/**
+	 * Set the beginning of the body as plain text
+	 * 
+	 * @param preview
+	 * 		The preview text, at most {@link #PREVIEW_LENGTH} characters
+	 */
+	public void setPreview(String preview) {
+		this.preview = preview;
+	}
+	
+	/**
+	 * Is the body of the entry still stored uncompressed
+	 */
+	public boolean isLegacyContent() {
+		return compressedContent == null && legacyContent != null;
+	}
+	
+	/**
+	 * Get the size of the body in UTF-8 bytes before compression
+	 */
+	public int getContentSize() {
+		return contentSize;
+	}
+	
+	/**
+	 * Get the size of the body as stored
+	 */
+	public int getStoredSize() {
+		return storedSize;
 	}
 
 	/**
@@ -88,4 +324,93 @@ public class FeedEntry {
 	public void setUrl(String url) {
 		this.url = url;
 	}
+
+	/**
+	 * Get the key identifying this entry within its feed. Derived from the guid, 
+	 * link or title of the entry.
+	 */
+	public String getEntryKey() {
+		return entryKey;
+	}
+
+	/**
+	 * Set the key identifying this entry within its feed.
+	 * 
+	 * @param entryKey
+	 * 		The normalised identity of the entry
+	 */
+	public void setEntryKey(String entryKey) {
+		this.entryKey = entryKey;
+	}
+
+	/**
+	 * Get the fingerprint of the title and content of the entry. Used to detect 
+	 * changed entries during synchronization.
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Set the fingerprint of the title and content of the entry.
+	 * 
+	 * @param fingerprint
+	 * 		The hex encoded fingerprint
+	 */
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Get the date the entry was published. If the feed does not provide one, the date
+	 * the entry was first seen.
+	 */
+	public Date getPublished() {
+		return published;
+	}
+
+	/**
+	 * Set the date the entry was published.
+	 * 
+	 * @param published
+	 * 		The publish date
+	 */
+	public void setPublished(Date published) {
+		this.published = published;
+	}
+
+	/**
+	 * Has the user starred the entry
+	 */
+	public boolean isStarred() {
+		return starred;
+	}
+
+	/**
+	 * Star or unstar the entry. Starred entries can be kept when older entries are purged.
+	 * 
+	 * @param starred
+	 * 		Is the entry starred
+	 */
+	public void setStarred(boolean starred) {
+		this.starred = starred;
+	}
+
+	/**
+	 * Get the number of the entry within its feed. Entries are numbered in the order they were 
+	 * stored. <code>null</code> if the entry has not been numbered yet.
+	 */
+	public Integer getOrdinal() {
+		return ordinal;
+	}
+
+	/**
+	 * Set the number of the entry within its feed. Assigned by the feed service.
+	 * 
+	 * @param ordinal
+	 * 		The ordinal of the entry
+	 */
+	public void setOrdinal(Integer ordinal) {
+		this.ordinal = ordinal;
+	}
 }
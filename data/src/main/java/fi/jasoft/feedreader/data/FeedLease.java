@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.data;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import org.eclipse.persistence.annotations.Index;
+
+/**
+ * The polling state of a feed shared by the sync workers, and the lease of the worker 
+ * currently synchronizing it. A worker may synchronize a feed only while it holds an 
+ * unexpired lease on it, an expired lease can be taken over by any worker.
+ * <p>
+ * Leases are only changed with conditional bulk updates, the entity is used for reading them.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+@Entity
+@Index(name="FEEDLEASE_DUE", columnNames={"DUE"})
+public class FeedLease implements Serializable {
+	
+	@Id
+	@Column(name="FEED_ID")
+	long feedId;
+	
+	@Column(length=64)
+	String owner;
+	
+	long token;
+	
+	long expires;
+	
+	long due;
+	
+	int failures;
+	
+	int unchanged;
+
+	/**
+	 * Get the id of the leased feed
+	 */
+	public long getFeedId() {
+		return feedId;
+	}
+
+	/**
+	 * Set the id of the leased feed
+	 * 
+	 * @param feedId
+	 * 		The id of the feed
+	 */
+	public void setFeedId(long feedId) {
+		this.feedId = feedId;
+	}
+
+	/**
+	 * Get the id of the worker holding the lease, <code>null</code> if the feed is not leased
+	 */
+	public String getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Set the id of the worker holding the lease
+	 * 
+	 * @param owner
+	 * 		The id of the worker or <code>null</code>
+	 */
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * Get the number of times the feed has been leased. Every lease gets a new token, so a 
+	 * worker whose lease has been taken over can tell it no longer holds it.
+	 */
+	public long getToken() {
+		return token;
+	}
+
+	/**
+	 * Set the number of times the feed has been leased
+	 * 
+	 * @param token
+	 * 		The token of the current lease
+	 */
+	public void setToken(long token) {
+		this.token = token;
+	}
+
+	/**
+	 * Get the time the lease expires in milliseconds since the epoch, unless it is renewed
+	 */
+	public long getExpires() {
+		return expires;
+	}
+
+	/**
+	 * Set the time the lease expires
+	 * 
+	 * @param expires
+	 * 		The time in milliseconds since the epoch
+	 */
+	public void setExpires(long expires) {
+		this.expires = expires;
+	}
+
+	/**
+	 * Get the time the feed is due to be synchronized next in milliseconds since the epoch
+	 */
+	public long getDue() {
+		return due;
+	}
+
+	/**
+	 * Set the time the feed is due to be synchronized next
+	 * 
+	 * @param due
+	 * 		The time in milliseconds since the epoch
+	 */
+	public void setDue(long due) {
+		this.due = due;
+	}
+
+	/**
+	 * Get the number of synchronizations in a row which have failed
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Set the number of synchronizations in a row which have failed
+	 * 
+	 * @param failures
+	 * 		The number of failures
+	 */
+	public void setFailures(int failures) {
+		this.failures = failures;
+	}
+
+	/**
+	 * Get the number of synchronizations in a row which found no changes
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * Set the number of synchronizations in a row which found no changes
+	 * 
+	 * @param unchanged
+	 * 		The number of unchanged synchronizations
+	 */
+	public void setUnchanged(int unchanged) {
+		this.unchanged = unchanged;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A lightweight, read-only view of a {@link Feed} without its entries. Used for listing feeds.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class FeedSummary implements Serializable {
+	
+	private final long id;
+	
+	private final String url;
+	
+	private final String title;
+	
+	private final int entryCount;
+	
+	private final Date lastUpdated;
+	
+	private final int unreadCount;
+
+	/**
+	 * Create a new summary. Used by JPQL constructor expressions.
+	 * 
+	 * @param id
+	 * 		The id of the feed
+	 * @param url
+	 * 		The url of the feed
+	 * @param title
+	 * 		The title of the feed
+	 * @param entryCount
+	 * 		The number of entries in the feed
+	 * @param lastUpdated
+	 * 		The time the feed was last updated
+	 * @param unreadCount
+	 * 		The number of unread entries in the feed
+	 */
+	public FeedSummary(long id, String url, String title, int entryCount, Date lastUpdated, int unreadCount) {
+		this.id = id;
+		this.url = url;
+		this.title = title;
+		this.entryCount = entryCount;
+		this.lastUpdated = lastUpdated;
+		this.unreadCount = unreadCount;
+	}
+	
+	/**
+	 * Create a summary of a feed
+	 * 
+	 * @param feed
+	 * 		The feed to summarize
+	 */
+	public static FeedSummary of(Feed feed) {
+		return new FeedSummary(feed.getId(), feed.getUrl(), feed.getTitle(), feed.getEntryCount(), 
+				feed.getLastUpdated(), feed.getUnreadCount());
+	}
+
+	/**
+	 * Get the id of the feed
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Get the url of the feed
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Get the title of the feed. <code>null</code> if the feed has not been synchronized.
+	 */
+	public String getTitle() {
+		return title;
+	}
+	
+	/**
+	 * Get the title of the feed, or the url if the feed has no title
+	 */
+	public String getCaption() {
+		return title == null || title.trim().isEmpty() ? url : title;
+	}
+
+	/**
+	 * Get the number of entries in the feed
+	 */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * Get the number of entries in the feed which have not been read
+	 */
+	public int getUnreadCount() {
+		return unreadCount;
+	}
+
+	/**
+	 * Get the time the feed was last updated with new or changed entries
+	 */
+	public Date getLastUpdated() {
+		return lastUpdated;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof FeedSummary && ((FeedSummary) obj).id == id;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(id);
+	}
+}
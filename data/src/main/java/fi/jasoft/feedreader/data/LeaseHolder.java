@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.data;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * A running sync worker. Workers record a heartbeat regularly, the workers with a recent 
+ * heartbeat share the due feeds between them.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+@Entity
+public class LeaseHolder implements Serializable {
+	
+	@Id
+	@Column(length=64)
+	String id;
+	
+	long heartbeat;
+
+	/**
+	 * Get the id of the worker
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Set the id of the worker
+	 * 
+	 * @param id
+	 * 		An id unique among all running workers
+	 */
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * Get the time of the last heartbeat of the worker in milliseconds since the epoch
+	 */
+	public long getHeartbeat() {
+		return heartbeat;
+	}
+
+	/**
+	 * Set the time of the last heartbeat of the worker
+	 * 
+	 * @param heartbeat
+	 * 		The time in milliseconds since the epoch
+	 */
+	public void setHeartbeat(long heartbeat) {
+		this.heartbeat = heartbeat;
+	}
+}
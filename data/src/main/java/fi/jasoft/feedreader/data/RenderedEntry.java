@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A read-only view of a {@link FeedEntry} ready to be shown, with the sanitized HTML 
+ * of its body instead of the raw content. Safe to cache and share between sessions.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class RenderedEntry implements Serializable {
+	
+	private final long id;
+	
+	private final long feedId;
+	
+	private final String title;
+	
+	private final String url;
+	
+	private final Date published;
+	
+	private final boolean starred;
+	
+	private final String html;
+	
+	private final String preview;
+
+	/**
+	 * Create a new rendered entry
+	 * 
+	 * @param id
+	 * 		The id of the entry
+	 * @param feedId
+	 * 		The id of the feed of the entry
+	 * @param title
+	 * 		The title of the entry
+	 * @param url
+	 * 		The link to the online version of the entry
+	 * @param published
+	 * 		The publish date of the entry
+	 * @param starred
+	 * 		Is the entry starred
+	 * @param html
+	 * 		The sanitized HTML of the body
+	 * @param preview
+	 * 		The beginning of the body as plain text
+	 */
+	public RenderedEntry(long id, long feedId, String title, String url, Date published, boolean starred, 
+			String html, String preview) {
+		this.id = id;
+		this.feedId = feedId;
+		this.title = title;
+		this.url = url;
+		this.published = published;
+		this.starred = starred;
+		this.html = html;
+		this.preview = preview;
+	}
+
+	/**
+	 * Get the id of the entry
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Get the id of the feed of the entry
+	 */
+	public long getFeedId() {
+		return feedId;
+	}
+
+	/**
+	 * Get the title of the entry
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Get the link to the online version of the entry
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Get the publish date of the entry
+	 */
+	public Date getPublished() {
+		return published;
+	}
+
+	/**
+	 * Was the entry starred when it was rendered
+	 */
+	public boolean isStarred() {
+		return starred;
+	}
+
+	/**
+	 * Get the sanitized HTML of the body, safe to show as is
+	 */
+	public String getHtml() {
+		return html;
+	}
+
+	/**
+	 * Get the beginning of the body as plain text
+	 */
+	public String getPreview() {
+		return preview;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof RenderedEntry && ((RenderedEntry) obj).id == id;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(id);
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.ui;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import com.vaadin.data.provider.DataProvider;
+import com.vaadin.data.provider.Query;
+import com.vaadin.server.SerializableBiFunction;
+import com.vaadin.server.SerializableSupplier;
+
+import fi.jasoft.feedreader.data.EntrySummary;
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.service.FeedService;
+
+/**
+ * Adapts the keyset paging of {@link FeedService#getEntries(Feed, EntrySummary, int)} and 
+ * {@link FeedService#getTimeline(EntrySummary, int)} to the offset based queries made by a grid.
+ * <p>
+ * The last entry of every fetched page is remembered as a cursor, so scrolling forward continues
+ * from the nearest known cursor instead of skipping over all previous entries.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class EntryPager implements Serializable {
+	
+	private final SerializableBiFunction<EntrySummary, Integer, List<EntrySummary>> pages;
+	
+	private final SerializableSupplier<Integer> counter;
+	
+	/*
+	 * Offset of the row following the cursor -> the cursor
+	 */
+	private final TreeMap<Integer, EntrySummary> cursors = new TreeMap<>();
+
+	/**
+	 * Create a pager for the entries of a feed
+	 * 
+	 * @param feedService
+	 * 		The service to load the entries from
+	 * @param feed
+	 * 		The feed whose entries are paged
+	 */
+	public EntryPager(FeedService feedService, Feed feed) {
+		this((after, limit) -> feedService.getEntries(feed, after, limit), () -> feedService.countEntries(feed));
+	}
+	
+	/**
+	 * Create a pager
+	 * 
+	 * @param pages
+	 * 		Loads the given number of entries following the given entry, or the first entries for <code>null</code>
+	 * @param counter
+	 * 		Counts the entries
+	 */
+	public EntryPager(SerializableBiFunction<EntrySummary, Integer, List<EntrySummary>> pages, 
+			SerializableSupplier<Integer> counter) {
+		this.pages = pages;
+		this.counter = counter;
+	}
+	
+	/**
+	 * Create a lazy data provider backed by a new pager
+	 * 
+	 * @param feedService
+	 * 		The service to load the entries from
+	 * @param feed
+	 * 		The feed whose entries are paged
+	 */
+	public static DataProvider<EntrySummary, Void> dataProvider(FeedService feedService, Feed feed) {
+		EntryPager pager = new EntryPager(feedService, feed);
+		return DataProvider.fromCallbacks(pager::fetch, pager::count);
+	}
+	
+	/**
+	 * Create a lazy data provider of the merged entries of all feeds backed by a new pager
+	 * 
+	 * @param feedService
+	 * 		The service to load the entries from
+	 */
+	public static DataProvider<EntrySummary, Void> timelineProvider(FeedService feedService) {
+		EntryPager pager = new EntryPager(feedService::getTimeline, feedService::countTimeline);
+		return DataProvider.fromCallbacks(pager::fetch, pager::count);
+	}
+	
+	/**
+	 * Fetch the rows requested by the query
+	 */
+	public Stream<EntrySummary> fetch(Query<EntrySummary, Void> query) {
+		int offset = query.getOffset();
+		Map.Entry<Integer, EntrySummary> nearest = cursors.floorEntry(offset);
+		int start = nearest == null ? 0 : nearest.getKey();
+		EntrySummary after = nearest == null ? null : nearest.getValue();
+		int skip = offset - start;
+		
+		List<EntrySummary> rows = pages.apply(after, skip + query.getLimit());
+		if(!rows.isEmpty()){
+			cursors.put(start + rows.size(), rows.get(rows.size() - 1));
+		}
+		return rows.stream().skip(skip);
+	}
+	
+	/**
+	 * Count the rows available
+	 */
+	public int count(Query<EntrySummary, Void> query) {
+		return counter.get();
+	}
+}
@@ -15,19 +15,212 @@
  */
 package fi.jasoft.feedreader.ui;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebInitParam;
 import javax.servlet.annotation.WebServlet;
 import com.vaadin.server.VaadinServlet;
 
+import fi.jasoft.feedreader.service.CachingFeedService;
+import fi.jasoft.feedreader.service.ContentMigration;
+import fi.jasoft.feedreader.service.FeedPersistence;
+import fi.jasoft.feedreader.service.FeedService;
+import fi.jasoft.feedreader.service.FeedServiceImpl;
+import fi.jasoft.feedreader.service.FeedServices;
+import fi.jasoft.feedreader.service.SearchIndex;
+import fi.jasoft.feedreader.service.SyncExecutor;
+import fi.jasoft.feedreader.service.SyncMetrics;
+import fi.jasoft.feedreader.service.SyncScheduler;
+
 /**
  * Servlet
+ * <p>
+ * The servlet is loaded when the application is deployed. The persistence layer, the demo feed 
+ * and the first page of the feed grid are prepared in the background right away, so the first 
+ * request does not pay for them. The time taken to build every user interface is recorded and 
+ * compared to the <code>feedreader.render.budget</code> system property in milliseconds.
+ * <p>
+ * When feeds are synchronized by separate sync workers, started with 
+ * <code>feedreader.workers=true</code>, the servlet does not poll the feeds itself. It looks 
+ * for feeds the workers have updated instead, and indexes their entries for searching.
  *
  * @author John Ahlroos / https://devsoap.com
  */
 @WebServlet(
-    asyncSupported=false,
+    asyncSupported=true,
+    loadOnStartup=1,
     urlPatterns={"/*","/VAADIN/*"},
     initParams={
         @WebInitParam(name="ui", value="fi.jasoft.feedreader.ui.ReaderUI")
     })
-public class FrontendServlet extends VaadinServlet { }
+public class FrontendServlet extends VaadinServlet {
+	
+	private static final Logger LOGGER = Logger.getLogger(FrontendServlet.class.getName());
+	
+	private static final boolean POLLING = Boolean.parseBoolean(
+			System.getProperty("feedreader.poll.enabled", "true"));
+	
+	private static final long PURGE_INTERVAL = Long.getLong("feedreader.retention.interval", 60);
+	
+	private static final boolean WORKERS = Boolean.parseBoolean(System.getProperty("feedreader.workers", "false"));
+	
+	/*
+	 * Seconds between looking for feeds updated by the sync workers
+	 */
+	private static final long REFRESH_INTERVAL = Long.getLong("feedreader.workers.refresh", 30);
+	
+	private static final long RENDER_BUDGET = Long.getLong("feedreader.render.budget", 500);
+	
+	/*
+	 * The number of rows a grid fetches first
+	 */
+	private static final int FIRST_PAGE = 40;
+	
+	private static final String FEED_SERVICE_ATTRIBUTE = FeedService.class.getName();
+	
+	private FeedService feedService;
+	
+	private FeedService backend;
+	
+	private SyncScheduler scheduler;
+	
+	private ScheduledExecutorService maintenance;
+	
+	private long startedNanos;
+
+	@Override
+	protected void servletInitialized() throws ServletException {
+		super.servletInitialized();
+		startedNanos = System.nanoTime();
+		boolean database = FeedServices.JPA.equals(FeedServices.getType());
+		
+		maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "feed-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		backend = FeedServices.create();
+		feedService = new CachingFeedService(backend);
+		getServletContext().setAttribute(FEED_SERVICE_ATTRIBUTE, feedService);
+		
+		maintenance.execute(() -> warmUp(database));
+		if(database){
+			maintenance.execute(() -> {
+				new ContentMigration().run();
+				SearchIndex.getDefault().rebuildIfStale();
+			});
+		}
+		maintenance.scheduleWithFixedDelay(feedService::purge, PURGE_INTERVAL, PURGE_INTERVAL, TimeUnit.MINUTES);
+		if(WORKERS && database){
+			maintenance.scheduleWithFixedDelay(this::refreshFromWorkers, REFRESH_INTERVAL, REFRESH_INTERVAL, 
+					TimeUnit.SECONDS);
+		} else if(POLLING){
+			scheduler = new SyncScheduler(feedService);
+			scheduler.start();
+		}
+	}
+
+	/**
+	 * Start the persistence layer, add the demo feed to an empty application and load the 
+	 * first page of the feed grid into the cache. Requests arriving meanwhile wait for the 
+	 * persistence layer to start.
+	 */
+	private void warmUp(boolean database) {
+		try{
+			if(database){
+				FeedPersistence.start();
+			}
+			FeedServices.addDemoFeed(feedService);
+			feedService.countFeeds();
+			feedService.getFeedSummaries(0, FIRST_PAGE);
+			SyncMetrics.getDefault().warmedUp(startedNanos);
+			LOGGER.info("Warmed up in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos) + "ms");
+		} catch(RuntimeException e){
+			LOGGER.log(Level.WARNING, "Failed to warm up", e);
+		}
+	}
+	
+	/**
+	 * Notify the sessions of the feeds updated by the sync workers and index their new entries. 
+	 * Feeds updated during the previous interval are looked up as well, so feeds committed 
+	 * late or by a worker with a lagging clock are not missed.
+	 */
+	private void refreshFromWorkers() {
+		try{
+			long since = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(2 * REFRESH_INTERVAL);
+			((FeedServiceImpl) backend).refreshChanged(new Date(since));
+		} catch(RuntimeException e){
+			LOGGER.log(Level.WARNING, "Failed to refresh the feeds updated by the sync workers", e);
+		}
+	}
+	
+	/**
+	 * Record the time taken to build a user interface of the current request and warn if 
+	 * it exceeded the render budget
+	 * 
+	 * @param startNanos
+	 * 		When building the interface started, as returned by {@link System#nanoTime()}
+	 */
+	static void rendered(long startNanos) {
+		FrontendServlet servlet = (FrontendServlet) VaadinServlet.getCurrent();
+		SyncMetrics.getDefault().rendered(startNanos, servlet.startedNanos);
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		if(millis > RENDER_BUDGET){
+			LOGGER.warning("Rendering took " + millis + "ms, over the budget of " + RENDER_BUDGET + "ms");
+		}
+	}
+	
+	/**
+	 * Get the feed service shared by all sessions of the application
+	 * 
+	 * @param context
+	 * 		The context of the application
+	 * @return
+	 * 		The service or <code>null</code> if the servlet has not been initialized yet
+	 */
+	public static FeedService getFeedService(ServletContext context) {
+		return (FeedService) context.getAttribute(FEED_SERVICE_ATTRIBUTE);
+	}
+	
+	/**
+	 * Get the feed service shared by all sessions of the application handling the current request
+	 */
+	public static FeedService getCurrentFeedService() {
+		return getFeedService(VaadinServlet.getCurrent().getServletContext());
+	}
+
+	@Override
+	public void destroy() {
+		try {
+			if(scheduler != null){
+				scheduler.stop();
+			}
+			if(maintenance != null){
+				maintenance.shutdownNow();
+			}
+			getServletContext().removeAttribute(FEED_SERVICE_ATTRIBUTE);
+			SyncExecutor.shutdownDefault();
+			if(backend instanceof Closeable){
+				try{
+					((Closeable) backend).close();
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Failed to close the feed service", e);
+				}
+			}
+			SearchIndex.closeDefault();
+			SyncMetrics.shutdownDefault();
+			FeedPersistence.stop();
+		} finally {
+			super.destroy();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.ui;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vaadin.ui.Alignment;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.ProgressBar;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+import com.vaadin.ui.Upload;
+import com.vaadin.ui.VerticalLayout;
+import com.vaadin.ui.Window;
+
+import fi.jasoft.feedreader.service.FeedService;
+import fi.jasoft.feedreader.service.OpmlImport;
+
+/**
+ * Window for importing the feeds of an uploaded OPML file. Shows the progress 
+ * of the initial synchronizations of the imported feeds.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class ImportOpmlWindow extends Window {
+	
+	private static final Logger LOGGER = Logger.getLogger(ImportOpmlWindow.class.getName());
+	
+	private static final int MAX_UPLOAD_SIZE = Integer.getInteger("feedreader.import.maxSize", 10 * 1024 * 1024);
+	
+	private final FeedService feedService;
+	
+	private final Runnable onChange;
+	
+	private final Label status = new Label();
+	
+	private final ProgressBar progress = new ProgressBar();
+	
+	private final ByteArrayOutputStream upload = new ByteArrayOutputStream();
+	
+	/**
+	 * Create the window
+	 * 
+	 * @param feedService
+	 * 		The service the feeds are imported to
+	 * @param onChange
+	 * 		Called when feeds have been added or synchronized
+	 */
+	public ImportOpmlWindow(FeedService feedService, Runnable onChange){
+		this.feedService = feedService;
+		this.onChange = onChange;
+		
+		setModal(true);
+		setWidth(400, Unit.PIXELS);
+		setHeight(220, Unit.PIXELS);
+		setResizable(false);
+		setDraggable(false);
+		setCaption("Import OPML");
+		
+		VerticalLayout windowContent = new VerticalLayout();
+		windowContent.setSpacing(true);
+		windowContent.setMargin(true);
+		windowContent.setSizeFull();
+		setContent(windowContent);
+		
+		Upload file = new Upload(null, (filename, mimeType) -> upload);
+		file.setButtonCaption("Import");
+		file.addStartedListener(event -> {
+			if(event.getContentLength() > MAX_UPLOAD_SIZE){
+				file.interruptUpload();
+			}
+		});
+		file.addSucceededListener(event -> importFeeds());
+		file.addFailedListener(event -> status.setValue("Upload failed"));
+		windowContent.addComponent(file);
+		
+		status.setWidth("100%");
+		windowContent.addComponent(status);
+		
+		progress.setWidth("100%");
+		progress.setVisible(false);
+		windowContent.addComponent(progress);
+		windowContent.setExpandRatio(progress, 1);
+		
+		Button close = new Button("Close", (Button.ClickListener) event -> close());
+		windowContent.addComponent(close);
+		windowContent.setComponentAlignment(close, Alignment.BOTTOM_RIGHT);
+	}
+	
+	private void importFeeds() {
+		OpmlImport result;
+		try {
+			UI ui = getUI();
+			result = feedService.importOpml(new ByteArrayInputStream(upload.toByteArray()), 
+					p -> progressed(ui, p));
+		} catch (IOException e) {
+			LOGGER.log(Level.INFO, "Failed to import OPML", e);
+			status.setValue("Not a valid OPML file");
+			return;
+		} finally {
+			upload.reset();
+		}
+		
+		onChange.run();
+		if(result.isDone()){
+			showProgress(result);
+		} else {
+			progress.setVisible(true);
+			progress.setValue(0f);
+			status.setValue("Added " + result.getAdded() + " feeds, syncronizing\u2026");
+		}
+	}
+	
+	private void progressed(UI ui, OpmlImport result) {
+		// Push roughly every percent instead of every completed feed
+		int completed = result.getSynced() + result.getFailed();
+		if(!result.isDone() && completed % Math.max(1, result.getAdded() / 100) != 0){
+			return;
+		}
+		try{
+			ui.access(() -> {
+				showProgress(result);
+				if(result.isDone()){
+					onChange.run();
+				}
+			});
+		} catch(UIDetachedException e){
+			// The user has left, the import continues without reporting
+		}
+	}
+	
+	private void showProgress(OpmlImport result) {
+		int completed = result.getSynced() + result.getFailed();
+		progress.setVisible(!result.isDone());
+		progress.setValue(result.getAdded() == 0 ? 1f : (float) completed / result.getAdded());
+		
+		StringBuilder text = new StringBuilder();
+		text.append("Added ").append(result.getAdded()).append(" feeds, syncronized ").append(completed);
+		if(result.getFailed() > 0){
+			text.append(" (").append(result.getFailed()).append(" failed)");
+		}
+		if(result.getDuplicates() > 0){
+			text.append(", ").append(result.getDuplicates()).append(" already subscribed");
+		}
+		if(!result.getInvalid().isEmpty()){
+			text.append(", ").append(result.getInvalid().size()).append(" invalid");
+		}
+		status.setValue(text.toString());
+	}
+}
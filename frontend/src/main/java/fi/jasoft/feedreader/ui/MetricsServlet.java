@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.ui;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import fi.jasoft.feedreader.service.CachingFeedService;
+import fi.jasoft.feedreader.service.FeedPersistence;
+import fi.jasoft.feedreader.service.FeedService;
+import fi.jasoft.feedreader.service.HistogramSnapshot;
+import fi.jasoft.feedreader.service.PoolStatistics;
+import fi.jasoft.feedreader.service.SyncExecutor;
+import fi.jasoft.feedreader.service.SyncMetrics;
+
+/**
+ * Serves the synchronization metrics, connection pool and executor state as plain text 
+ * in the Prometheus text format.
+ *
+ * @author John Ahlroos / https://devsoap.com
+ */
+@WebServlet(urlPatterns="/metrics")
+public class MetricsServlet extends HttpServlet {
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		resp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+		resp.setHeader("Cache-Control", "no-cache");
+		
+		SyncMetrics metrics = SyncMetrics.getDefault();
+		PrintWriter out = resp.getWriter();
+		
+		for(Map.Entry<String, Long> e : metrics.getSyncs().entrySet()){
+			out.println("feedreader_syncs_total{status=\"" + e.getKey() + "\"} " + e.getValue());
+		}
+		for(Map.Entry<String, Long> e : metrics.getFailures().entrySet()){
+			out.println("feedreader_sync_failures_total{cause=\"" + e.getKey() + "\"} " + e.getValue());
+		}
+		out.println("feedreader_downloaded_bytes_total " + metrics.getBytesDownloaded());
+		out.println("feedreader_entries_total{change=\"new\"} " + metrics.getNewEntries());
+		out.println("feedreader_entries_total{change=\"updated\"} " + metrics.getUpdatedEntries());
+		out.println("feedreader_entries_total{change=\"unchanged\"} " + metrics.getUnchangedEntries());
+		out.println("feedreader_purged_entries_total " + metrics.getPurgedEntries());
+		out.println("feedreader_reclaimed_bytes_total " + metrics.getReclaimedBytes());
+		out.println("feedreader_database_bytes " + FeedPersistence.getDatabaseSize());
+		
+		summary(out, "feedreader_sync_seconds", "", metrics.getSyncLatency());
+		summary(out, "feedreader_fetch_seconds", "", metrics.getFetchLatency());
+		summary(out, "feedreader_parse_seconds", "", metrics.getParseLatency());
+		summary(out, "feedreader_persist_seconds", "", metrics.getPersistLatency());
+		for(Map.Entry<String, HistogramSnapshot> e : metrics.getDatabaseLatency().entrySet()){
+			summary(out, "feedreader_db_seconds", "method=\"" + e.getKey() + "\",", e.getValue());
+		}
+		
+		FeedService feedService = FrontendServlet.getFeedService(getServletContext());
+		if(feedService instanceof CachingFeedService){
+			CachingFeedService cache = (CachingFeedService) feedService;
+			out.println("feedreader_cache_hits_total " + cache.getHits());
+			out.println("feedreader_cache_misses_total " + cache.getMisses());
+		}
+		
+		SyncExecutor executor = SyncExecutor.getDefault();
+		out.println("feedreader_sync_running " + executor.getRunning());
+		out.println("feedreader_sync_queued " + executor.getQueued());
+		
+		for(PoolStatistics pool : FeedPersistence.getPoolStatistics()){
+			String label = "{pool=\"" + pool.getName() + "\"} ";
+			out.println("feedreader_pool_active" + label + pool.getActive());
+			out.println("feedreader_pool_idle" + label + pool.getIdle());
+			out.println("feedreader_pool_acquisitions_total" + label + pool.getAcquisitions());
+			out.println("feedreader_pool_wait_seconds_max" + label + seconds(pool.getMaxWaitMillis()));
+		}
+	}
+	
+	private static void summary(PrintWriter out, String name, String labels, HistogramSnapshot snapshot) {
+		out.println(name + "{" + labels + "quantile=\"0.5\"} " + seconds(snapshot.getP50()));
+		out.println(name + "{" + labels + "quantile=\"0.95\"} " + seconds(snapshot.getP95()));
+		out.println(name + "{" + labels + "quantile=\"0.99\"} " + seconds(snapshot.getP99()));
+		String plain = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+		out.println(name + "_max" + plain + " " + seconds(snapshot.getMax()));
+		out.println(name + "_sum" + plain + " " + seconds(snapshot.getMean() * snapshot.getCount()));
+		out.println(name + "_count" + plain + " " + snapshot.getCount());
+	}
+	
+	private static String seconds(double millis) {
+		return String.format(Locale.ROOT, "%.6f", millis / 1000.0);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.ui;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import fi.jasoft.feedreader.service.FeedService;
+import fi.jasoft.feedreader.service.OpmlImport;
+
+/**
+ * Exports the subscribed feeds as an OPML document on GET and imports the feeds of 
+ * an OPML document posted as the request body.
+ *
+ * @author John Ahlroos / https://devsoap.com
+ */
+@WebServlet(urlPatterns="/opml")
+public class OpmlServlet extends HttpServlet {
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		FeedService feedService = FrontendServlet.getFeedService(getServletContext());
+		if(feedService == null){
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		
+		resp.setContentType("text/x-opml; charset=utf-8");
+		resp.setHeader("Content-Disposition", "attachment; filename=\"feeds.opml\"");
+		feedService.exportOpml(resp.getOutputStream());
+	}
+	
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		FeedService feedService = FrontendServlet.getFeedService(getServletContext());
+		if(feedService == null){
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		
+		OpmlImport result;
+		try{
+			result = feedService.importOpml(req.getInputStream(), null);
+		} catch(IOException e){
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		
+		resp.setContentType("text/plain; charset=utf-8");
+		PrintWriter out = resp.getWriter();
+		out.println("added " + result.getAdded());
+		out.println("duplicates " + result.getDuplicates());
+		out.println("invalid " + result.getInvalid().size());
+		for(String url : result.getInvalid()){
+			out.println("  " + url);
+		}
+	}
+}
@@ -15,6 +15,7 @@
  */
 package fi.jasoft.feedreader.ui;
 
+import com.vaadin.annotations.Push;
 import com.vaadin.annotations.Theme;
 import com.vaadin.annotations.Title;
 import com.vaadin.contextmenu.ContextMenu;
@@ -23,23 +24,32 @@ import com.vaadin.data.provider.DataProvider;
 import com.vaadin.data.provider.Query;
 import com.vaadin.server.VaadinRequest;
 import com.vaadin.shared.ui.ContentMode;
+import com.vaadin.shared.ui.ValueChangeMode;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.Grid;
 import com.vaadin.ui.HorizontalSplitPanel;
 import com.vaadin.ui.Label;
+import com.vaadin.ui.Notification;
 import com.vaadin.ui.Panel;
+import com.vaadin.ui.ProgressBar;
+import com.vaadin.ui.TextField;
 import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.VerticalSplitPanel;
 import com.vaadin.ui.Window;
 import com.vaadin.ui.themes.ValoTheme;
+import fi.jasoft.feedreader.data.EntrySummary;
 import fi.jasoft.feedreader.data.Feed;
-import fi.jasoft.feedreader.data.FeedEntry;
+import fi.jasoft.feedreader.data.FeedSummary;
+import fi.jasoft.feedreader.data.RenderedEntry;
 import fi.jasoft.feedreader.service.FeedService;
-import fi.jasoft.feedreader.service.FeedServiceImpl;
+import fi.jasoft.feedreader.service.SyncResult;
 
-import java.util.List;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
 
 
 /**
@@ -49,28 +59,39 @@ import java.util.Optional;
  */
 @Theme("Frontend")
 @Title("RSS Feed Reader")
+@Push
 public class ReaderUI extends UI {
 
+	private static final int SEARCH_RESULTS = 100;
+
 	/*
 	 * Services
 	 */
-	private final FeedService feedService = new FeedServiceImpl();
+	private final FeedService feedService = FrontendServlet.getCurrentFeedService();
 
 	/*
 	 * Data providers
 	 */
-	private final DataProvider<Feed, Void> feeds = DataProvider.fromCallbacks(
-		fetch -> feedService.getFeeds().stream(),
-		count -> feedService.getFeeds().size()
+	private final DataProvider<FeedSummary, Void> feeds = DataProvider.fromCallbacks(
+		fetch -> feedService.getFeedSummaries(fetch.getOffset(), fetch.getLimit()).stream(),
+		count -> feedService.countFeeds()
 	);
 
+	/*
+	 * Feeds being synchronized in the background
+	 */
+	private final Set<Long> syncing = new HashSet<>();
+
 	// UI components
 	private Panel entryPanel = new Panel();
-	private Grid<Feed> feedTable;
-	private Grid<FeedEntry> entryTable;
+	private ProgressBar syncProgress = new ProgressBar();
+	private Grid<FeedSummary> feedTable;
+	private Grid<EntrySummary> entryTable;
+	private TextField searchField;
 
 	@Override
 	protected void init(VaadinRequest request) {
+		long start = System.nanoTime();
 
 		// Create data tables
 		feedTable = createFeedsTable();
@@ -84,8 +105,17 @@ public class ReaderUI extends UI {
 		// Create the content of the left part of the main split panel
 		VerticalLayout vl = new VerticalLayout();
 		vl.setSizeFull();
+		
+		Button allFeedsBtn = new Button("All feeds", (Button.ClickListener) event -> showTimeline());
+		allFeedsBtn.setWidth("100%");
+		vl.addComponent(allFeedsBtn);
 		vl.addComponent(feedTable);
 		
+		syncProgress.setIndeterminate(true);
+		syncProgress.setWidth("100%");
+		syncProgress.setVisible(false);
+		vl.addComponent(syncProgress);
+		
 		Button addFeedBtn = new Button("Add RSS/Atom feed", (Button.ClickListener) event -> addFeed());
 		addFeedBtn.setWidth("100%");
 		vl.addComponent(addFeedBtn);
@@ -98,7 +128,14 @@ public class ReaderUI extends UI {
 		VerticalSplitPanel rightPane = new VerticalSplitPanel();
 		rightPane.setSizeFull();
 		
-		rightPane.addComponent(entryTable);
+		VerticalLayout entries = new VerticalLayout();
+		entries.setSizeFull();
+		entries.setMargin(false);
+		searchField = createSearchField();
+		entries.addComponent(searchField);
+		entries.addComponent(entryTable);
+		entries.setExpandRatio(entryTable, 1);
+		rightPane.addComponent(entries);
 		
 		entryPanel.setSizeFull();
 		rightPane.addComponent(entryPanel);
@@ -106,39 +143,40 @@ public class ReaderUI extends UI {
 		content.addComponent(rightPane);
 		rightPane.setSplitPosition(30);
 
-        feeds.fetch(new Query<>())
-                .findFirst()
-                .ifPresent(feed -> feedTable.select(feed));
+        selectFirstFeed();
+        FrontendServlet.rendered(start);
 	}
 
 
-	
 	/**
 	 * Creates the feed table on the left where added feeds are displayed
 	 */
-	private Grid<Feed> createFeedsTable(){
-		Grid<Feed> table = new Grid<>(Feed.class);
+	private Grid<FeedSummary> createFeedsTable(){
+		Grid<FeedSummary> table = new Grid<>();
 		table.setDataProvider(feeds);
 		table.setSizeFull();
 		table.setSelectionMode(Grid.SelectionMode.SINGLE);
-        table.setColumns("url");
+		table.addColumn(feed -> syncing.contains(feed.getId()) ? feed.getCaption() + " \u2026" : feed.getCaption());
+		table.addColumn(feed -> feed.getUnreadCount() > 0 ? feed.getUnreadCount() + " / " + feed.getEntryCount() 
+				: String.valueOf(feed.getEntryCount())).setWidth(110);
         table.removeHeaderRow(0);
 
 		table.addSelectionListener((event) -> {
-            Optional<Feed> feed = event.getFirstSelectedItem();
-            if(feed.isPresent()) {
-                List<FeedEntry> entries = feed.get().getEntries();
-                entryTable.setItems(entries.toArray(new FeedEntry[entries.size()]));
-            }
+            Optional<FeedSummary> feed = event.getFirstSelectedItem();
+            feed.ifPresent(this::showEntries);
         });
 
-		GridContextMenu<Feed> contextMenu = new GridContextMenu<>(table);
+		GridContextMenu<FeedSummary> contextMenu = new GridContextMenu<>(table);
 		contextMenu.addGridBodyContextMenuListener((event) -> {
 			ContextMenu menu = event.getContextMenu();
 			menu.removeItems();
 			menu.addItem("Add RSS/Atom feed", (item) -> addFeed());
-			menu.addItem("Remove RSS/Atom feed", (item) -> removeFeed((Feed) event.getItem()));
-			menu.addItem("Syncronize feed", (feed) -> syncronizeFeed((Feed) event.getItem()));
+			menu.addItem("Remove RSS/Atom feed", (item) -> removeFeed((FeedSummary) event.getItem()));
+			menu.addItem("Syncronize feed", (feed) -> syncronizeFeed((FeedSummary) event.getItem()));
+			menu.addItem("Mark all read", (item) -> markAllRead((FeedSummary) event.getItem()));
+			menu.addItem("Retention", (item) -> editRetention((FeedSummary) event.getItem()));
+			menu.addItem("Import OPML", (item) -> importFeeds());
+			menu.addItem("Export OPML", (item) -> getPage().open("opml", "_blank"));
 		});
 
 		return table;
@@ -147,30 +185,113 @@ public class ReaderUI extends UI {
 	/**
 	 * Creates the table on the top where the selected feeds entries are displayed.
 	 */
-	private Grid<FeedEntry> createEntriesTable(){
-		Grid<FeedEntry> table = new Grid<>(FeedEntry.class);
+	private Grid<EntrySummary> createEntriesTable(){
+		Grid<EntrySummary> table = new Grid<>(EntrySummary.class);
 		table.setSizeFull();
 		table.setSelectionMode(Grid.SelectionMode.SINGLE);
-		table.addItemClickListener(event -> setContent(event.getItem()));
+		table.addItemClickListener(event -> {
+			long id = event.getItem().getId();
+			RenderedEntry entry = feedService.getRenderedEntry(id);
+			setContent(entry);
+			if(entry != null){
+				feedService.setRead(id, true);
+				refreshFeed(entry.getFeedId());
+			}
+		});
 		table.setColumns("title");
 		table.removeHeaderRow(0);
 		return table;
 	}
 	
+	/**
+	 * Creates the search field above the entry table. Matching entries of all feeds 
+	 * replace the entries of the selected feed while there is a query.
+	 */
+	private TextField createSearchField(){
+		TextField search = new TextField();
+		search.setWidth("100%");
+		search.setPlaceholder("Search entries");
+		search.setValueChangeMode(ValueChangeMode.LAZY);
+		search.addValueChangeListener(event -> {
+			String query = event.getValue().trim();
+			if(query.isEmpty()){
+				Optional<FeedSummary> selected = feedTable.getSelectedItems().stream().findFirst();
+				if(selected.isPresent()){
+					showEntries(selected.get());
+				} else {
+					entryTable.setDataProvider(EntryPager.timelineProvider(feedService));
+				}
+			} else {
+				entryTable.setItems(feedService.search(query, SEARCH_RESULTS));
+			}
+		});
+		return search;
+	}
+	
+	/**
+	 * Show the entries of a feed in the entry table. The entries are loaded lazily page by page.
+	 * 
+	 * @param summary
+	 * 		The feed to show the entries of
+	 */
+	private void showEntries(FeedSummary summary){
+		Feed feed = feedService.getFeed(summary.getId());
+		if(feed != null){
+			entryTable.setDataProvider(EntryPager.dataProvider(feedService, feed));
+		}
+	}
+	
+	/**
+	 * Show the newest entries of all feeds in the entry table
+	 */
+	private void showTimeline(){
+		feedTable.deselectAll();
+		searchField.clear();
+		entryTable.setDataProvider(EntryPager.timelineProvider(feedService));
+	}
+	
+	/**
+	 * Selects the first feed in the feed table, if there are any feeds
+	 */
+	private void selectFirstFeed(){
+		feeds.fetch(new Query<>(0, 1, Collections.emptyList(), null, null))
+				.findFirst()
+				.ifPresent(feed -> feedTable.select(feed));
+	}
+	
 	/**
 	 * Set the content of the feed entry window.
 	 * 
 	 * @param entry
 	 * 		The feed entry to show
 	 */
-	private void setContent(FeedEntry entry){
+	private void setContent(RenderedEntry entry){
 		VerticalLayout content = new VerticalLayout();
 		content.setMargin(true);
 		if(entry != null){
 			Label title = new Label(entry.getTitle());
 			title.setStyleName(ValoTheme.LABEL_H1);
 			content.addComponent(title);
-			Label entryContent = new Label(entry.getContent(), ContentMode.HTML);
+			boolean[] starred = { entry.isStarred() };
+			Button star = new Button(starred[0] ? "\u2605 Starred" : "\u2606 Star");
+			star.setStyleName(ValoTheme.BUTTON_BORDERLESS);
+			star.addClickListener(event -> {
+				starred[0] = !starred[0];
+				feedService.setStarred(entry.getId(), starred[0]);
+				star.setCaption(starred[0] ? "\u2605 Starred" : "\u2606 Star");
+			});
+			content.addComponent(star);
+			
+			Button unread = new Button("Mark unread");
+			unread.setStyleName(ValoTheme.BUTTON_BORDERLESS);
+			unread.addClickListener(event -> {
+				feedService.setRead(entry.getId(), false);
+				refreshFeed(entry.getFeedId());
+			});
+			content.addComponent(unread);
+			
+			// Sanitized when the entry was stored
+			Label entryContent = new Label(entry.getHtml(), ContentMode.HTML);
 			content.addComponent(entryContent);
 		}
 		entryPanel.setContent(content);
@@ -186,25 +307,121 @@ public class ReaderUI extends UI {
             Feed feed = addFeedWindow.getFeed();
             if(feed != null){
                 feedService.add(feed);
-                feedService.syncronize(feed);
                 feeds.refreshAll();
-                entryTable.getDataProvider().refreshAll();
+                feedTable.select(FeedSummary.of(feed));
+                syncronizeInBackground(feed);
             }
         });
 		getUI().addWindow(addFeedWindow);
 	}
 
-	private void removeFeed(Feed feed) {
-		feedService.remove(feed);
+	private void importFeeds(){
+		getUI().addWindow(new ImportOpmlWindow(feedService, feeds::refreshAll));
+	}
+
+	private void editRetention(FeedSummary summary) {
+		Feed feed = feedService.getFeed(summary.getId());
+		if(feed == null){
+			feeds.refreshAll();
+			return;
+		}
+		final RetentionWindow retentionWindow = new RetentionWindow(feed);
+		retentionWindow.addCloseListener((Window.CloseListener) e -> {
+			if(retentionWindow.getFeed() != null){
+				feedService.saveRetention(feed);
+			}
+		});
+		getUI().addWindow(retentionWindow);
+	}
+
+	private void removeFeed(FeedSummary summary) {
+		Feed feed = feedService.getFeed(summary.getId());
+		if(feed != null){
+			feedService.remove(feed);
+		}
 		feeds.refreshAll();
-        feeds.fetch(new Query<>())
-                .findFirst()
-                .ifPresent(f -> feedTable.select(f));
+		selectFirstFeed();
 	}
 
-	private void syncronizeFeed(Feed feed) {
-		feedService.syncronize(feed);
-		feeds.refreshItem(feed);
-		entryTable.getDataProvider().refreshAll();
+	private void syncronizeFeed(FeedSummary summary) {
+		Feed feed = feedService.getFeed(summary.getId());
+		if(feed == null){
+			feeds.refreshAll();
+			return;
+		}
+		syncronizeInBackground(feed);
+	}
+	
+	/**
+	 * Synchronize a feed without blocking the session. The feed is marked as being 
+	 * synchronized until the result is pushed back to the browser.
+	 * 
+	 * @param feed
+	 * 		The feed to syncronize
+	 */
+	private void syncronizeInBackground(Feed feed) {
+		if(!syncing.add(feed.getId())){
+			return;
+		}
+		syncStarted(feed);
+		feedService.syncronizeAsync(feed).whenComplete((result, error) -> {
+			try{
+				// A future failing instead of reporting a failed result is shown as a failure too
+				access(() -> syncCompleted(feed, error == null ? result : null));
+			} catch(UIDetachedException e){
+				// The user has left, nothing to update
+			}
+		});
+	}
+	
+	private void syncStarted(Feed feed) {
+		refreshFeed(feed.getId());
+		syncProgress.setVisible(true);
+	}
+	
+	/**
+	 * Show the outcome of a synchronization
+	 * 
+	 * @param feed
+	 * 		The synchronized feed
+	 * @param result
+	 * 		The result or <code>null</code> if the synchronization did not complete
+	 */
+	private void syncCompleted(Feed feed, SyncResult result) {
+		syncing.remove(feed.getId());
+		syncProgress.setVisible(!syncing.isEmpty());
+		
+		FeedSummary summary = FeedSummary.of(feed);
+		refreshFeed(feed.getId());
+		if(result == null || result.isFailed()){
+			Notification.show("Failed to syncronize " + feed.getUrl(), Notification.Type.TRAY_NOTIFICATION);
+		} else if(result.getNewEntries() + result.getUpdatedEntries() > 0 
+				&& feedTable.getSelectedItems().contains(summary) && searchField.isEmpty()){
+			showEntries(summary);
+		}
+	}
+	
+	/**
+	 * Mark all entries of a feed read
+	 * 
+	 * @param summary
+	 * 		The feed to mark read
+	 */
+	private void markAllRead(FeedSummary summary){
+		feedService.markAllRead(summary.getId());
+		refreshFeed(summary.getId());
+	}
+	
+	/**
+	 * Reload the summary of a feed shown in the feed table, to show its current unread count
+	 * 
+	 * @param feedId
+	 * 		The id of the feed
+	 */
+	private void refreshFeed(long feedId){
+		Feed feed = feedService.getFeed(feedId);
+		if(feed != null){
+			feeds.refreshItem(FeedSummary.of(feed));
+		}
 	}
 }
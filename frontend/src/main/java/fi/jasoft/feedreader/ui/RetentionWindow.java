@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.ui;
+
+import com.vaadin.ui.Alignment;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.CheckBox;
+import com.vaadin.ui.FormLayout;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Notification;
+import com.vaadin.ui.TextField;
+import com.vaadin.ui.VerticalLayout;
+import com.vaadin.ui.Window;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Window for editing how many and how old entries are kept for a feed
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class RetentionWindow extends Window {
+	
+	private final Feed feed;
+	
+	private final TextField maxEntries = new TextField("Keep at most entries");
+	
+	private final TextField maxAge = new TextField("Keep entries for days");
+	
+	private final CheckBox keepStarred = new CheckBox("Keep starred entries");
+	
+	private boolean saved;
+	
+	/**
+	 * Create the window
+	 * 
+	 * @param feed
+	 * 		The feed to edit. Not saved, it should be done by the callee.
+	 */
+	public RetentionWindow(Feed feed){
+		this.feed = feed;
+		
+		setModal(true);
+		setWidth(360, Unit.PIXELS);
+		setHeight(260, Unit.PIXELS);
+		setResizable(false);
+		setDraggable(false);
+		setCaption("Retention of " + (feed.getTitle() != null ? feed.getTitle() : feed.getUrl()));
+		
+		VerticalLayout windowContent = new VerticalLayout();
+		windowContent.setSpacing(true);
+		windowContent.setMargin(true);
+		windowContent.setSizeFull();
+		setContent(windowContent);
+		
+		FormLayout form = new FormLayout();
+		maxEntries.setPlaceholder("default");
+		maxEntries.setValue(valueOf(feed.getMaxEntries()));
+		form.addComponent(maxEntries);
+		maxAge.setPlaceholder("default");
+		maxAge.setValue(valueOf(feed.getMaxAge()));
+		form.addComponent(maxAge);
+		keepStarred.setValue(feed.getKeepStarred() == null || feed.getKeepStarred());
+		form.addComponent(keepStarred);
+		windowContent.addComponent(form);
+		windowContent.setExpandRatio(form, 1);
+		
+		HorizontalLayout buttons = new HorizontalLayout();
+		
+		buttons.addComponent(new Button("Save", (Button.ClickListener) event -> {
+			Integer entries = parse(maxEntries.getValue());
+			Integer age = parse(maxAge.getValue());
+			if(entries == null || age == null){
+				Notification.show("Limits must be whole numbers");
+				return;
+			}
+			feed.setMaxEntries(entries);
+			feed.setMaxAge(age);
+			feed.setKeepStarred(keepStarred.getValue());
+			saved = true;
+			close();
+		}));
+		
+		buttons.addComponent(new Button("Cancel", (Button.ClickListener) event -> close()));
+		
+		windowContent.addComponent(buttons);
+		windowContent.setComponentAlignment(buttons, Alignment.BOTTOM_RIGHT);
+	}
+	
+	private static String valueOf(int limit) {
+		return limit == 0 ? "" : String.valueOf(Math.max(limit, 0));
+	}
+	
+	/**
+	 * Parse a limit, an empty value means the default limit
+	 */
+	private static Integer parse(String value) {
+		if(value == null || value.trim().isEmpty()){
+			return 0;
+		}
+		try{
+			int limit = Integer.parseInt(value.trim());
+			return limit > 0 ? limit : -1;
+		} catch(NumberFormatException e){
+			return null;
+		}
+	}
+	
+	/**
+	 * Get the edited feed, or <code>null</code> if the window was cancelled
+	 */
+	public Feed getFeed(){
+		return saved ? feed : null;
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import fi.jasoft.feedreader.data.EntrySummary;
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.data.FeedEntry;
+import fi.jasoft.feedreader.data.FeedSummary;
+import fi.jasoft.feedreader.data.RenderedEntry;
+
+/**
+ * A {@link FeedService} caching the pages and counts shown by the feed and entry grids.
+ * <p>
+ * The service is meant to be shared by all sessions of the application, so sessions 
+ * reading the same feeds are served from memory. Cached values are invalidated when the 
+ * wrapped service reports a committed change to a feed, marking entries read only invalidates 
+ * the feed pages showing the unread count of the feed. The caches are bounded by the 
+ * <code>feedreader.cache.size</code> system property and evict the least recently used pages. 
+ * Rendered entries are cached separately, bounded by <code>feedreader.cache.renderedSize</code>, 
+ * so opening an entry someone has already opened is a single lookup.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class CachingFeedService implements FeedService {
+	
+	private static final int CACHE_SIZE = Integer.getInteger("feedreader.cache.size", 1000);
+	
+	private static final int RENDERED_CACHE_SIZE = Integer.getInteger("feedreader.cache.renderedSize", 500);
+	
+	/*
+	 * Key of the feed count in the count cache
+	 */
+	private static final long ALL_FEEDS = -1;
+	
+	/*
+	 * Key of the merged entries of all feeds in the page and count caches
+	 */
+	private static final long TIMELINE = -2;
+	
+	private final FeedService delegate;
+	
+	private final LruCache<PageKey, List<FeedSummary>> feedPages = new LruCache<>(CACHE_SIZE);
+	
+	private final LruCache<PageKey, List<EntrySummary>> entryPages = new LruCache<>(CACHE_SIZE);
+	
+	private final LruCache<Long, Integer> counts = new LruCache<>(CACHE_SIZE);
+	
+	private final LruCache<Long, RenderedEntry> rendered = new LruCache<>(RENDERED_CACHE_SIZE);
+	
+	/**
+	 * Create a caching service
+	 * 
+	 * @param delegate
+	 * 		The service to load uncached values from
+	 */
+	public CachingFeedService(FeedService delegate) {
+		this.delegate = delegate;
+		delegate.addFeedChangeListener(new FeedChangeListener() {
+			
+			@Override
+			public void feedChanged(long feedId) {
+				invalidate(feedId);
+			}
+			
+			@Override
+			public void readStateChanged(long feedId) {
+				invalidateReadState(feedId);
+			}
+		});
+	}
+	
+	/**
+	 * Remove the cached values of a feed, and the feed pages and count which include it
+	 * 
+	 * @param feedId
+	 * 		The id of the changed feed
+	 */
+	public void invalidate(long feedId) {
+		feedPages.invalidateAll();
+		counts.invalidate(key -> key == feedId || key == ALL_FEEDS || key == TIMELINE);
+		entryPages.invalidate(key -> key.feedId == feedId || key.feedId == TIMELINE);
+		rendered.invalidateValues(entry -> entry.getFeedId() == feedId);
+	}
+	
+	/**
+	 * Remove the cached values showing the unread count of a feed, the entries and their 
+	 * rendered content stay cached
+	 * 
+	 * @param feedId
+	 * 		The id of the feed whose entries were marked read or unread
+	 */
+	public void invalidateReadState(long feedId) {
+		counts.invalidate(key -> key == feedId);
+		feedPages.invalidateValues(page -> page.stream().anyMatch(summary -> summary.getId() == feedId));
+	}
+	
+	/**
+	 * Get the number of lookups answered from the caches
+	 */
+	public long getHits() {
+		return feedPages.getHits() + entryPages.getHits() + counts.getHits() + rendered.getHits();
+	}
+	
+	/**
+	 * Get the number of lookups which were passed to the wrapped service
+	 */
+	public long getMisses() {
+		return feedPages.getMisses() + entryPages.getMisses() + counts.getMisses() + rendered.getMisses();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void add(Feed feed) {
+		delegate.add(feed);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void remove(Feed feed) {
+		delegate.remove(feed);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<Feed> getFeeds() {
+		return delegate.getFeeds();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int countFeeds() {
+		return counts.get(ALL_FEEDS, key -> delegate.countFeeds());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<FeedSummary> getFeedSummaries(int offset, int limit) {
+		return feedPages.get(new PageKey(ALL_FEEDS, offset, limit), 
+				key -> Collections.unmodifiableList(delegate.getFeedSummaries(offset, limit)));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Feed getFeed(long id) {
+		// Feeds are mutable and handed to synchronizations, never share them
+		return delegate.getFeed(id);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<EntrySummary> getEntries(Feed feed, EntrySummary after, int limit) {
+		return entryPages.get(new PageKey(feed.getId(), after == null ? -1 : after.getId(), limit), 
+				key -> Collections.unmodifiableList(delegate.getEntries(feed, after, limit)));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<EntrySummary> getTimeline(EntrySummary after, int limit) {
+		return entryPages.get(new PageKey(TIMELINE, after == null ? -1 : after.getId(), limit), 
+				key -> Collections.unmodifiableList(delegate.getTimeline(after, limit)));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int countTimeline() {
+		return counts.get(TIMELINE, key -> delegate.countTimeline());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int countEntries(Feed feed) {
+		return counts.get(feed.getId(), key -> delegate.countEntries(feed));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FeedEntry getEntry(long id) {
+		return delegate.getEntry(id);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RenderedEntry getRenderedEntry(long id) {
+		return rendered.get(id, delegate::getRenderedEntry);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<EntrySummary> search(String query, int limit) {
+		return delegate.search(query, limit);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompressionStatistics getCompressionStatistics() {
+		return delegate.getCompressionStatistics();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void save(Feed feed) {
+		delegate.save(feed);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void saveRetention(Feed feed) {
+		delegate.saveRetention(feed);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void syncronize(Feed feed) {
+		delegate.syncronize(feed);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<SyncResult> syncronizeAsync(Feed feed) {
+		return delegate.syncronizeAsync(feed);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<List<SyncResult>> syncronizeAll(Collection<Feed> feeds) {
+		return delegate.syncronizeAll(feeds);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setStarred(long id, boolean starred) {
+		delegate.setStarred(id, starred);
+		rendered.invalidate(key -> key == id);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setRead(long id, boolean read) {
+		delegate.setRead(id, read);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void markAllRead(long feedId) {
+		delegate.markAllRead(feedId);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PurgeResult purge() {
+		return delegate.purge();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public OpmlImport importOpml(InputStream opml, Consumer<OpmlImport> listener) throws IOException {
+		return delegate.importOpml(opml, listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void exportOpml(OutputStream out) throws IOException {
+		delegate.exportOpml(out);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addFeedChangeListener(FeedChangeListener listener) {
+		delegate.addFeedChangeListener(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeFeedChangeListener(FeedChangeListener listener) {
+		delegate.removeFeedChangeListener(listener);
+	}
+	
+	/**
+	 * Identifies a page of feeds or entries
+	 */
+	private static final class PageKey {
+		
+		final long feedId;
+		
+		final long start;
+		
+		final int limit;
+		
+		PageKey(long feedId, long start, int limit) {
+			this.feedId = feedId;
+			this.start = start;
+			this.limit = limit;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof PageKey)){
+				return false;
+			}
+			PageKey other = (PageKey) obj;
+			return feedId == other.feedId && start == other.start && limit == other.limit;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int hashCode() {
+			return Objects.hash(feedId, start, limit);
+		}
+	}
+}
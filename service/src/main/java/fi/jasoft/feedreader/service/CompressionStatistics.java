@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.Serializable;
+
+import javax.persistence.EntityManager;
+
+/**
+ * A snapshot of how well the stored entry bodies compress
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class CompressionStatistics implements Serializable {
+	
+	private final long entries;
+	
+	private final long legacyEntries;
+	
+	private final long contentBytes;
+	
+	private final long storedBytes;
+	
+	CompressionStatistics(long entries, long legacyEntries, long contentBytes, long storedBytes) {
+		this.entries = entries;
+		this.legacyEntries = legacyEntries;
+		this.contentBytes = contentBytes;
+		this.storedBytes = storedBytes;
+	}
+
+	/**
+	 * Compute the statistics of the stored entries
+	 * 
+	 * @param em
+	 * 		The entity manager to query the entries with
+	 * @return
+	 * 		The statistics at the time of the call
+	 */
+	static CompressionStatistics of(EntityManager em) {
+		Object[] compressed = em.createQuery("SELECT COUNT(e), SUM(e.contentSize), SUM(e.storedSize) "
+				+ "FROM FeedEntry e WHERE e.compressedContent IS NOT NULL", Object[].class)
+				.getSingleResult();
+		Number legacy = em.createQuery("SELECT COUNT(e) FROM FeedEntry e "
+				+ "WHERE e.compressedContent IS NULL AND e.legacyContent IS NOT NULL", Number.class)
+				.getSingleResult();
+		return new CompressionStatistics(longOf(compressed[0]), legacy.longValue(), 
+				longOf(compressed[1]), longOf(compressed[2]));
+	}
+	
+	private static long longOf(Object value) {
+		return value == null ? 0 : ((Number) value).longValue();
+	}
+
+	/**
+	 * Get the number of entries with a compressed body
+	 */
+	public long getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Get the number of entries whose body has not been migrated yet
+	 */
+	public long getLegacyEntries() {
+		return legacyEntries;
+	}
+
+	/**
+	 * Get the size in bytes of the compressed bodies before compression
+	 */
+	public long getContentBytes() {
+		return contentBytes;
+	}
+
+	/**
+	 * Get the size in bytes of the compressed bodies as stored
+	 */
+	public long getStoredBytes() {
+		return storedBytes;
+	}
+	
+	/**
+	 * Get the compression ratio of the stored bodies, the uncompressed size 
+	 * divided by the stored size. 
+	 */
+	public double getRatio() {
+		return storedBytes == 0 ? 1 : (double) contentBytes / storedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries, %d bytes stored in %d bytes (%.2fx), %d not migrated", 
+				entries, contentBytes, storedBytes, getRatio(), legacyEntries);
+	}
+}
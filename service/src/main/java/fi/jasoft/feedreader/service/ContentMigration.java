@@ -0,0 +1,346 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.internal.helper.DatabaseField;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.tools.schemaframework.SchemaManager;
+
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.data.FeedEntry;
+
+/**
+ * Moves entry bodies stored before compression was introduced to the compressed column, 
+ * renders the HTML of entries stored before rendering was introduced and numbers the entries 
+ * stored before read states were introduced.
+ * <p>
+ * The migration runs in small batches, each in its own transaction, so it can run in the 
+ * background while the application is in use and can be interrupted at any point. Entries 
+ * not migrated yet are still readable, {@link FeedEntry#getContent()} falls back to the 
+ * uncompressed column, entries not rendered yet are rendered when they are opened and 
+ * entries not numbered yet are not counted as unread and can not be marked read.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class ContentMigration implements Runnable {
+	
+	private static final Logger LOGGER = Logger.getLogger(ContentMigration.class.getName());
+	
+	private static final int BATCH_SIZE = Integer.getInteger("feedreader.migration.batch", 200);
+	
+	/*
+	 * Version of the schema, increased whenever the tables, columns or indexes change, including 
+	 * whenever COLUMNS or INDEXES gain entries, so databases recording an older version are checked
+	 */
+	private static final int SCHEMA_VERSION = 3;
+	
+	private static final String SCHEMA_TABLE = "FEEDREADER_SCHEMA";
+	
+	/*
+	 * The tables of the entities, created when any of them is missing
+	 */
+	private static final String[] TABLES = { "FEED", "FEEDENTRY", "FEEDLEASE", "LEASEHOLDER" };
+	
+	private static final String TABLE_NAMES = Arrays.stream(TABLES)
+			.map(table -> "'" + table + "'")
+			.collect(Collectors.joining(", "));
+	
+	/*
+	 * Columns added after the first release, with their tables and HSQLDB types
+	 */
+	private static final String[][] COLUMNS = {
+			{ "FEED", "ETAG", "VARCHAR(256)" },
+			{ "FEED", "LASTMODIFIED", "VARCHAR(64)" },
+			{ "FEED", "CONTENTHASH", "VARCHAR(64)" },
+			{ "FEED", "TITLE", "VARCHAR(256)" },
+			{ "FEED", "ENTRYCOUNT", "INTEGER DEFAULT 0" },
+			{ "FEED", "LASTUPDATED", "TIMESTAMP" },
+			{ "FEED", "TTL", "INTEGER DEFAULT 0" },
+			{ "FEED", "SKIPHOURS", "VARCHAR(100)" },
+			{ "FEED", "POSTINTERVAL", "BIGINT DEFAULT 0" },
+			{ "FEEDENTRY", "CONTENTZ", "LONGVARBINARY" },
+			{ "FEEDENTRY", "CONTENTSIZE", "INTEGER DEFAULT 0" },
+			{ "FEEDENTRY", "STOREDSIZE", "INTEGER DEFAULT 0" },
+			{ "FEEDENTRY", "STARRED", "BOOLEAN DEFAULT FALSE" },
+			{ "FEEDENTRY", "HTMLZ", "LONGVARBINARY" },
+			{ "FEEDENTRY", "PREVIEW", "VARCHAR(" + FeedEntry.PREVIEW_LENGTH + ")" },
+			{ "FEED", "MAXENTRIES", "INTEGER DEFAULT 0" },
+			{ "FEED", "MAXAGE", "INTEGER DEFAULT 0" },
+			{ "FEED", "KEEPSTARRED", "BOOLEAN" },
+			{ "FEEDENTRY", "ORDINAL", "INTEGER" },
+			{ "FEED", "NEXTORDINAL", "INTEGER DEFAULT 0" },
+			{ "FEED", "UNREADCOUNT", "INTEGER DEFAULT 0" },
+			// Not mapped by the entity, only accessed by ReadStates
+			{ "FEED", "READBITS", "LONGVARBINARY" }
+	};
+	
+	/*
+	 * Indexes added after the first release, with their tables and columns
+	 */
+	private static final String[][] INDEXES = {
+			{ "FEEDENTRY_TIMELINE", "FEEDENTRY", "PUBLISHED, ID" }
+	};
+
+	/**
+	 * Create the tables of a new database, or add the columns and indexes introduced by later 
+	 * versions to tables created before they existed. The version of the schema is recorded in 
+	 * the database, so a database already up to date is recognized with a single query and 
+	 * starting the application does not inspect or generate the schema. The version is only 
+	 * recorded once every column mapped by the entities exists, otherwise the schema is checked 
+	 * again on the next start.
+	 * 
+	 * @param emf
+	 * 		The factory of the database to update
+	 */
+	static void prepareSchema(EntityManagerFactory emf) {
+		EntityManager em = emf.createEntityManager();
+		try{
+			if(schemaVersion(em) == SCHEMA_VERSION){
+				return;
+			}
+			
+			Set<String> tables = new HashSet<>();
+			Set<String> columns = new HashSet<>();
+			readColumns(em, tables, columns);
+			if(!tables.containsAll(Arrays.asList(TABLES))){
+				long start = System.currentTimeMillis();
+				new SchemaManager(em.unwrap(JpaEntityManager.class).getServerSession()).createDefaultTables(true);
+				LOGGER.info("Created the tables in " + (System.currentTimeMillis() - start) + "ms");
+				readColumns(em, tables, columns);
+			}
+			
+			for(String[] column : COLUMNS){
+				String name = column[0] + "." + column[1];
+				if(tables.contains(column[0]) && !columns.contains(name)){
+					LOGGER.info("Adding column " + name);
+					em.getTransaction().begin();
+					em.createNativeQuery("ALTER TABLE " + column[0] + " ADD COLUMN " + column[1] + " " + column[2])
+						.executeUpdate();
+					em.getTransaction().commit();
+				}
+			}
+			
+			Set<String> indexes = new HashSet<>();
+			for(Object index : em.createNativeQuery("SELECT INDEX_NAME "
+					+ "FROM INFORMATION_SCHEMA.SYSTEM_INDEXINFO WHERE TABLE_NAME IN (" + TABLE_NAMES + ")").getResultList()){
+				indexes.add(String.valueOf(index));
+			}
+			for(String[] index : INDEXES){
+				if(tables.contains(index[1]) && !indexes.contains(index[0])){
+					LOGGER.info("Adding index " + index[0]);
+					em.getTransaction().begin();
+					em.createNativeQuery("CREATE INDEX " + index[0] + " ON " + index[1] + " (" + index[2] + ")")
+						.executeUpdate();
+					em.getTransaction().commit();
+				}
+			}
+			
+			Set<String> missing = missingColumns(em);
+			if(!missing.isEmpty()){
+				LOGGER.severe("Columns " + missing + " are mapped but missing from the database, "
+						+ "the schema version is not recorded");
+				return;
+			}
+			
+			em.getTransaction().begin();
+			if(schemaVersion(em) < 0){
+				em.createNativeQuery("CREATE TABLE " + SCHEMA_TABLE + " (VERSION INTEGER)").executeUpdate();
+			}
+			em.createNativeQuery("DELETE FROM " + SCHEMA_TABLE).executeUpdate();
+			em.createNativeQuery("INSERT INTO " + SCHEMA_TABLE + " (VERSION) VALUES (" + SCHEMA_VERSION + ")")
+				.executeUpdate();
+			em.getTransaction().commit();
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+	}
+
+	/**
+	 * Get the recorded version of the schema, -1 if the database does not record it
+	 */
+	private static int schemaVersion(EntityManager em) {
+		List<?> tables = em.createNativeQuery("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.SYSTEM_TABLES "
+				+ "WHERE TABLE_NAME = '" + SCHEMA_TABLE + "'").getResultList();
+		if(tables.isEmpty()){
+			return -1;
+		}
+		List<?> versions = em.createNativeQuery("SELECT MAX(VERSION) FROM " + SCHEMA_TABLE).getResultList();
+		Object version = versions.isEmpty() ? null : versions.get(0);
+		return version instanceof Number ? ((Number) version).intValue() : 0;
+	}
+	
+	/**
+	 * Get the columns mapped by the entities which do not exist in the database, as TABLE.COLUMN
+	 */
+	private static Set<String> missingColumns(EntityManager em) {
+		Set<String> tables = new HashSet<>();
+		Set<String> columns = new HashSet<>();
+		readColumns(em, tables, columns);
+		
+		Set<String> missing = new TreeSet<>();
+		for(ClassDescriptor descriptor : em.unwrap(JpaEntityManager.class).getServerSession().getDescriptors().values()){
+			for(DatabaseField field : descriptor.getFields()){
+				String name = (field.getTableName() + "." + field.getName()).toUpperCase(Locale.ROOT);
+				if(!columns.contains(name)){
+					missing.add(name);
+				}
+			}
+		}
+		return missing;
+	}
+	
+	/**
+	 * Read the existing tables and their columns, as TABLE.COLUMN
+	 */
+	private static void readColumns(EntityManager em, Set<String> tables, Set<String> columns) {
+		List<?> existing = em.createNativeQuery("SELECT TABLE_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.SYSTEM_COLUMNS "
+				+ "WHERE TABLE_NAME IN (" + TABLE_NAMES + ")").getResultList();
+		for(Object row : existing){
+			Object[] values = (Object[]) row;
+			tables.add(String.valueOf(values[0]));
+			columns.add(values[0] + "." + values[1]);
+		}
+	}
+	
+	/**
+	 * Compress all uncompressed entry bodies, render all entries not rendered yet and number 
+	 * all entries not numbered yet
+	 */
+	@Override
+	public void run() {
+		long start = System.currentTimeMillis();
+		int migrated = 0;
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			migrated = migrate(em, "e.compressedContent IS NULL AND e.legacyContent IS NOT NULL", 
+					entry -> entry.setContent(entry.getContent()));
+			if(migrated > 0){
+				LOGGER.info("Compressed " + migrated + " entries in " + (System.currentTimeMillis() - start) 
+						+ "ms, " + CompressionStatistics.of(em));
+			}
+			
+			start = System.currentTimeMillis();
+			migrated = migrate(em, "e.compressedHtml IS NULL "
+					+ "AND (e.compressedContent IS NOT NULL OR e.legacyContent IS NOT NULL)", EntryRenderer::render);
+			if(migrated > 0){
+				LOGGER.info("Rendered " + migrated + " entries in " + (System.currentTimeMillis() - start) + "ms");
+			}
+			
+			start = System.currentTimeMillis();
+			migrated = number(em);
+			if(migrated > 0){
+				LOGGER.info("Numbered " + migrated + " entries in " + (System.currentTimeMillis() - start) + "ms");
+			}
+		} catch(RuntimeException e){
+			LOGGER.log(Level.WARNING, "Content migration stopped", e);
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+	}
+	
+	/**
+	 * Update the entries matching a condition in batches until none are left
+	 * 
+	 * @return
+	 * 		The number of updated entries
+	 */
+	private static int migrate(EntityManager em, String condition, Consumer<FeedEntry> migration) {
+		int migrated = 0;
+		while(!Thread.currentThread().isInterrupted()){
+			em.getTransaction().begin();
+			List<FeedEntry> batch = em.createQuery("SELECT e FROM FeedEntry e WHERE " + condition 
+					+ " ORDER BY e.id", FeedEntry.class)
+					.setMaxResults(BATCH_SIZE)
+					.getResultList();
+			batch.forEach(migration);
+			em.getTransaction().commit();
+			em.clear();
+			
+			migrated += batch.size();
+			if(batch.size() < BATCH_SIZE){
+				break;
+			}
+		}
+		return migrated;
+	}
+	
+	/**
+	 * Number the entries not numbered yet in batches until none are left, oldest first within 
+	 * each feed. The numbered entries are unread.
+	 * 
+	 * @return
+	 * 		The number of numbered entries
+	 */
+	private static int number(EntityManager em) {
+		int numbered = 0;
+		while(!Thread.currentThread().isInterrupted()){
+			em.getTransaction().begin();
+			List<Object[]> batch = em.createQuery("SELECT e.feed.id, e.id FROM FeedEntry e "
+					+ "WHERE e.ordinal IS NULL ORDER BY e.feed.id, e.published, e.id", Object[].class)
+					.setMaxResults(BATCH_SIZE)
+					.getResultList();
+			
+			Map<Long, List<Long>> byFeed = new LinkedHashMap<>();
+			for(Object[] row : batch){
+				byFeed.computeIfAbsent((Long) row[0], feed -> new ArrayList<>()).add((Long) row[1]);
+			}
+			for(Map.Entry<Long, List<Long>> feed : byFeed.entrySet()){
+				int ordinal = ReadStates.reserve(feed.getKey(), feed.getValue().size(), em);
+				for(Long id : feed.getValue()){
+					em.createQuery("UPDATE FeedEntry e SET e.ordinal = :ordinal WHERE e.id = :id")
+						.setParameter("ordinal", ordinal++)
+						.setParameter("id", id)
+						.executeUpdate();
+				}
+			}
+			em.getTransaction().commit();
+			for(Long feed : byFeed.keySet()){
+				em.getEntityManagerFactory().getCache().evict(Feed.class, feed);
+			}
+			em.clear();
+			
+			numbered += batch.size();
+			if(batch.size() < BATCH_SIZE){
+				break;
+			}
+		}
+		return numbered;
+	}
+}
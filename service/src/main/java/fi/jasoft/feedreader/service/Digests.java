@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers for computing content hashes
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+final class Digests {
+	
+	private static final String ALGORITHM = "SHA-1";
+	
+	private Digests() {
+		// Only static access
+	}
+	
+	/**
+	 * Create a new message digest
+	 */
+	static MessageDigest newDigest() {
+		try{
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch(NoSuchAlgorithmException e){
+			throw new IllegalStateException(ALGORITHM + " not supported", e);
+		}
+	}
+
+	/**
+	 * Hash bytes
+	 * 
+	 * @param bytes
+	 * 		The bytes to hash
+	 * @return
+	 * 		The hex encoded hash
+	 */
+	static String sha1(byte[] bytes) {
+		return hex(newDigest().digest(bytes));
+	}
+	
+	/**
+	 * Hash a string as UTF-8
+	 * 
+	 * @param value
+	 * 		The string to hash
+	 * @return
+	 * 		The hex encoded hash
+	 */
+	static String sha1(String value) {
+		return sha1(value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Hex encode a digest
+	 * 
+	 * @param digest
+	 * 		The digest bytes
+	 * @return
+	 * 		The lower case hex representation
+	 */
+	static String hex(byte[] digest) {
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for(byte b : digest){
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * Computes stable identities and content fingerprints for feed entries.
+ * <p>
+ * The identity of an entry is its guid/URI, or its link if it has no guid, or its title
+ * as a last resort. URLs are normalised so that the same entry is recognised even if the
+ * feed switches between http and https, changes the case of the host or adds a default port.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public final class EntryKeys {
+	
+	/**
+	 * Maximum length of a key, matches the length of the entry key column
+	 */
+	static final int MAX_KEY_LENGTH = 255;
+	
+	private EntryKeys() {
+		// Only static access
+	}
+	
+	/**
+	 * Compute the identity of an entry
+	 * 
+	 * @param uri
+	 * 		The guid or URI of the entry, may be <code>null</code>
+	 * @param link
+	 * 		The link of the entry, may be <code>null</code>
+	 * @param title
+	 * 		The title of the entry, may be <code>null</code>
+	 * @return
+	 * 		The key identifying the entry within its feed, or <code>null</code> if the entry 
+	 * 		has nothing to identify it by.
+	 */
+	public static String identity(String uri, String link, String title) {
+		String key;
+		if(!isBlank(uri)){
+			key = normalize(uri);
+		} else if(!isBlank(link)){
+			key = normalize(link);
+		} else if(!isBlank(title)){
+			key = "title:" + title.trim();
+		} else {
+			return null;
+		}
+		return key.length() > MAX_KEY_LENGTH ? "sha1:" + Digests.sha1(key) : key;
+	}
+	
+	/**
+	 * Compute a fingerprint of the content of the entry. Two entries with the same 
+	 * fingerprint have the same title and content.
+	 * 
+	 * @param title
+	 * 		The title of the entry
+	 * @param content
+	 * 		The content of the entry
+	 * @return
+	 * 		The hex encoded fingerprint
+	 */
+	public static String fingerprint(String title, String content) {
+		String t = title == null ? "" : title;
+		String c = content == null ? "" : content;
+		return Digests.sha1(t.length() + ":" + t + c);
+	}
+	
+	/**
+	 * Normalise an identifier. URLs are reduced to host, port, path and query with the 
+	 * host in lower case and default ports removed. Other identifiers are only trimmed.
+	 * 
+	 * @param value
+	 * 		The identifier to normalise
+	 * @return
+	 * 		The normalised identifier
+	 */
+	static String normalize(String value) {
+		String trimmed = value.trim();
+		URI uri;
+		try{
+			uri = new URI(trimmed);
+		} catch(URISyntaxException e){
+			return trimmed;
+		}
+		
+		String scheme = uri.getScheme();
+		String host = uri.getHost();
+		if(scheme == null || host == null){
+			return trimmed;
+		}
+		scheme = scheme.toLowerCase(Locale.ROOT);
+		if(!scheme.equals("http") && !scheme.equals("https")){
+			return trimmed;
+		}
+		
+		StringBuilder key = new StringBuilder("//");
+		key.append(host.toLowerCase(Locale.ROOT));
+		int port = uri.getPort();
+		if(port != -1 && port != 80 && port != 443){
+			key.append(':').append(port);
+		}
+		String path = uri.getRawPath();
+		key.append(path == null || path.isEmpty() ? "/" : path);
+		if(uri.getRawQuery() != null){
+			key.append('?').append(uri.getRawQuery());
+		}
+		if(uri.getRawFragment() != null){
+			key.append('#').append(uri.getRawFragment());
+		}
+		return key.toString();
+	}
+	
+	private static boolean isBlank(String value) {
+		return value == null || value.trim().isEmpty();
+	}
+}
@@ -0,0 +1,888 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+
+import fi.jasoft.feedreader.data.EntrySummary;
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.data.FeedEntry;
+
+/**
+ * The entries of one feed stored in segmented append-only log files.
+ * <p>
+ * Every change is appended as a record: a stored entry, a deleted entry, a changed star or 
+ * the read entries. The identity, title and publish date of the live entries and the location of their records 
+ * are kept in memory, so listing entries never touches the files and loading an entry is a 
+ * single read from a memory-mapped segment. A new segment is started when the current one 
+ * grows past the segment size. Records replaced or deleted later are garbage until the log 
+ * is compacted, which copies the live entries to new segments and deletes the old ones.
+ * <p>
+ * Entries are numbered in the order they are stored. The read entries are an {@link OrdinalBitmap} 
+ * of their ordinals written as a whole after every change, only the last one counts. Deleted 
+ * entries are marked read so their ordinals are never reused.
+ * <p>
+ * The log is rebuilt from its segments when opened. Segments are replayed in order, so a crash 
+ * in the middle of a compaction leaves either the old records or both the old records and 
+ * identical copies, never a different state.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+final class EntryLog implements Closeable {
+	
+	private static final byte PUT = 1;
+	
+	private static final byte DELETE = 2;
+	
+	private static final byte STAR = 3;
+	
+	private static final byte READ = 4;
+	
+	private static final String SUFFIX = ".seg";
+	
+	private static final Comparator<Slot> NEWEST_FIRST = (a, b) -> {
+		int order = Long.compare(b.published, a.published);
+		return order != 0 ? order : Long.compare(b.id, a.id);
+	};
+	
+	private final File directory;
+	
+	private final long segmentSize;
+	
+	private final List<LogSegment> segments = new ArrayList<>();
+	
+	private final Map<Long, Slot> byId = new HashMap<>();
+	
+	private final Map<String, Slot> byKey = new HashMap<>();
+	
+	private final NavigableSet<Slot> ordered = new TreeSet<>(NEWEST_FIRST);
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private long liveBytes;
+	
+	private long contentBytes;
+	
+	private long storedBytes;
+	
+	private OrdinalBitmap read = new OrdinalBitmap();
+	
+	private int nextOrdinal;
+	
+	private int unread;
+	
+	private int readRecordLength;
+	
+	/**
+	 * Open the log of a feed, recovering the entries of existing segments
+	 * 
+	 * @param directory
+	 * 		The directory of the segments, created if missing
+	 * @param segmentSize
+	 * 		The size after which a new segment is started
+	 * @param ids
+	 * 		Receives the id of every live entry
+	 */
+	EntryLog(File directory, long segmentSize, LongConsumer ids) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		Files.createDirectories(directory.toPath());
+		
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		long[] sequences = files == null ? new long[0] : Arrays.stream(files)
+				.mapToLong(file -> Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length())))
+				.sorted()
+				.toArray();
+		try{
+			for(long sequence : sequences){
+				LogSegment segment = new LogSegment(segmentFile(sequence), sequence);
+				segments.add(segment);
+				segment.recover((offset, payload) -> replay(segment, offset, payload));
+			}
+			
+			// Entries stored before entries were numbered, number them oldest first and persist the numbers
+			List<Slot> unnumbered = new ArrayList<>();
+			for(Slot slot : ordered.descendingSet()){
+				if(slot.ordinal < 0){
+					unnumbered.add(slot);
+				}
+			}
+			for(Slot slot : unnumbered){
+				slot.ordinal = nextOrdinal++;
+			}
+			if(!unnumbered.isEmpty()){
+				rewrite();
+			}
+			unread = (int) byId.values().stream().filter(slot -> !read.contains(slot.ordinal)).count();
+		} catch(IOException | RuntimeException e){
+			close();
+			throw e;
+		}
+		byId.keySet().forEach(ids::accept);
+	}
+	
+	private File segmentFile(long sequence) {
+		return new File(directory, String.format("%020d%s", sequence, SUFFIX));
+	}
+	
+	private void replay(LogSegment segment, long offset, ByteBuffer payload) {
+		int length = LogSegment.HEADER + payload.remaining();
+		byte type = payload.get();
+		long id = payload.getLong();
+		switch(type){
+		case PUT:
+			index(decodeSlot(id, payload, segment, offset, length));
+			break;
+		case DELETE:
+			unindex(byId.get(id));
+			break;
+		case STAR:
+			Slot slot = byId.get(id);
+			if(slot != null){
+				slot.starred = payload.get() != 0;
+			}
+			break;
+		case READ:
+			read = OrdinalBitmap.read(payload);
+			nextOrdinal = Math.max(nextOrdinal, (int) id);
+			liveBytes += length - readRecordLength;
+			readRecordLength = length;
+			break;
+		default:
+			throw new IllegalStateException("Unknown record type " + type + " in " + segment.getFile());
+		}
+	}
+	
+	private void index(Slot slot) {
+		unindex(byId.get(slot.id));
+		byId.put(slot.id, slot);
+		byKey.put(slot.key, slot);
+		ordered.add(slot);
+		nextOrdinal = Math.max(nextOrdinal, slot.ordinal + 1);
+		liveBytes += slot.length;
+		contentBytes += slot.contentSize;
+		storedBytes += slot.storedSize;
+	}
+	
+	private void unindex(Slot slot) {
+		if(slot != null){
+			byId.remove(slot.id);
+			byKey.remove(slot.key);
+			ordered.remove(slot);
+			liveBytes -= slot.length;
+			contentBytes -= slot.contentSize;
+			storedBytes -= slot.storedSize;
+		}
+	}
+	
+	/**
+	 * Store new entries or replace stored entries with the same id. New entries are 
+	 * numbered and unread, replaced entries keep their numbers.
+	 * 
+	 * @param entries
+	 * 		The entries, with their ids assigned
+	 * @param force
+	 * 		Should the records be flushed to the disk before returning
+	 */
+	void put(Collection<FeedEntry> entries, boolean force) throws IOException {
+		lock.writeLock().lock();
+		try{
+			for(FeedEntry entry : entries){
+				Slot existing = byId.get(entry.getId());
+				if(existing != null){
+					entry.setOrdinal(existing.ordinal);
+				} else {
+					entry.setOrdinal(nextOrdinal);
+					unread++;
+				}
+				byte[] payload = encode(entry);
+				LogSegment segment = activeSegment();
+				long offset = segment.append(payload);
+				index(decodeSlot(entry.getId(), payload, segment, offset));
+			}
+			if(force){
+				activeSegment().force();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Delete entries
+	 * 
+	 * @param ids
+	 * 		The ids of the entries
+	 * @param force
+	 * 		Should the records be flushed to the disk before returning
+	 * @return
+	 * 		The ids of the entries which were stored
+	 */
+	List<Long> delete(Collection<Long> ids, boolean force) throws IOException {
+		lock.writeLock().lock();
+		try{
+			List<Long> deleted = new ArrayList<>(ids.size());
+			List<Integer> ordinals = new ArrayList<>(ids.size());
+			for(Long id : ids){
+				Slot slot = byId.get(id);
+				if(slot != null){
+					activeSegment().append(ByteBuffer.allocate(9).put(DELETE).putLong(id).array());
+					unindex(slot);
+					deleted.add(id);
+					ordinals.add(slot.ordinal);
+				}
+			}
+			int wasUnread = read.addAll(ordinals);
+			if(wasUnread > 0){
+				unread -= wasUnread;
+				appendReadState(activeSegment());
+			}
+			if(force && !deleted.isEmpty()){
+				activeSegment().force();
+			}
+			return deleted;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Star or unstar an entry
+	 * 
+	 * @return
+	 * 		<code>false</code> if there is no such entry
+	 */
+	boolean star(long id, boolean starred, boolean force) throws IOException {
+		lock.writeLock().lock();
+		try{
+			Slot slot = byId.get(id);
+			if(slot == null){
+				return false;
+			}
+			if(slot.starred != starred){
+				activeSegment().append(ByteBuffer.allocate(10).put(STAR).putLong(id).put((byte) (starred ? 1 : 0)).array());
+				slot.starred = starred;
+				if(force){
+					activeSegment().force();
+				}
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Mark an entry read or unread
+	 * 
+	 * @return
+	 * 		<code>true</code> if the state of the entry changed
+	 */
+	boolean setRead(long id, boolean isRead, boolean force) throws IOException {
+		lock.writeLock().lock();
+		try{
+			Slot slot = byId.get(id);
+			if(slot == null || !(isRead ? read.add(slot.ordinal) : read.remove(slot.ordinal))){
+				return false;
+			}
+			unread += isRead ? -1 : 1;
+			LogSegment segment = appendReadState(activeSegment());
+			if(force){
+				segment.force();
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Mark all entries read
+	 * 
+	 * @return
+	 * 		The number of entries which were unread
+	 */
+	int markAllRead(boolean force) throws IOException {
+		lock.writeLock().lock();
+		try{
+			if(read.addRange(0, nextOrdinal) == 0){
+				return 0;
+			}
+			int wasUnread = unread;
+			unread = 0;
+			LogSegment segment = appendReadState(activeSegment());
+			if(force){
+				segment.force();
+			}
+			return wasUnread;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Is an entry read
+	 */
+	boolean isRead(long id) {
+		lock.readLock().lock();
+		try{
+			Slot slot = byId.get(id);
+			return slot != null && read.contains(slot.ordinal);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the number of live entries which have not been read
+	 */
+	int unreadCount() {
+		lock.readLock().lock();
+		try{
+			return unread;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Append the read entries and the next ordinal, replacing the previous record of them
+	 */
+	private LogSegment appendReadState(LogSegment segment) throws IOException {
+		byte[] bits = read.toBytes();
+		byte[] payload = ByteBuffer.allocate(9 + bits.length).put(READ).putLong(nextOrdinal).put(bits).array();
+		segment.append(payload);
+		int length = LogSegment.HEADER + payload.length;
+		liveBytes += length - readRecordLength;
+		readRecordLength = length;
+		return segment;
+	}
+	
+	private LogSegment activeSegment() throws IOException {
+		LogSegment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if(last == null || last.size() >= segmentSize){
+			if(last != null){
+				last.force();
+			}
+			last = new LogSegment(segmentFile(last == null ? 0 : last.getSequence() + 1), 
+					last == null ? 0 : last.getSequence() + 1);
+			segments.add(last);
+		}
+		return last;
+	}
+	
+	/**
+	 * Load an entry with its body
+	 * 
+	 * @param id
+	 * 		The id of the entry
+	 * @param feed
+	 * 		The feed set to the loaded entry
+	 * @return
+	 * 		The entry or <code>null</code> if there is no such entry
+	 */
+	FeedEntry read(long id, Feed feed) throws IOException {
+		lock.readLock().lock();
+		try{
+			Slot slot = byId.get(id);
+			if(slot == null){
+				return null;
+			}
+			FeedEntry entry = decode(slot.segment.read(slot.offset));
+			entry.setStarred(slot.starred);
+			entry.setFeed(feed);
+			return entry;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the stored entry with a key, or <code>null</code>
+	 */
+	Slot get(String key) {
+		lock.readLock().lock();
+		try{
+			return byKey.get(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the keys of the newest entries
+	 * 
+	 * @param limit
+	 * 		The maximum number of keys
+	 */
+	Set<String> recentKeys(int limit) {
+		lock.readLock().lock();
+		try{
+			Set<String> keys = new HashSet<>();
+			Iterator<Slot> slots = ordered.iterator();
+			while(slots.hasNext() && keys.size() < limit){
+				keys.add(slots.next().key);
+			}
+			return keys;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get a page of entries, newest first
+	 * 
+	 * @param after
+	 * 		The last entry of the previous page, or <code>null</code> for the first page
+	 * @param limit
+	 * 		The maximum number of entries
+	 */
+	List<EntrySummary> page(EntrySummary after, int limit) {
+		lock.readLock().lock();
+		try{
+			Iterator<Slot> slots;
+			if(after == null){
+				slots = ordered.iterator();
+			} else {
+				Slot probe = new Slot(after.getId(), null, null, 
+						after.getPublished() == null ? 0 : after.getPublished().getTime());
+				slots = ordered.tailSet(probe, false).iterator();
+			}
+			List<EntrySummary> page = new ArrayList<>(Math.min(limit, byId.size()));
+			while(slots.hasNext() && page.size() < limit){
+				Slot slot = slots.next();
+				page.add(new EntrySummary(slot.id, slot.title, new Date(slot.published)));
+			}
+			return page;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the publish date of the n:th newest entry
+	 * 
+	 * @param n
+	 * 		The position of the entry, 0 for the newest
+	 * @param unstarredOnly
+	 * 		Should only entries which are not starred be counted
+	 * @return
+	 * 		The date or <code>null</code> if there are not enough entries
+	 */
+	Date publishedAt(int n, boolean unstarredOnly) {
+		lock.readLock().lock();
+		try{
+			int position = 0;
+			for(Slot slot : ordered){
+				if(unstarredOnly && slot.starred){
+					continue;
+				}
+				if(position++ == n){
+					return new Date(slot.published);
+				}
+			}
+			return null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Find the entries exceeding retention limits
+	 * 
+	 * @param cutoff
+	 * 		Entries published before this are expired, <code>null</code> if the age is not limited
+	 * @param maxEntries
+	 * 		The number of newest entries kept, 0 if not limited
+	 * @param keepStarred
+	 * 		Are starred entries kept regardless of the limits
+	 * @return
+	 * 		The ids of the expired entries
+	 */
+	List<Long> expired(Date cutoff, int maxEntries, boolean keepStarred) {
+		lock.readLock().lock();
+		try{
+			List<Long> expired = new ArrayList<>();
+			int kept = 0;
+			for(Slot slot : ordered){
+				if(keepStarred && slot.starred){
+					continue;
+				}
+				if((cutoff != null && slot.published < cutoff.getTime()) || (maxEntries > 0 && kept >= maxEntries)){
+					expired.add(slot.id);
+				} else {
+					kept++;
+				}
+			}
+			return expired;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Copy the live entries to new segments and delete the old segments, if at least 
+	 * half of the log is garbage and the garbage fills a segment
+	 * 
+	 * @return
+	 * 		The number of bytes reclaimed
+	 */
+	long compact() throws IOException {
+		lock.writeLock().lock();
+		try{
+			long size = size();
+			long garbage = size - liveBytes;
+			if(garbage < liveBytes || garbage < segmentSize){
+				return 0;
+			}
+			rewrite();
+			return size - size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Copy the live entries and the read entries to new segments and delete the old segments
+	 */
+	private void rewrite() throws IOException {
+		List<LogSegment> old = new ArrayList<>(segments);
+		long sequence = old.isEmpty() ? 0 : old.get(old.size() - 1).getSequence() + 1;
+		LogSegment target = new LogSegment(segmentFile(sequence), sequence);
+		segments.add(target);
+		
+		// Oldest first, so that reading a page of new entries stays within one segment
+		List<Slot> live = new ArrayList<>(ordered.descendingSet());
+		List<Slot> copies = new ArrayList<>(live.size());
+		for(Slot slot : live){
+			FeedEntry entry = decode(slot.segment.read(slot.offset));
+			entry.setStarred(slot.starred);
+			entry.setOrdinal(slot.ordinal);
+			byte[] payload = encode(entry);
+			if(target.size() >= segmentSize){
+				target.force();
+				sequence++;
+				target = new LogSegment(segmentFile(sequence), sequence);
+				segments.add(target);
+			}
+			copies.add(decodeSlot(slot.id, payload, target, target.append(payload)));
+		}
+		
+		byId.clear();
+		byKey.clear();
+		ordered.clear();
+		liveBytes = 0;
+		contentBytes = 0;
+		storedBytes = 0;
+		readRecordLength = 0;
+		copies.forEach(this::index);
+		appendReadState(target).force();
+		
+		// Oldest first, a crash in between leaves the newest records of the old segments
+		for(LogSegment segment : old){
+			segments.remove(segment);
+			segment.delete();
+		}
+	}
+	
+	/**
+	 * Get the number of live entries
+	 */
+	int count() {
+		lock.readLock().lock();
+		try{
+			return byId.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the ids of the live entries
+	 */
+	List<Long> ids() {
+		lock.readLock().lock();
+		try{
+			return new ArrayList<>(byId.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the size of the bodies of the live entries before and after compression, and the number of entries
+	 */
+	long[] contentStatistics() {
+		lock.readLock().lock();
+		try{
+			return new long[]{ byId.size(), contentBytes, storedBytes };
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the total size of the segments in bytes
+	 */
+	long size() {
+		long size = 0;
+		for(LogSegment segment : segments){
+			size += segment.size();
+		}
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try{
+			for(LogSegment segment : segments){
+				segment.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Close the log and delete its files
+	 */
+	void delete() throws IOException {
+		lock.writeLock().lock();
+		try{
+			for(LogSegment segment : segments){
+				segment.delete();
+			}
+			segments.clear();
+			Files.deleteIfExists(directory.toPath());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/*
+	 * Record format of a stored entry: type, id, key, title, url, fingerprint, 
+	 * published, starred, content size, compressed body, compressed HTML, preview, ordinal. 
+	 * Records written before the HTML was rendered end after the body, records written 
+	 * before entries were numbered end after the preview.
+	 */
+	
+	private static byte[] encode(FeedEntry entry) throws IOException {
+		byte[] body = entry.getCompressedContent();
+		byte[] html = entry.getCompressedHtml();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + (body == null ? 0 : body.length) 
+				+ (html == null ? 0 : html.length));
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(PUT);
+		out.writeLong(entry.getId());
+		writeString(out, entry.getEntryKey());
+		writeString(out, entry.getTitle());
+		writeString(out, entry.getUrl());
+		writeString(out, entry.getFingerprint());
+		out.writeLong(entry.getPublished() == null ? 0 : entry.getPublished().getTime());
+		out.writeBoolean(entry.isStarred());
+		out.writeInt(entry.getContentSize());
+		writeBytes(out, body);
+		writeBytes(out, entry.getCompressedHtml());
+		writeString(out, entry.getPreview());
+		out.writeInt(entry.getOrdinal() == null ? -1 : entry.getOrdinal());
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	private static FeedEntry decode(ByteBuffer payload) {
+		payload.get();
+		FeedEntry entry = new FeedEntry();
+		entry.setId(payload.getLong());
+		entry.setEntryKey(readString(payload));
+		entry.setTitle(readString(payload));
+		entry.setUrl(readString(payload));
+		entry.setFingerprint(readString(payload));
+		entry.setPublished(new Date(payload.getLong()));
+		entry.setStarred(payload.get() != 0);
+		int contentSize = payload.getInt();
+		entry.setCompressedContent(readBytes(payload), contentSize);
+		if(payload.hasRemaining()){
+			entry.setCompressedHtml(readBytes(payload));
+			entry.setPreview(readString(payload));
+		}
+		if(payload.hasRemaining()){
+			int ordinal = payload.getInt();
+			entry.setOrdinal(ordinal < 0 ? null : ordinal);
+		}
+		return entry;
+	}
+	
+	private static Slot decodeSlot(long id, byte[] payload, LogSegment segment, long offset) {
+		ByteBuffer buffer = ByteBuffer.wrap(payload);
+		buffer.position(9);
+		return decodeSlot(id, buffer, segment, offset, LogSegment.HEADER + payload.length);
+	}
+	
+	private static Slot decodeSlot(long id, ByteBuffer payload, LogSegment segment, long offset, int length) {
+		String key = readString(payload);
+		String title = readString(payload);
+		skipString(payload);
+		Slot slot = new Slot(id, key, title, 0);
+		slot.fingerprint = readString(payload);
+		slot.published = payload.getLong();
+		slot.starred = payload.get() != 0;
+		slot.contentSize = payload.getInt();
+		slot.storedSize = Math.max(payload.getInt(), 0);
+		payload.position(payload.position() + slot.storedSize);
+		if(payload.hasRemaining()){
+			skipString(payload);
+			skipString(payload);
+		}
+		if(payload.hasRemaining()){
+			slot.ordinal = payload.getInt();
+		}
+		slot.segment = segment;
+		slot.offset = offset;
+		slot.length = length;
+		return slot;
+	}
+	
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	static String readString(ByteBuffer in) {
+		byte[] bytes = readBytes(in);
+		return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static void skipString(ByteBuffer in) {
+		int length = in.getInt();
+		if(length > 0){
+			in.position(in.position() + length);
+		}
+	}
+	
+	private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+		if(value == null){
+			out.writeInt(-1);
+		} else {
+			out.writeInt(value.length);
+			out.write(value);
+		}
+	}
+	
+	private static byte[] readBytes(ByteBuffer in) {
+		int length = in.getInt();
+		if(length < 0){
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return bytes;
+	}
+	
+	/**
+	 * The in-memory index entry of a stored entry
+	 */
+	static final class Slot {
+		
+		final long id;
+		
+		final String key;
+		
+		final String title;
+		
+		long published;
+		
+		String fingerprint;
+		
+		boolean starred;
+		
+		int ordinal = -1;
+		
+		int contentSize;
+		
+		int storedSize;
+		
+		LogSegment segment;
+		
+		long offset;
+		
+		int length;
+		
+		Slot(long id, String key, String title, long published) {
+			this.id = id;
+			this.key = key;
+			this.title = title;
+			this.published = published;
+		}
+		
+		/**
+		 * Get the id of the entry
+		 */
+		long getId() {
+			return id;
+		}
+		
+		/**
+		 * Get the fingerprint of the title and body of the entry
+		 */
+		String getFingerprint() {
+			return fingerprint;
+		}
+		
+		/**
+		 * Get the publish time of the entry
+		 */
+		long getPublished() {
+			return published;
+		}
+		
+		/**
+		 * Get the number of the entry within its feed
+		 */
+		int getOrdinal() {
+			return ordinal;
+		}
+		
+		/**
+		 * Is the entry starred
+		 */
+		boolean isStarred() {
+			return starred;
+		}
+	}
+}
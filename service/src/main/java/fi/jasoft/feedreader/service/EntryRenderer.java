@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.safety.Cleaner;
+import org.jsoup.safety.Whitelist;
+
+import fi.jasoft.feedreader.data.FeedEntry;
+import fi.jasoft.feedreader.data.RenderedEntry;
+
+/**
+ * Turns the raw bodies of entries into HTML which is safe to show as is. 
+ * <p>
+ * Only formatting elements, links and images are kept, scripts, styles, frames and event 
+ * handlers are dropped. Relative links are resolved against the link of the entry and links 
+ * with other protocols than http and https are removed. Images are loaded lazily and links 
+ * open in a new window. Entries are rendered once when they are stored, opening an entry 
+ * only decompresses the result.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+final class EntryRenderer {
+	
+	private static final Whitelist WHITELIST = Whitelist.relaxed()
+			.addTags("figure", "figcaption", "hr")
+			.addAttributes("img", "loading", "decoding")
+			.addAttributes("a", "target", "rel");
+	
+	private static final Document.OutputSettings OUTPUT = new Document.OutputSettings().prettyPrint(false);
+	
+	private EntryRenderer() {
+		// Only static access
+	}
+	
+	/**
+	 * Render the body of an entry and store the HTML and preview in the entry
+	 * 
+	 * @param entry
+	 * 		The entry with its content and link set
+	 */
+	static void render(FeedEntry entry) {
+		String content = entry.getContent();
+		if(content == null){
+			// Marks the entry rendered
+			entry.setHtml("");
+			entry.setPreview("");
+			return;
+		}
+		
+		Document dirty = Jsoup.parseBodyFragment(content, entry.getUrl() == null ? "" : entry.getUrl());
+		Document clean = new Cleaner(WHITELIST).clean(dirty);
+		clean.outputSettings(OUTPUT);
+		clean.select("img").attr("loading", "lazy").attr("decoding", "async");
+		clean.select("a[href]").attr("target", "_blank").attr("rel", "noopener noreferrer nofollow");
+		
+		entry.setHtml(clean.body().html());
+		entry.setPreview(preview(clean.body().text()));
+	}
+	
+	/**
+	 * Cut a text to the preview length at a word boundary
+	 */
+	private static String preview(String text) {
+		if(text.length() <= FeedEntry.PREVIEW_LENGTH){
+			return text;
+		}
+		int end = text.lastIndexOf(' ', FeedEntry.PREVIEW_LENGTH - 1);
+		if(end < FeedEntry.PREVIEW_LENGTH / 2){
+			end = FeedEntry.PREVIEW_LENGTH - 1;
+		}
+		return text.substring(0, end) + "\u2026";
+	}
+	
+	/**
+	 * Get the rendered view of an entry. Entries stored before rendering was introduced 
+	 * are rendered on the fly.
+	 * 
+	 * @param entry
+	 * 		The entry
+	 * @param feedId
+	 * 		The id of the feed of the entry
+	 */
+	static RenderedEntry toRendered(FeedEntry entry, long feedId) {
+		if(entry.getHtml() == null && entry.getContent() != null){
+			render(entry);
+		}
+		return new RenderedEntry(entry.getId(), feedId, entry.getTitle(), entry.getUrl(), 
+				entry.getPublished(), entry.isStarred(), entry.getHtml(), entry.getPreview());
+	}
+}
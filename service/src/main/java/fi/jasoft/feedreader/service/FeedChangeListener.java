@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+/**
+ * Notified after changes to a feed or its entries have been committed
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+@FunctionalInterface
+public interface FeedChangeListener {
+	
+	/**
+	 * Called after a feed has been added, removed, saved or synchronized with new or 
+	 * changed entries. Called on the thread which made the change.
+	 * 
+	 * @param feedId
+	 * 		The id of the changed feed
+	 */
+	void feedChanged(long feedId);
+	
+	/**
+	 * Called after entries of a feed have been marked read or unread, which only changes the 
+	 * unread count of the feed. Treated as any other change unless overridden. Called on the 
+	 * thread which made the change.
+	 * 
+	 * @param feedId
+	 * 		The id of the feed
+	 */
+	default void readStateChanged(long feedId) {
+		feedChanged(feedId);
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Downloads feed documents using conditional HTTP requests. 
+ * <p>
+ * The ETag and Last-Modified validators stored in the {@link Feed} are sent with the
+ * request so servers can answer with <code>304 Not Modified</code> when nothing has changed.
+ * Connecting and reading time out after the milliseconds given by the 
+ * <code>feedreader.fetch.connectTimeout</code> and <code>feedreader.fetch.readTimeout</code> 
+ * system properties.
+ * <p>
+ * Responses are requested gzip compressed and decompressed while they are read. Documents 
+ * larger than <code>feedreader.fetch.maxBytes</code> bytes, before or after decompression, 
+ * are rejected without reading the rest of them. Responses are always read to the end and 
+ * closed without disconnecting, so the connection goes back to the keep-alive cache of the 
+ * JDK, sized by the standard <code>http.maxConnections</code> property, and the next fetch 
+ * from the same host reuses it.
+ * <p>
+ * Redirects are followed by the fetcher itself, also between http and https. Permanent 
+ * redirects are remembered, later fetches of the old url go straight to the new one, and 
+ * the new url is reported with {@link FetchResult#getMovedTo()} so the feed can be updated.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class FeedFetcher {
+	
+	private static final int CONNECT_TIMEOUT = Integer.getInteger("feedreader.fetch.connectTimeout", 10000);
+	
+	private static final int READ_TIMEOUT = Integer.getInteger("feedreader.fetch.readTimeout", 30000);
+	
+	private static final long MAX_BYTES = Long.getLong("feedreader.fetch.maxBytes", 10 * 1024 * 1024);
+	
+	private static final int MAX_REDIRECTS = 5;
+	
+	private static final int HTTP_PERMANENT_REDIRECT = 308;
+	
+	/*
+	 * Bounds the redirect cache, cleared when full
+	 */
+	private static final int MAX_CACHED_REDIRECTS = 10000;
+	
+	private final Map<String, String> permanentRedirects = new ConcurrentHashMap<>();
+	
+	/**
+	 * Fetch the feed document
+	 * 
+	 * @param feed
+	 * 		The feed to fetch. The validators of the feed are used but not updated.
+	 * @return
+	 * 		The fetched document, or a not modified result if the server reported no changes
+	 * @throws IOException
+	 * 		if the document could not be downloaded, or it was too large
+	 */
+	public FetchResult fetch(Feed feed) throws IOException {
+		String url = feed.getUrl();
+		String movedTo = permanentRedirects.get(url);
+		if(movedTo != null){
+			url = movedTo;
+		}
+		
+		for(int redirects = 0; ; redirects++){
+			URLConnection connection = new URL(url).openConnection();
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setReadTimeout(READ_TIMEOUT);
+			if(!(connection instanceof HttpURLConnection)){
+				if(!url.equals(feed.getUrl())){
+					// Only the url of the feed itself may point to something else than a web server
+					throw new IOException("Refusing to read " + url + " redirected to from " + feed.getUrl());
+				}
+				return read(connection, null).movedTo(movedTo);
+			}
+			
+			HttpURLConnection http = (HttpURLConnection) connection;
+			http.setInstanceFollowRedirects(false);
+			http.setRequestProperty("Accept-Encoding", "gzip");
+			if(feed.getEtag() != null){
+				http.setRequestProperty("If-None-Match", feed.getEtag());
+			}
+			if(feed.getLastModified() != null){
+				http.setRequestProperty("If-Modified-Since", feed.getLastModified());
+			}
+			
+			int status = http.getResponseCode();
+			if(isRedirect(status)){
+				String location = http.getHeaderField("Location");
+				release(http);
+				if(location == null){
+					throw new IOException("Redirect without a location from " + url);
+				}
+				if(redirects == MAX_REDIRECTS){
+					throw new IOException("Too many redirects from " + feed.getUrl());
+				}
+				URL resolved = new URL(new URL(url), location);
+				if(!"http".equalsIgnoreCase(resolved.getProtocol()) && !"https".equalsIgnoreCase(resolved.getProtocol())){
+					throw new IOException("Refusing to follow a redirect from " + url + " to " + resolved);
+				}
+				String target = resolved.toExternalForm();
+				if(isPermanent(status) && (movedTo != null || redirects == 0)){
+					// Only a chain of permanent redirects moves the feed
+					movedTo = target;
+					remember(feed.getUrl(), target);
+				}
+				url = target;
+				continue;
+			}
+			
+			if(status == HttpURLConnection.HTTP_NOT_MODIFIED){
+				release(http);
+				return FetchResult.notModified(feed.getEtag(), feed.getLastModified(), expiresOf(http))
+						.movedTo(movedTo);
+			}
+			if(status >= 400){
+				release(http);
+				throw new IOException("Server returned HTTP " + status + " for " + url);
+			}
+			return read(http, http).movedTo(movedTo);
+		}
+	}
+	
+	private static boolean isRedirect(int status) {
+		return status == HttpURLConnection.HTTP_MOVED_PERM 
+				|| status == HttpURLConnection.HTTP_MOVED_TEMP
+				|| status == HttpURLConnection.HTTP_SEE_OTHER
+				|| status == 307
+				|| status == HTTP_PERMANENT_REDIRECT;
+	}
+	
+	private static boolean isPermanent(int status) {
+		return status == HttpURLConnection.HTTP_MOVED_PERM || status == HTTP_PERMANENT_REDIRECT;
+	}
+	
+	private void remember(String url, String target) {
+		if(permanentRedirects.size() >= MAX_CACHED_REDIRECTS){
+			permanentRedirects.clear();
+		}
+		permanentRedirects.put(url, target);
+	}
+	
+	/**
+	 * Read the body of a successful response
+	 * 
+	 * @param http
+	 * 		The same connection if it is a HTTP connection, disconnected if the body is rejected
+	 */
+	private static FetchResult read(URLConnection connection, HttpURLConnection http) throws IOException {
+		long length = connection.getContentLengthLong();
+		if(length > MAX_BYTES){
+			if(http != null){
+				http.disconnect();
+			}
+			throw new IOException("Feed of " + length + " bytes exceeds the limit of " + MAX_BYTES 
+					+ " bytes: " + connection.getURL());
+		}
+		
+		boolean gzip = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+		MessageDigest digest = Digests.newDigest();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(
+				gzip || length < 0 ? 8192 : (int) length);
+		CappedInputStream wire = new CappedInputStream(connection.getInputStream());
+		CappedInputStream decoded = wire;
+		try{
+			if(gzip){
+				decoded = new CappedInputStream(new GZIPInputStream(wire));
+			}
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = decoded.read(buffer)) != -1){
+				body.write(buffer, 0, read);
+				digest.update(buffer, 0, read);
+			}
+		} catch(IOException e) {
+			if(http != null && (wire.exceeded || decoded.exceeded)){
+				// Do not return a connection with unread data to the cache
+				http.disconnect();
+			}
+			throw e;
+		} finally {
+			decoded.close();
+		}
+		
+		return FetchResult.fetched(body.toByteArray(), 
+				connection.getContentType(),
+				connection.getHeaderField("ETag"), 
+				connection.getHeaderField("Last-Modified"), 
+				Digests.hex(digest.digest()),
+				expiresOf(connection),
+				wire.count);
+	}
+	
+	/**
+	 * Read the rest of a response the body of which is not needed and close it, 
+	 * which returns the connection to the keep-alive cache
+	 */
+	private static void release(HttpURLConnection http) {
+		InputStream in = http.getErrorStream();
+		try{
+			if(in == null){
+				in = http.getInputStream();
+			}
+			byte[] buffer = new byte[8192];
+			long skipped = 0;
+			int read;
+			while((read = in.read(buffer)) != -1){
+				skipped += read;
+				if(skipped > 64 * 1024){
+					// Not worth reading for the sake of the connection
+					http.disconnect();
+					break;
+				}
+			}
+			in.close();
+		} catch(IOException e){
+			// No body or a broken connection, which the cache discards
+		}
+	}
+	
+	/**
+	 * Get the time until which the response may be cached according to the 
+	 * Cache-Control max-age directive or the Expires header
+	 * 
+	 * @return
+	 * 		the expiry time in milliseconds, or 0 if the response did not specify one
+	 */
+	private static long expiresOf(URLConnection connection) {
+		String cacheControl = connection.getHeaderField("Cache-Control");
+		if(cacheControl != null){
+			for(String directive : cacheControl.split(",")){
+				String d = directive.trim().toLowerCase(Locale.ROOT);
+				if(d.startsWith("max-age=")){
+					try{
+						return System.currentTimeMillis() + Long.parseLong(d.substring(8).trim()) * 1000;
+					} catch(NumberFormatException e){
+						// Ignore malformed directive
+					}
+				}
+			}
+		}
+		long expires = connection.getHeaderFieldDate("Expires", 0);
+		return Math.max(expires, 0);
+	}
+	
+	/**
+	 * Counts the bytes read and fails once more than {@link FeedFetcher#MAX_BYTES} have been read
+	 */
+	private static final class CappedInputStream extends FilterInputStream {
+		
+		private long count;
+		
+		private boolean exceeded;
+		
+		CappedInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1){
+				count(1);
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if(read > 0){
+				count(read);
+			}
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+		
+		private void count(long bytes) throws IOException {
+			count += bytes;
+			if(count > MAX_BYTES){
+				exceeded = true;
+				throw new IOException("Feed exceeds the limit of " + MAX_BYTES + " bytes");
+			}
+		}
+	}
+}
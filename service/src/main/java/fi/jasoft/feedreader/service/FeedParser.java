@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Predicate;
+
+import com.sun.syndication.io.FeedException;
+
+/**
+ * Reads entries from a RSS/Atom document
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public interface FeedParser {
+	
+	/**
+	 * Parse a feed document. Entries are handed to the handler in document order as they
+	 * are read.
+	 * 
+	 * @param in
+	 * 		The raw feed document
+	 * @param contentType
+	 * 		The HTTP content type of the document used for detecting the encoding, may be <code>null</code>
+	 * @param handler
+	 * 		Receives the entries. Returning <code>false</code> stops the parsing, no more
+	 * 		entries are read after that.
+	 * @return
+	 * 		The channel level information of the feed
+	 * @throws IOException
+	 * 		if the document could not be read
+	 * @throws FeedException
+	 * 		if the document is not a valid feed
+	 */
+	ParsedFeed parse(InputStream in, String contentType, Predicate<ParsedEntry> handler) 
+			throws IOException, FeedException;
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.eclipse.persistence.config.BatchWriting;
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.sessions.server.ConnectionPool;
+import org.eclipse.persistence.sessions.server.ServerSession;
+
+/**
+ * Owns the application wide {@link EntityManagerFactory} used by the feed services.
+ * <p>
+ * Bootstrapping EclipseLink is expensive so the factory is created once by {@link #start()}
+ * and shared until {@link #stop()} is called. Connections are pooled by the EclipseLink
+ * internal connection pools, sized with the <code>feedreader.pool.min</code> and
+ * <code>feedreader.pool.max</code> system properties. Inserts and updates are sent to the 
+ * database in JDBC batches of <code>feedreader.db.batchSize</code> statements. The database 
+ * can be replaced with the <code>feedreader.db.url</code> system property. Processes sharing 
+ * the database with others, such as sync workers, disable the shared entity cache with 
+ * <code>feedreader.db.sharedCache=false</code> so they do not read entities changed by the others 
+ * from a stale cache.
+ *
+ * @author John Ahlroos / https://devsoap.com
+ */
+public final class FeedPersistence {
+
+	static final String PERSISTANCE_UNIT = "feedReader";
+
+	private static final int POOL_MIN = Integer.getInteger("feedreader.pool.min", 2);
+
+	private static final int POOL_MAX = Integer.getInteger("feedreader.pool.max", 8);
+	
+	private static final int BATCH_SIZE = Integer.getInteger("feedreader.db.batchSize", 100);
+	
+	/*
+	 * Overrides the database of the persistence unit, for example with an in-memory database
+	 */
+	private static final String DB_URL = System.getProperty("feedreader.db.url");
+	
+	private static final boolean SHARED_CACHE = Boolean.parseBoolean(
+			System.getProperty("feedreader.db.sharedCache", "true"));
+
+	private static final String HSQLDB_FILE = "jdbc:hsqldb:file:";
+	
+	private static final String LEGACY_JDBC_URL = "eclipselink.jdbc.url";
+
+	private static EntityManagerFactory emf;
+
+	private FeedPersistence() {
+		// Only static access
+	}
+
+	/**
+	 * Start the persistence layer. Safe to call multiple times, only the first call
+	 * creates the entity manager factory.
+	 */
+	public static synchronized void start() {
+		if(emf != null){
+			return;
+		}
+
+		Map<String, Object> properties = new HashMap<>();
+		// The default pool is used for writing
+		poolSize(properties, PersistenceUnitProperties.CONNECTION_POOL);
+		poolSize(properties, PersistenceUnitProperties.CONNECTION_POOL_READ);
+		properties.put(PersistenceUnitProperties.BATCH_WRITING, BatchWriting.JDBC);
+		properties.put(PersistenceUnitProperties.BATCH_WRITING_SIZE, String.valueOf(BATCH_SIZE));
+		properties.put(PersistenceUnitProperties.SESSION_CUSTOMIZER, PoolCustomizer.class.getName());
+		if(!SHARED_CACHE){
+			properties.put(PersistenceUnitProperties.CACHE_SHARED_DEFAULT, "false");
+		}
+		if(DB_URL != null){
+			// persistence.xml sets the legacy property, which wins over the standard one
+			properties.put(PersistenceUnitProperties.JDBC_URL, DB_URL);
+			properties.put(LEGACY_JDBC_URL, DB_URL);
+		}
+
+		emf = Persistence.createEntityManagerFactory(PERSISTANCE_UNIT, properties);
+		ContentMigration.prepareSchema(emf);
+	}
+
+	private static void poolSize(Map<String, Object> properties, String pool) {
+		properties.put(pool + PersistenceUnitProperties.CONNECTION_POOL_MIN, String.valueOf(POOL_MIN));
+		properties.put(pool + PersistenceUnitProperties.CONNECTION_POOL_INITIAL, String.valueOf(POOL_MIN));
+		properties.put(pool + PersistenceUnitProperties.CONNECTION_POOL_MAX, String.valueOf(POOL_MAX));
+	}
+
+	/**
+	 * Stop the persistence layer and release all pooled connections.
+	 */
+	public static synchronized void stop() {
+		if(emf != null){
+			try{
+				emf.close();
+			} finally {
+				emf = null;
+			}
+		}
+	}
+
+	/**
+	 * Is the persistence layer started
+	 */
+	public static synchronized boolean isStarted() {
+		return emf != null;
+	}
+
+	/**
+	 * Get the shared entity manager factory. Starts the persistence layer if it has not
+	 * been started yet.
+	 */
+	public static synchronized EntityManagerFactory getEntityManagerFactory() {
+		if(emf == null){
+			start();
+		}
+		return emf;
+	}
+
+	/**
+	 * Create a new entity manager from the shared factory. The caller is responsible for
+	 * closing the entity manager, which returns its connection to the pool.
+	 */
+	public static EntityManager createEntityManager() {
+		return getEntityManagerFactory().createEntityManager();
+	}
+
+	/**
+	 * Get the size of the files of a file database
+	 * 
+	 * @return
+	 * 		The total size in bytes, or -1 if the persistence layer has not been started 
+	 * 		or the database is not stored in files
+	 */
+	public static long getDatabaseSize() {
+		File base = getDatabaseFile();
+		if(base == null){
+			return -1;
+		}
+		File[] files = base.getAbsoluteFile().getParentFile().listFiles(
+				(dir, name) -> name.startsWith(base.getName() + "."));
+		long size = 0;
+		if(files != null){
+			for(File file : files){
+				size += file.length();
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Checkpoint a file database and rewrite its files without the space left by deleted rows. 
+	 * Does nothing for databases not stored in files.
+	 */
+	static void compact() {
+		if(getDatabaseFile() == null){
+			return;
+		}
+		EntityManager em = createEntityManager();
+		try{
+			em.getTransaction().begin();
+			em.createNativeQuery("CHECKPOINT DEFRAG").executeUpdate();
+			em.getTransaction().commit();
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+	}
+	
+	/**
+	 * Get the path of a HSQLDB file database without the extensions of its files, 
+	 * <code>null</code> if not started or not a file database
+	 */
+	private static File getDatabaseFile() {
+		EntityManagerFactory factory;
+		synchronized (FeedPersistence.class) {
+			factory = emf;
+		}
+		if(factory == null){
+			return null;
+		}
+		
+		String url;
+		EntityManager em = factory.createEntityManager();
+		try{
+			url = em.unwrap(JpaEntityManager.class).getServerSession().getLogin().getConnectionString();
+		} finally {
+			em.close();
+		}
+		if(url == null || !url.startsWith(HSQLDB_FILE)){
+			return null;
+		}
+		String path = url.substring(HSQLDB_FILE.length());
+		int options = path.indexOf(';');
+		return new File(options < 0 ? path : path.substring(0, options));
+	}
+
+	/**
+	 * Get the current statistics of the connection pools. Returns an empty list if the
+	 * persistence layer has not been started.
+	 */
+	public static List<PoolStatistics> getPoolStatistics() {
+		EntityManagerFactory factory;
+		synchronized (FeedPersistence.class) {
+			factory = emf;
+		}
+		if(factory == null){
+			return Collections.emptyList();
+		}
+
+		EntityManager em = factory.createEntityManager();
+		try{
+			ServerSession session = em.unwrap(JpaEntityManager.class).getServerSession();
+			List<PoolStatistics> statistics = new ArrayList<>();
+			for(ConnectionPool pool : session.getConnectionPools().values()){
+				statistics.add(PoolStatistics.of(pool));
+			}
+			if(session.getReadConnectionPool() != null){
+				statistics.add(PoolStatistics.of(session.getReadConnectionPool()));
+			}
+			return statistics;
+		} finally {
+			em.close();
+		}
+	}
+}
@@ -15,10 +15,19 @@
  */
 package fi.jasoft.feedreader.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+import fi.jasoft.feedreader.data.EntrySummary;
 import fi.jasoft.feedreader.data.Feed;
 import fi.jasoft.feedreader.data.FeedEntry;
+import fi.jasoft.feedreader.data.FeedSummary;
+import fi.jasoft.feedreader.data.RenderedEntry;
 
 /**
  * A service for managing feeds
@@ -49,6 +58,142 @@ public interface FeedService {
 	 */
 	List<Feed> getFeeds();
 	
+	/**
+	 * Return the number of feeds managed by the feed service.
+	 */
+	int countFeeds();
+	
+	/**
+	 * Return a page of feed summaries ordered by the order the feeds were added. 
+	 * The entries of the feeds are not loaded.
+	 * 
+	 * @param offset
+	 * 		The index of the first feed to return
+	 * @param limit
+	 * 		The maximum number of feeds to return
+	 */
+	List<FeedSummary> getFeedSummaries(int offset, int limit);
+	
+	/**
+	 * Return a feed without loading its entries.
+	 * 
+	 * @param id
+	 * 		The id of the feed
+	 * @return
+	 * 		The feed or <code>null</code> if it no longer exists
+	 */
+	Feed getFeed(long id);
+	
+	/**
+	 * Return a page of entries of a feed, newest first. Only the title and publish date 
+	 * of the entries are loaded, use {@link #getEntry(long)} to load the content.
+	 * 
+	 * @param feed
+	 * 		The feed to list the entries of
+	 * @param after
+	 * 		The last entry of the previous page, or <code>null</code> for the first page
+	 * @param limit
+	 * 		The maximum number of entries to return
+	 */
+	List<EntrySummary> getEntries(Feed feed, EntrySummary after, int limit);
+	
+	/**
+	 * Return a page of the entries of all feeds, newest first
+	 * 
+	 * @param after
+	 * 		The last entry of the previous page, or <code>null</code> for the first page
+	 * @param limit
+	 * 		The maximum number of entries to return
+	 */
+	List<EntrySummary> getTimeline(EntrySummary after, int limit);
+	
+	/**
+	 * Return the number of entries in all feeds
+	 */
+	int countTimeline();
+	
+	/**
+	 * Return the number of entries in a feed
+	 * 
+	 * @param feed
+	 * 		The feed to count the entries of
+	 */
+	int countEntries(Feed feed);
+	
+	/**
+	 * Return an entry with its content.
+	 * 
+	 * @param id
+	 * 		The id of the entry
+	 * @return
+	 * 		The entry or <code>null</code> if it no longer exists
+	 */
+	FeedEntry getEntry(long id);
+	
+	/**
+	 * Return an entry with the sanitized HTML of its body, ready to be shown
+	 * 
+	 * @param id
+	 * 		The id of the entry
+	 * @return
+	 * 		The entry or <code>null</code> if it no longer exists
+	 */
+	RenderedEntry getRenderedEntry(long id);
+	
+	/**
+	 * Search the titles and bodies of all entries.
+	 * 
+	 * @param query
+	 * 		The words to search for. Entries have to contain all of them, the last 
+	 * 		word also matches as the beginning of a word.
+	 * @param limit
+	 * 		The maximum number of entries to return
+	 * @return
+	 * 		The matching entries, best match first
+	 */
+	List<EntrySummary> search(String query, int limit);
+	
+	/**
+	 * Star or unstar an entry. Starred entries can be kept when old entries are purged.
+	 * 
+	 * @param id
+	 * 		The id of the entry
+	 * @param starred
+	 * 		Is the entry starred
+	 */
+	void setStarred(long id, boolean starred);
+	
+	/**
+	 * Mark an entry read or unread
+	 * 
+	 * @param id
+	 * 		The id of the entry
+	 * @param read
+	 * 		Is the entry read
+	 */
+	void setRead(long id, boolean read);
+	
+	/**
+	 * Mark all entries of a feed read
+	 * 
+	 * @param feedId
+	 * 		The id of the feed
+	 */
+	void markAllRead(long feedId);
+	
+	/**
+	 * Delete the entries exceeding the retention limits of their feeds and compact the database
+	 * 
+	 * @return
+	 * 		The number of deleted entries and the space reclaimed
+	 */
+	PurgeResult purge();
+	
+	/**
+	 * Return how well the stored entry bodies compress
+	 */
+	CompressionStatistics getCompressionStatistics();
+	
 	/**
 	 * Save a changed feed with the service. This should be 
 	 * only be used to save changes to feeds, use {@link FeedService#add(Feed)}
@@ -60,10 +205,88 @@ public interface FeedService {
 	void save(Feed feed);
 	
 	/**
-	 * Synchronize the feed entries with the online version of the RSS/ATOM feed.
+	 * Save the retention limits of a feed, {@link Feed#getMaxEntries()}, {@link Feed#getMaxAge()} 
+	 * and {@link Feed#getKeepStarred()}. Nothing else is written, so the limits can be saved 
+	 * from a feed loaded before the feed was last synchronized.
+	 * 
+	 * @param feed
+	 * 		The feed with the changed limits
+	 */
+	void saveRetention(Feed feed);
+	
+	/**
+	 * Synchronize the feed entries with the online version of the RSS/ATOM feed. If the 
+	 * feed is already being synchronized, waits for that synchronization instead.
 	 * 
 	 * @param feed
 	 * 		The feed to syncronize
 	 */
 	void syncronize(Feed feed);
+	
+	/**
+	 * Synchronize the feed in the background. Concurrent requests for the same feed share 
+	 * one synchronization, and a feed synchronized within the last few seconds is not 
+	 * synchronized again, the request receives the result of the previous synchronization.
+	 * 
+	 * @param feed
+	 * 		The feed to syncronize
+	 * @return
+	 * 		A future completing with the outcome of the synchronization. Failures are reported 
+	 * 		in the {@link SyncResult}, the future itself does not complete exceptionally.
+	 */
+	CompletableFuture<SyncResult> syncronizeAsync(Feed feed);
+	
+	/**
+	 * Synchronize many feeds in the background with bounded parallelism.
+	 * 
+	 * @param feeds
+	 * 		The feeds to syncronize
+	 * @return
+	 * 		A future completing with the outcome of every feed once all of them have been 
+	 * 		synchronized, in the same order as the given feeds.
+	 */
+	CompletableFuture<List<SyncResult>> syncronizeAll(Collection<Feed> feeds);
+	
+	/**
+	 * Subscribe to the feeds of an OPML document. Feeds already subscribed to and urls which are 
+	 * not valid feed urls are skipped. The new feeds are stored before the method returns, their 
+	 * initial synchronizations continue in the background.
+	 * 
+	 * @param opml
+	 * 		The OPML document to import. Not closed.
+	 * @param listener
+	 * 		Notified from a background thread every time an initial synchronization 
+	 * 		completes, or <code>null</code>
+	 * @return
+	 * 		The outcome of the import and the progress of the initial synchronizations
+	 * @throws IOException
+	 * 		If the document could not be read
+	 */
+	OpmlImport importOpml(InputStream opml, Consumer<OpmlImport> listener) throws IOException;
+	
+	/**
+	 * Write all feeds as an OPML document
+	 * 
+	 * @param out
+	 * 		The stream to write the document to. Not closed.
+	 * @throws IOException
+	 * 		If writing to the stream failed
+	 */
+	void exportOpml(OutputStream out) throws IOException;
+	
+	/**
+	 * Add a listener notified after changes to feeds have been committed
+	 * 
+	 * @param listener
+	 * 		The listener to add
+	 */
+	void addFeedChangeListener(FeedChangeListener listener);
+	
+	/**
+	 * Remove a listener added with {@link #addFeedChangeListener(FeedChangeListener)}
+	 * 
+	 * @param listener
+	 * 		The listener to remove
+	 */
+	void removeFeedChangeListener(FeedChangeListener listener);
 }
@@ -15,49 +15,132 @@
  */
 package fi.jasoft.feedreader.service;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 
-import com.sun.syndication.feed.synd.SyndContent;
-import com.sun.syndication.feed.synd.SyndEntry;
-import com.sun.syndication.feed.synd.SyndFeed;
 import com.sun.syndication.io.FeedException;
-import com.sun.syndication.io.SyndFeedInput;
-import com.sun.syndication.io.XmlReader;
 
+import fi.jasoft.feedreader.data.EntrySummary;
 import fi.jasoft.feedreader.data.Feed;
 import fi.jasoft.feedreader.data.FeedEntry;
+import fi.jasoft.feedreader.data.FeedSummary;
+import fi.jasoft.feedreader.data.RenderedEntry;
 
 /**
  * Implementation of {@link FeedService} which stores the feeds using 
  * EclipseLink into a HSQLDB database.
+ * <p>
+ * Synchronizations of the same feed are coalesced by a {@link SyncGate}, so concurrent 
+ * requests do not race each other to merge the same feed.
  * 
  * @author John Ahlroos / https://devsoap.com
  */
 public class FeedServiceImpl implements FeedService{
 	
-	private static final String PERSISTANCE_UNIT = "feedReader";
+	private static final Logger LOGGER = Logger.getLogger(FeedServiceImpl.class.getName());
+	
+	/*
+	 * How many of the newest stored entry keys are checked while parsing
+	 */
+	private static final int RECENT_KEYS = 200;
+	
+	/*
+	 * Parsing stops after this many consecutive already stored entries
+	 */
+	private static final int KNOWN_RUN = Integer.getInteger("feedreader.sync.knownRun", 3);
+	
+	/*
+	 * How many imported feeds are inserted in one transaction
+	 */
+	private static final int IMPORT_BATCH = Integer.getInteger("feedreader.import.batch", 500);
+	
+	/*
+	 * How many initial synchronizations of imported feeds are queued at the same time
+	 */
+	private static final int IMPORT_CONCURRENCY = Integer.getInteger("feedreader.import.concurrency", 4);
+	
+	/*
+	 * How many feeds are read from the database at a time while exporting
+	 */
+	private static final int EXPORT_PAGE = 500;
+	
+	private final SyncExecutor executor;
+	
+	private final FeedFetcher fetcher = new FeedFetcher();
+	
+	private final FeedParser parser = new StreamingFeedParser();
+	
+	private final SearchIndex index;
+	
+	private final SyncMetrics metrics = SyncMetrics.getDefault();
+	
+	private final SyncGate gate = new SyncGate(metrics);
+	
+	private final RetentionPolicy retention = new RetentionPolicy();
+	
+	private final List<FeedChangeListener> listeners = new CopyOnWriteArrayList<>();
+	
+	private volatile SyncGuard guard;
 
+	/**
+	 * Creates a feed service which runs asynchronous synchronizations 
+	 * on the shared {@link SyncExecutor}
+	 */
 	public FeedServiceImpl() {
-
-		// Populate with one feed in the beginning for demo purposes
-		if(getFeeds().isEmpty()) {
-			Feed feed = new Feed();
-			feed.setUrl("http://feeds.feedburner.com/LinuxJournal-BreakingNews");
-			add(feed);
-			syncronize(feed);
-		}
+		this(SyncExecutor.getDefault());
+	}
+	
+	/**
+	 * Creates a feed service 
+	 * 
+	 * @param executor
+	 * 		The executor used for asynchronous synchronizations
+	 */
+	public FeedServiceImpl(SyncExecutor executor) {
+		this(executor, SearchIndex.getDefault());
+	}
+	
+	/**
+	 * Creates a feed service 
+	 * 
+	 * @param executor
+	 * 		The executor used for asynchronous synchronizations
+	 * @param index
+	 * 		The index synchronized entries are added to, or <code>null</code> if another 
+	 * 		process indexes the entries
+	 */
+	public FeedServiceImpl(SyncExecutor executor, SearchIndex index) {
+		this.executor = executor;
+		this.index = index;
 	}
 
 	/**
@@ -65,16 +148,15 @@ public class FeedServiceImpl implements FeedService{
 	 */
 	@Override
 	public void add(Feed feed) {
-		EntityManagerFactory emf = Persistence.createEntityManagerFactory(PERSISTANCE_UNIT);
-        EntityManager em = emf.createEntityManager();
+        EntityManager em = FeedPersistence.createEntityManager();
 		try{
 	        em.getTransaction().begin();
 	        em.persist(feed);
 	        em.getTransaction().commit();
 		} finally {
 	        em.close();
-	        emf.close();
 		}
+		fireFeedChanged(feed.getId());
 	}
 
 	/**
@@ -82,16 +164,22 @@ public class FeedServiceImpl implements FeedService{
 	 */
 	@Override
 	public void remove(Feed feed) {
-		EntityManagerFactory emf = Persistence.createEntityManagerFactory(PERSISTANCE_UNIT);
-        EntityManager em = emf.createEntityManager();
+        EntityManager em = FeedPersistence.createEntityManager();
 		try{
 			em.getTransaction().begin();
+			em.createQuery("DELETE FROM FeedEntry e WHERE e.feed.id = :feed")
+				.setParameter("feed", feed.getId())
+				.executeUpdate();
 			em.remove(em.find(Feed.class, feed.getId()));
 			em.getTransaction().commit();
+			gate.forget(feed.getId());
+			if(index != null){
+				index.removeFeed(feed.getId());
+			}
 		} finally{
 			em.close();
-			emf.close();
 		}
+		fireFeedChanged(feed.getId());
 	}
 
 	/**
@@ -99,16 +187,48 @@ public class FeedServiceImpl implements FeedService{
 	 */
 	@Override
 	public void save(Feed feed) {
-		EntityManagerFactory emf = Persistence.createEntityManagerFactory(PERSISTANCE_UNIT);
-        EntityManager em = emf.createEntityManager();    
+		long start = System.nanoTime();
+        EntityManager em = FeedPersistence.createEntityManager();    
         
         try{
         	save(feed, em);
         } finally{
-        	em.flush();
         	em.close();
-        	emf.close();
+        	metrics.database("save", start);
         }
+        fireFeedChanged(feed.getId());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void saveRetention(Feed feed) {
+		long start = System.nanoTime();
+		int updated;
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			em.getTransaction().begin();
+			// Not versioned, synchronizations and purges never write the limits
+			updated = em.createQuery("UPDATE Feed f SET f.maxEntries = :maxEntries, f.maxAge = :maxAge, "
+					+ "f.keepStarred = :keepStarred WHERE f.id = :id")
+				.setParameter("maxEntries", feed.getMaxEntries())
+				.setParameter("maxAge", feed.getMaxAge())
+				.setParameter("keepStarred", feed.getKeepStarred())
+				.setParameter("id", feed.getId())
+				.executeUpdate();
+			em.getTransaction().commit();
+			em.getEntityManagerFactory().getCache().evict(Feed.class, feed.getId());
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+			metrics.database("saveRetention", start);
+		}
+		if(updated > 0){
+			fireFeedChanged(feed.getId());
+		}
 	}
 	
 	/**
@@ -120,9 +240,12 @@ public class FeedServiceImpl implements FeedService{
 	 */
 	private void save(Feed feed, EntityManager em){ 
     	em.getTransaction().begin();
-        em.merge(feed);
+        Feed merged = em.merge(feed);
         em.flush();
         em.getTransaction().commit();
+        
+        // Keep the detached instance usable for further saves
+        feed.setVersion(merged.getVersion());
 	}
 
 	/**
@@ -130,17 +253,281 @@ public class FeedServiceImpl implements FeedService{
 	 */
 	@Override
 	public List<Feed> getFeeds() {
-		EntityManagerFactory emf = Persistence.createEntityManagerFactory(PERSISTANCE_UNIT);
-        EntityManager em = emf.createEntityManager();
-       
-        TypedQuery<Feed> resultQuery = em.createQuery("SELECT f FROM Feed f", Feed.class);
-        List<Feed> feeds = resultQuery.getResultList();
-        if (feeds == null) {
-            feeds = Collections.emptyList();
+		long start = System.nanoTime();
+        EntityManager em = FeedPersistence.createEntityManager();
+        try{
+	        TypedQuery<Feed> resultQuery = em.createQuery("SELECT f FROM Feed f", Feed.class);
+	        List<Feed> feeds = resultQuery.getResultList();
+	        if (feeds == null) {
+	            feeds = Collections.emptyList();
+	        }
+	        return feeds;
+        } finally {
+        	em.close();
+        	metrics.database("getFeeds", start);
         }
-        em.close();
-        emf.close();
-        return feeds;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int countFeeds() {
+		long start = System.nanoTime();
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			return em.createQuery("SELECT COUNT(f) FROM Feed f", Long.class)
+					.getSingleResult()
+					.intValue();
+		} finally {
+			em.close();
+			metrics.database("countFeeds", start);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<FeedSummary> getFeedSummaries(int offset, int limit) {
+		long start = System.nanoTime();
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			return em.createQuery("SELECT NEW fi.jasoft.feedreader.data.FeedSummary("
+					+ "f.id, f.url, f.title, f.entryCount, f.lastUpdated, f.unreadCount) "
+					+ "FROM Feed f ORDER BY f.id", FeedSummary.class)
+					.setFirstResult(offset)
+					.setMaxResults(limit)
+					.getResultList();
+		} finally {
+			em.close();
+			metrics.database("getFeedSummaries", start);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Feed getFeed(long id) {
+		long start = System.nanoTime();
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			return em.find(Feed.class, id);
+		} finally {
+			em.close();
+			metrics.database("getFeed", start);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<EntrySummary> getEntries(Feed feed, EntrySummary after, int limit) {
+		long start = System.nanoTime();
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			TypedQuery<EntrySummary> query;
+			if(after == null){
+				query = em.createQuery("SELECT NEW fi.jasoft.feedreader.data.EntrySummary(e.id, e.title, e.published) "
+						+ "FROM FeedEntry e WHERE e.feed.id = :feed "
+						+ "ORDER BY e.published DESC, e.id DESC", EntrySummary.class);
+			} else {
+				// Keyset paging, continues from the last row of the previous page
+				query = em.createQuery("SELECT NEW fi.jasoft.feedreader.data.EntrySummary(e.id, e.title, e.published) "
+						+ "FROM FeedEntry e WHERE e.feed.id = :feed "
+						+ "AND (e.published < :published OR (e.published = :published AND e.id < :id)) "
+						+ "ORDER BY e.published DESC, e.id DESC", EntrySummary.class)
+						.setParameter("published", after.getPublished())
+						.setParameter("id", after.getId());
+			}
+			return query.setParameter("feed", feed.getId())
+					.setMaxResults(limit)
+					.getResultList();
+		} finally {
+			em.close();
+			metrics.database("getEntries", start);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<EntrySummary> getTimeline(EntrySummary after, int limit) {
+		long start = System.nanoTime();
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			// The database merges the feeds, reading the (published, id) index from the cursor on
+			TypedQuery<EntrySummary> query;
+			if(after == null){
+				query = em.createQuery("SELECT NEW fi.jasoft.feedreader.data.EntrySummary(e.id, e.title, e.published) "
+						+ "FROM FeedEntry e ORDER BY e.published DESC, e.id DESC", EntrySummary.class);
+			} else {
+				query = em.createQuery("SELECT NEW fi.jasoft.feedreader.data.EntrySummary(e.id, e.title, e.published) "
+						+ "FROM FeedEntry e "
+						+ "WHERE e.published < :published OR (e.published = :published AND e.id < :id) "
+						+ "ORDER BY e.published DESC, e.id DESC", EntrySummary.class)
+						.setParameter("published", after.getPublished())
+						.setParameter("id", after.getId());
+			}
+			return query.setMaxResults(limit).getResultList();
+		} finally {
+			em.close();
+			metrics.database("getTimeline", start);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int countTimeline() {
+		long start = System.nanoTime();
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			Number count = em.createQuery("SELECT SUM(f.entryCount) FROM Feed f", Number.class)
+					.getSingleResult();
+			return count == null ? 0 : count.intValue();
+		} finally {
+			em.close();
+			metrics.database("countTimeline", start);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int countEntries(Feed feed) {
+		long start = System.nanoTime();
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			return em.createQuery("SELECT COUNT(e) FROM FeedEntry e WHERE e.feed.id = :feed", Long.class)
+					.setParameter("feed", feed.getId())
+					.getSingleResult()
+					.intValue();
+		} finally {
+			em.close();
+			metrics.database("countEntries", start);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FeedEntry getEntry(long id) {
+		long start = System.nanoTime();
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			return em.find(FeedEntry.class, id);
+		} finally {
+			em.close();
+			metrics.database("getEntry", start);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RenderedEntry getRenderedEntry(long id) {
+		FeedEntry entry = getEntry(id);
+		return entry == null ? null : EntryRenderer.toRendered(entry, entry.getFeed().getId());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<EntrySummary> search(String query, int limit) {
+		return index == null ? Collections.emptyList() : index.search(query, limit);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setStarred(long id, boolean starred) {
+		long feedId;
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			em.getTransaction().begin();
+			FeedEntry entry = em.find(FeedEntry.class, id);
+			if(entry == null){
+				em.getTransaction().rollback();
+				return;
+			}
+			entry.setStarred(starred);
+			feedId = entry.getFeed().getId();
+			em.getTransaction().commit();
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+		fireFeedChanged(feedId);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setRead(long id, boolean read) {
+		List<Object[]> rows;
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			// Only the numbering, loading the entry would load its content
+			rows = em.createQuery("SELECT e.feed.id, e.ordinal FROM FeedEntry e WHERE e.id = :id", Object[].class)
+					.setParameter("id", id)
+					.getResultList();
+		} finally {
+			em.close();
+		}
+		if(rows.isEmpty() || rows.get(0)[1] == null){
+			// Entries stored before entries were numbered are numbered in the background
+			return;
+		}
+		long feedId = (Long) rows.get(0)[0];
+		if(ReadStates.setRead(feedId, (Integer) rows.get(0)[1], read)){
+			fireReadStateChanged(feedId);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void markAllRead(long feedId) {
+		if(ReadStates.markAllRead(feedId) > 0){
+			fireReadStateChanged(feedId);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PurgeResult purge() {
+		PurgeResult result = new RetentionPurge(retention, index, this::fireFeedChanged).purge();
+		metrics.purged(result);
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompressionStatistics getCompressionStatistics() {
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			return CompressionStatistics.of(em);
+		} finally {
+			em.close();
+		}
 	}
 
 	/**
@@ -148,54 +535,693 @@ public class FeedServiceImpl implements FeedService{
 	 */
 	@Override
 	public void syncronize(Feed feed) {
-		EntityManagerFactory emf = Persistence.createEntityManagerFactory(PERSISTANCE_UNIT);
-        EntityManager em = emf.createEntityManager();
+		SyncResult result = gate.sync(feed, f -> CompletableFuture.completedFuture(sync(f))).join();
+		if(result.isFailed()){
+			LOGGER.log(Level.WARNING, "Failed to syncronize " + feed.getUrl(), result.getError());
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<SyncResult> syncronizeAsync(Feed feed) {
+		return gate.sync(feed, f -> executor.submit(f.getUrl(), () -> sync(f)));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<List<SyncResult>> syncronizeAll(Collection<Feed> feeds) {
+		List<CompletableFuture<SyncResult>> futures = feeds.stream()
+				.map(this::syncronizeAsync)
+				.collect(Collectors.toList());
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(done -> futures.stream()
+						.map(CompletableFuture::join)
+						.collect(Collectors.toList()));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public OpmlImport importOpml(InputStream opml, Consumer<OpmlImport> listener) throws IOException {
+		Set<String> urls = new LinkedHashSet<>();
+		List<String> invalid = new ArrayList<>();
+		int duplicates = 0;
+		for(String url : Opml.readFeedUrls(opml)){
+			if(!Opml.isValid(url)){
+				invalid.add(url);
+			} else if(!urls.add(url)){
+				duplicates++;
+			}
+		}
+		
+		long start = System.nanoTime();
+		List<Feed> added = new ArrayList<>(urls.size());
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			List<String> candidates = new ArrayList<>(urls);
+			for(int from = 0; from < candidates.size(); from += IMPORT_BATCH){
+				List<String> batch = candidates.subList(from, Math.min(from + IMPORT_BATCH, candidates.size()));
+				added.addAll(insertFeeds(batch, em));
+			}
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+			metrics.database("importOpml", start);
+		}
+		duplicates += urls.size() - added.size();
+		LOGGER.info("Imported " + added.size() + " feeds, skipped " + duplicates + " duplicates and " 
+				+ invalid.size() + " invalid urls");
+		
+		for(Feed feed : added){
+			fireFeedChanged(feed.getId());
+		}
+		
+		OpmlImport result = new OpmlImport(added, duplicates, invalid, listener);
+		result.start(this::syncronizeAsync, IMPORT_CONCURRENCY);
+		return result;
+	}
+	
+	/**
+	 * Insert the feeds not yet subscribed to in one transaction. The inserts are sent 
+	 * to the database in JDBC batches.
+	 * 
+	 * @param urls
+	 * 		The distinct urls of the feeds to insert
+	 * @param em
+	 * 		The entitymanager to use
+	 * @return
+	 * 		The inserted feeds
+	 */
+	private List<Feed> insertFeeds(List<String> urls, EntityManager em) {
+		Set<String> existing = new HashSet<>(em.createQuery(
+				"SELECT f.url FROM Feed f WHERE f.url IN :urls", String.class)
+				.setParameter("urls", urls)
+				.getResultList());
+		List<String> missing = urls.stream()
+				.filter(url -> !existing.contains(url))
+				.collect(Collectors.toList());
+		if(missing.isEmpty()){
+			return Collections.emptyList();
+		}
+		
+		try{
+			List<Feed> feeds = new ArrayList<>(missing.size());
+			em.getTransaction().begin();
+			for(String url : missing){
+				Feed feed = newFeed(url);
+				em.persist(feed);
+				feeds.add(feed);
+			}
+			em.getTransaction().commit();
+			return feeds;
+		} catch(PersistenceException e){
+			// Someone else subscribed to one of the feeds meanwhile, find out which one by one
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.clear();
+			List<Feed> feeds = new ArrayList<>(missing.size());
+			for(String url : missing){
+				Feed feed = newFeed(url);
+				try{
+					em.getTransaction().begin();
+					em.persist(feed);
+					em.getTransaction().commit();
+					feeds.add(feed);
+				} catch(PersistenceException duplicate){
+					if(em.getTransaction().isActive()){
+						em.getTransaction().rollback();
+					}
+				}
+			}
+			return feeds;
+		} finally {
+			em.clear();
+		}
+	}
+	
+	private static Feed newFeed(String url) {
+		Feed feed = new Feed();
+		feed.setUrl(url);
+		return feed;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void exportOpml(OutputStream out) throws IOException {
+		Opml.write(new FeedSummaryIterator(), out);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addFeedChangeListener(FeedChangeListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeFeedChangeListener(FeedChangeListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Set the guard consulted before a synchronization stores new or changed entries. 
+	 * Synchronizations which find no changes only update the validators of the feed and 
+	 * are not guarded.
+	 * 
+	 * @param guard
+	 * 		The guard or <code>null</code> to store every synchronization
+	 */
+	public void setSyncGuard(SyncGuard guard) {
+		this.guard = guard;
+	}
+	
+	/**
+	 * Pick up the feeds synchronized by other processes sharing the database, such as sync 
+	 * workers. The feeds updated since the given time are evicted from the shared cache, their 
+	 * new entries are indexed and the listeners are notified of them.
+	 * 
+	 * @param since
+	 * 		The time to look for updated feeds from
+	 * @return
+	 * 		The number of updated feeds
+	 */
+	public int refreshChanged(Date since) {
+		List<Long> changed;
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			changed = em.createQuery("SELECT f.id FROM Feed f WHERE f.lastUpdated >= :since", Long.class)
+					.setParameter("since", since)
+					.getResultList();
+			for(Long feedId : changed){
+				em.getEntityManagerFactory().getCache().evict(Feed.class, feedId);
+				if(index != null){
+					index.addMissing(feedId, em);
+				}
+			}
+		} finally {
+			em.close();
+		}
+		changed.forEach(this::fireFeedChanged);
+		return changed.size();
+	}
+	
+	private void fireFeedChanged(long feedId) {
+		for(FeedChangeListener listener : listeners){
+			try{
+				listener.feedChanged(feedId);
+			} catch(RuntimeException e){
+				LOGGER.log(Level.WARNING, "Feed change listener failed", e);
+			}
+		}
+	}
+	
+	private void fireReadStateChanged(long feedId) {
+		for(FeedChangeListener listener : listeners){
+			try{
+				listener.readStateChanged(feedId);
+			} catch(RuntimeException e){
+				LOGGER.log(Level.WARNING, "Feed change listener failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Synchronizes a feed on the calling thread.
+	 * 
+	 * @param feed
+	 * 		The feed to syncronize
+	 * @return
+	 * 		The outcome of the synchronization. Never throws, failures are reported in the result.
+	 */
+	private SyncResult sync(Feed feed) {
+		long start = System.nanoTime();
+		SyncResult result = fetchAndStore(feed);
+		metrics.completed(result, start);
+		return result;
+	}
+	
+	private SyncResult fetchAndStore(Feed feed) {
+		long start = System.currentTimeMillis();
+        EntityManager em = FeedPersistence.createEntityManager();
 		
 		try {
-			URL feedSource = new URL(feed.getUrl());
-			SyndFeedInput input = new SyndFeedInput();
-		    SyndFeed f = input.build(new XmlReader(feedSource));
-	        for (SyndEntry e : (List<SyndEntry>) f.getEntries()) {
-	        	
-	        	FeedEntry feedEntry = null;
-	        	
-	        	 // Check if entry exists, if it does then we reuse it
-	        	 for(FeedEntry fe : feed.getEntries()){
-	        		 if(fe.getUrl() == e.getUri()){
-	        			 feedEntry = fe;
-	        			 break;
-	        		 }
-	        	 }
-	        	 
-	        	 // No feed found, create a new one
-	        	 if(feedEntry == null){
-	        		 feedEntry = new FeedEntry();
-	        		 feed.getEntries().add(feedEntry);
-	        	 }
-	        	
-	        	 feedEntry.setTitle(e.getTitle());
-	        	 
-	        	 if (e.getDescription() != null) {
-	        		 feedEntry.setContent(e.getDescription().getValue());
-	             } else {
-	                 String content = "";
-	                 for (SyndContent c : (List<SyndContent>) e.getContents()) {
-	                     content += c.getValue();
-	                 }
-	                 feedEntry.setContent(content);
-	             }
-	        }
-	        save(feed, em);
-	        
-		} catch (MalformedURLException | IllegalArgumentException e) {
-			e.printStackTrace();
-		} catch (FeedException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+			long phase = System.nanoTime();
+			FetchResult fetched = fetcher.fetch(feed);
+			metrics.fetched(phase, fetched);
+			if(fetched.getMovedTo() != null){
+				move(feed, fetched.getMovedTo(), em);
+			}
+			if(fetched.isNotModified() || Objects.equals(fetched.getContentHash(), feed.getContentHash())){
+				updateValidators(feed, fetched, em);
+				return SyncResult.unchanged(feed, 0, fetched.getExpires(), System.currentTimeMillis() - start);
+			}
+			
+			phase = System.nanoTime();
+			Incoming incoming = parse(fetched, findRecentKeys(feed, em));
+			metrics.parsed(phase);
+			
+			phase = System.nanoTime();
+			try{
+				Changes changes = match(feed, incoming, em);
+				if(changes.isEmpty()){
+					updateValidators(feed, fetched, em);
+					return SyncResult.unchanged(feed, changes.unchanged, fetched.getExpires(), 
+							System.currentTimeMillis() - start);
+				}
+				
+				persist(feed, fetched, incoming, changes, em);
+				return SyncResult.updated(feed, changes.added.size(), changes.changed.size(), changes.unchanged, 
+						fetched.getExpires(), System.currentTimeMillis() - start);
+			} finally {
+				metrics.persisted(phase);
+			}
+			
+		} catch (IOException | FeedException | RuntimeException e) {
+			return SyncResult.failed(feed, e, System.currentTimeMillis() - start);
 		} finally{
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
 			em.close();
-			emf.close();
+		}
+	}
+	
+	/**
+	 * Parse a fetched feed document. Parsing stops early once a run of recently stored 
+	 * entries has been read, feeds list their newest entries first so the rest of the 
+	 * document is already stored.
+	 * 
+	 * @param fetched
+	 * 		The fetched document
+	 * @param recent
+	 * 		The keys of the newest stored entries of the feed
+	 * @return
+	 * 		The parsed entries keyed by their identity. If a feed repeats an entry the first one wins.
+	 */
+	Incoming parse(FetchResult fetched, Set<String> recent) throws IOException, FeedException {
+		return parse(parser, fetched, recent);
+	}
+	
+	/**
+	 * Parse a fetched feed document with a specific parser
+	 * 
+	 * @see #parse(FetchResult, Set)
+	 */
+	static Incoming parse(FeedParser parser, FetchResult fetched, Set<String> recent) 
+			throws IOException, FeedException {
+		Map<String, ParsedEntry> entries = new LinkedHashMap<>();
+		int[] knownRun = new int[1];
+		ParsedFeed parsed = parser.parse(new ByteArrayInputStream(fetched.getBody()), 
+				fetched.getContentType(), e -> {
+			String key = EntryKeys.identity(e.getUri(), e.getLink(), e.getTitle());
+			if(key != null){
+				entries.putIfAbsent(key, e);
+				knownRun[0] = recent.contains(key) ? knownRun[0] + 1 : 0;
+			}
+			return knownRun[0] < KNOWN_RUN;
+		});
+		return new Incoming(parsed, entries);
+	}
+	
+	/**
+	 * Match parsed entries against the stored entries of a feed. Only the incoming keys 
+	 * are looked up, indexed on (feed, entry key). New entries the retention policy of 
+	 * the feed would purge are skipped.
+	 * 
+	 * @param feed
+	 * 		The feed the entries belong to
+	 * @param incoming
+	 * 		The parsed entries
+	 * @param em
+	 * 		The entity manager to look up the stored entries with
+	 * @return
+	 * 		The new and changed entries
+	 */
+	Changes match(Feed feed, Incoming incoming, EntityManager em) {
+		Map<String, KnownEntry> known = findKnownEntries(feed, incoming.entries.keySet(), em);
+		Date floor = retention.isLimited(feed) ? retention.floor(feed, em) : null;
+		
+		Changes changes = new Changes();
+		for (Map.Entry<String, ParsedEntry> e : incoming.entries.entrySet()) {
+			KnownEntry existing = known.get(e.getKey());
+			if(existing == null){
+				Date published = publishedOf(e.getValue(), null);
+				if(floor != null && published != null && published.before(floor)){
+					// Purged before, or would be purged right away
+					continue;
+				}
+				changes.added.put(e.getKey(), e.getValue());
+			} else if(existing.fingerprint.equals(fingerprintOf(e.getValue()))){
+				changes.unchanged++;
+			} else {
+				changes.changed.put(existing.id, e.getValue());
+			}
+		}
+		return changes;
+	}
+	
+	/**
+	 * Store the new and changed entries of a feed and the feed itself in one transaction, 
+	 * and copy the stored state of the feed back to the given instance.
+	 * 
+	 * @param feed
+	 * 		The synchronized feed
+	 * @param fetched
+	 * 		The fetched document
+	 * @param incoming
+	 * 		The parsed document
+	 * @param changes
+	 * 		The entries to store
+	 * @param em
+	 * 		The entity manager to store the entries with
+	 */
+	void persist(Feed feed, FetchResult fetched, Incoming incoming, Changes changes, EntityManager em) {
+        em.getTransaction().begin();
+        Feed managed = em.find(Feed.class, feed.getId());
+        if(managed == null){
+        	throw new IllegalStateException("Feed " + feed.getUrl() + " has been removed");
+        }
+        SyncGuard guard = this.guard;
+        if(guard != null && !guard.permits(feed, em)){
+        	throw new IllegalStateException("Not permitted to store " + feed.getUrl());
+        }
+        
+        Date now = new Date();
+        List<FeedEntry> stored = new ArrayList<>(changes.added.size() + changes.changed.size());
+        // Documents list the newest entries first, number the oldest new entry first
+        int ordinal = changes.added.isEmpty() ? 0 
+        		: ReadStates.reserve(feed.getId(), changes.added.size(), em) + changes.added.size();
+        for (Map.Entry<String, ParsedEntry> e : changes.added.entrySet()) {
+        	FeedEntry feedEntry = new FeedEntry();
+        	feedEntry.setFeed(managed);
+        	feedEntry.setOrdinal(--ordinal);
+        	feedEntry.setEntryKey(e.getKey());
+        	feedEntry.setPublished(publishedOf(e.getValue(), now));
+        	copy(e.getValue(), feedEntry);
+        	em.persist(feedEntry);
+        	stored.add(feedEntry);
+        }
+        for (Map.Entry<Long, ParsedEntry> e : changes.changed.entrySet()) {
+        	FeedEntry feedEntry = em.find(FeedEntry.class, e.getKey());
+        	copy(e.getValue(), feedEntry);
+        	stored.add(feedEntry);
+        }
+        
+        managed.setEntryCount(managed.getEntryCount() + changes.added.size());
+        managed.setLastUpdated(now);
+        applyDocument(managed, fetched, incoming);
+        em.getTransaction().commit();
+        if(index != null){
+        	stored.forEach(index::add);
+        }
+        
+        // The cached entry list of the feed no longer matches the table
+        em.getEntityManagerFactory().getCache().evict(Feed.class, feed.getId());
+        
+        feed.setTitle(managed.getTitle());
+        feed.setEntryCount(managed.getEntryCount());
+        feed.setLastUpdated(managed.getLastUpdated());
+        feed.setTtl(managed.getTtl());
+        feed.setSkipHours(managed.getSkipHours());
+        feed.setPostInterval(managed.getPostInterval());
+        feed.setEtag(managed.getEtag());
+        feed.setLastModified(managed.getLastModified());
+        feed.setContentHash(managed.getContentHash());
+        feed.setVersion(managed.getVersion());
+        
+        fireFeedChanged(feed.getId());
+	}
+	
+	/**
+	 * Copy the channel elements, the posting interval and the validators of a fetched 
+	 * document to a feed
+	 * 
+	 * @param feed
+	 * 		The feed to update
+	 * @param fetched
+	 * 		The fetched document
+	 * @param incoming
+	 * 		The parsed document
+	 */
+	static void applyDocument(Feed feed, FetchResult fetched, Incoming incoming) {
+        // A partially read document may not have reached the channel elements
+        ParsedFeed parsed = incoming.feed;
+        if(parsed.isComplete() || parsed.getTitle() != null){
+        	feed.setTitle(truncate(parsed.getTitle(), 256));
+        }
+        if(parsed.isComplete() || parsed.getTtl() > 0){
+        	feed.setTtl(parsed.getTtl());
+        }
+        if(parsed.isComplete() || parsed.getSkipHours() != null){
+        	feed.setSkipHours(parsed.getSkipHours());
+        }
+        feed.setPostInterval(PollingPolicy.estimatePostInterval(feed.getPostInterval(), 
+        		incoming.entries.values().stream().map(e -> publishedOf(e, null)).collect(Collectors.toList())));
+        feed.setEtag(fetched.getEtag());
+        feed.setLastModified(fetched.getLastModified());
+        feed.setContentHash(fetched.getContentHash());
+	}
+	
+	/**
+	 * Change the url of a permanently redirected feed. The url is kept if the new one is 
+	 * too long or another feed already has it.
+	 */
+	private void move(Feed feed, String url, EntityManager em) {
+		if(url.equals(feed.getUrl()) || url.length() > 256){
+			return;
+		}
+		long taken = em.createQuery("SELECT COUNT(f) FROM Feed f WHERE f.url = :url", Number.class)
+				.setParameter("url", url)
+				.getSingleResult().longValue();
+		if(taken > 0){
+			LOGGER.fine(feed.getUrl() + " has moved to the already subscribed " + url);
+			return;
+		}
+		
+		try{
+			em.getTransaction().begin();
+			em.createQuery("UPDATE Feed f SET f.url = :url, f.version = f.version + 1 WHERE f.id = :id")
+				.setParameter("url", url)
+				.setParameter("id", feed.getId())
+				.executeUpdate();
+			em.getTransaction().commit();
+		} catch(PersistenceException e){
+			// Subscribed to concurrently
+			LOGGER.log(Level.INFO, "Failed to move " + feed.getUrl() + " to " + url, e);
+			return;
+		}
+		em.getEntityManagerFactory().getCache().evict(Feed.class, feed.getId());
+		
+		LOGGER.info(feed.getUrl() + " has moved to " + url);
+		feed.setUrl(url);
+		feed.setVersion(feed.getVersion() + 1);
+		fireFeedChanged(feed.getId());
+	}
+	
+	/**
+	 * Stores new HTTP validators and the hash of a feed whose entries did not change. 
+	 * Does nothing if they are the same as before.
+	 */
+	private void updateValidators(Feed feed, FetchResult fetched, EntityManager em) {
+		String hash = fetched.isNotModified() ? feed.getContentHash() : fetched.getContentHash();
+		if(Objects.equals(feed.getEtag(), fetched.getEtag()) 
+				&& Objects.equals(feed.getLastModified(), fetched.getLastModified())
+				&& Objects.equals(feed.getContentHash(), hash)){
+			return;
+		}
+		
+		feed.setEtag(fetched.getEtag());
+		feed.setLastModified(fetched.getLastModified());
+		feed.setContentHash(hash);
+		
+		em.getTransaction().begin();
+		em.createQuery("UPDATE Feed f SET f.etag = :etag, f.lastModified = :lastModified, "
+				+ "f.contentHash = :hash WHERE f.id = :id")
+			.setParameter("etag", feed.getEtag())
+			.setParameter("lastModified", feed.getLastModified())
+			.setParameter("hash", feed.getContentHash())
+			.setParameter("id", feed.getId())
+			.executeUpdate();
+		em.getTransaction().commit();
+	}
+	
+	/**
+	 * Find the already stored entries of a feed matching the given keys. Only the key,
+	 * id and fingerprint of the entries are loaded.
+	 */
+	private static Map<String, KnownEntry> findKnownEntries(Feed feed, Collection<String> keys, 
+			EntityManager em) {
+		if(keys.isEmpty()){
+			return Collections.emptyMap();
+		}
+		
+		List<Object[]> rows = em.createQuery("SELECT e.entryKey, e.id, e.fingerprint FROM FeedEntry e "
+				+ "WHERE e.feed.id = :feed AND e.entryKey IN :keys", Object[].class)
+				.setParameter("feed", feed.getId())
+				.setParameter("keys", new ArrayList<>(keys))
+				.getResultList();
+		
+		Map<String, KnownEntry> known = new HashMap<>(rows.size() * 2);
+		for(Object[] row : rows){
+			known.put((String) row[0], new KnownEntry((Long) row[1], (String) row[2]));
+		}
+		return known;
+	}
+	
+	/**
+	 * Find the keys of the newest stored entries of a feed, read through the 
+	 * (feed, published) index
+	 */
+	static Set<String> findRecentKeys(Feed feed, EntityManager em) {
+		List<String> keys = em.createQuery("SELECT e.entryKey FROM FeedEntry e WHERE e.feed.id = :feed "
+				+ "ORDER BY e.published DESC, e.id DESC", String.class)
+				.setParameter("feed", feed.getId())
+				.setMaxResults(RECENT_KEYS)
+				.getResultList();
+		return new HashSet<>(keys);
+	}
+	
+	/**
+	 * Copy the title, content and link of a parsed entry to a feed entry and render its body
+	 */
+	static void copy(ParsedEntry e, FeedEntry feedEntry) {
+		feedEntry.setTitle(e.getTitle());
+		feedEntry.setContent(e.getContent());
+		feedEntry.setFingerprint(fingerprintOf(e));
+		if(e.getLink() != null && e.getLink().length() <= EntryKeys.MAX_KEY_LENGTH){
+			feedEntry.setUrl(e.getLink());
+		}
+		EntryRenderer.render(feedEntry);
+	}
+	
+	static String fingerprintOf(ParsedEntry e) {
+		return EntryKeys.fingerprint(e.getTitle(), e.getContent());
+	}
+	
+	/**
+	 * Get the publish date of an entry, falling back to the updated date and 
+	 * finally to the given default
+	 */
+	static Date publishedOf(ParsedEntry e, Date defaultDate) {
+		if(e.getPublished() != null){
+			return e.getPublished();
+		}
+		return e.getUpdated() != null ? e.getUpdated() : defaultDate;
+	}
+	
+	static String truncate(String value, int length) {
+		return value == null || value.length() <= length ? value : value.substring(0, length);
+	}
+	
+	/**
+	 * A parsed feed document
+	 */
+	static final class Incoming {
+		
+		final ParsedFeed feed;
+		
+		final Map<String, ParsedEntry> entries;
+		
+		Incoming(ParsedFeed feed, Map<String, ParsedEntry> entries) {
+			this.feed = feed;
+			this.entries = entries;
+		}
+	}
+	
+	/**
+	 * The entries of a parsed document that differ from the stored entries
+	 */
+	static final class Changes {
+		
+		final Map<String, ParsedEntry> added = new LinkedHashMap<>();
+		
+		final Map<Long, ParsedEntry> changed = new LinkedHashMap<>();
+		
+		int unchanged;
+		
+		boolean isEmpty() {
+			return added.isEmpty() && changed.isEmpty();
+		}
+	}
+	
+	/**
+	 * Iterates the summaries of all feeds a page at a time, without holding 
+	 * a connection between the pages
+	 */
+	private final class FeedSummaryIterator implements Iterator<FeedSummary> {
+		
+		private List<FeedSummary> page = Collections.emptyList();
+		
+		private int position;
+		
+		private long lastId = Long.MIN_VALUE;
+		
+		private boolean exhausted;
+		
+		@Override
+		public boolean hasNext() {
+			if(position < page.size()){
+				return true;
+			}
+			if(exhausted){
+				return false;
+			}
+			long start = System.nanoTime();
+			EntityManager em = FeedPersistence.createEntityManager();
+			try{
+				page = em.createQuery("SELECT NEW fi.jasoft.feedreader.data.FeedSummary("
+						+ "f.id, f.url, f.title, f.entryCount, f.lastUpdated, f.unreadCount) "
+						+ "FROM Feed f WHERE f.id > :last ORDER BY f.id", FeedSummary.class)
+						.setParameter("last", lastId)
+						.setMaxResults(EXPORT_PAGE)
+						.getResultList();
+			} finally {
+				em.close();
+				metrics.database("exportOpml", start);
+			}
+			position = 0;
+			exhausted = page.size() < EXPORT_PAGE;
+			if(!page.isEmpty()){
+				lastId = page.get(page.size() - 1).getId();
+			}
+			return !page.isEmpty();
+		}
+		
+		@Override
+		public FeedSummary next() {
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			return page.get(position++);
+		}
+	}
+	
+	/**
+	 * The identifying columns of an already stored entry
+	 */
+	private static final class KnownEntry {
+		
+		final long id;
+		
+		final String fingerprint;
+		
+		KnownEntry(long id, String fingerprint) {
+			this.id = id;
+			this.fingerprint = fingerprint;
 		}
 	}
 }
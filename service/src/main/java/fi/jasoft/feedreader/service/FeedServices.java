@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.File;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Creates the {@link FeedService} implementation selected with the 
+ * <code>feedreader.service</code> system property.
+ * <ul>
+ * <li><code>jpa</code> (default) stores feeds and entries in the database, see {@link FeedServiceImpl}</li>
+ * <li><code>log</code> stores them in append-only log files, see {@link LogFeedService}</li>
+ * </ul>
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public final class FeedServices {
+	
+	/**
+	 * The database backed implementation
+	 */
+	public static final String JPA = "jpa";
+	
+	/**
+	 * The log file backed implementation
+	 */
+	public static final String LOG = "log";
+	
+	private static final String DEMO_FEED = "http://feeds.feedburner.com/LinuxJournal-BreakingNews";
+	
+	private static final boolean DEMO = Boolean.parseBoolean(System.getProperty("feedreader.demo", "true"));
+	
+	private FeedServices() {
+		// Only static access
+	}
+	
+	/**
+	 * Get the configured implementation type
+	 */
+	public static String getType() {
+		return System.getProperty("feedreader.service", JPA);
+	}
+	
+	/**
+	 * Create the configured implementation using the shared executor and search index
+	 */
+	public static FeedService create() {
+		return create(getType(), SyncExecutor.getDefault(), SearchIndex.getDefault(), 
+				new File(LogFeedService.DIRECTORY));
+	}
+	
+	/**
+	 * Create a feed service
+	 * 
+	 * @param type
+	 * 		The implementation, {@link #JPA} or {@link #LOG}
+	 * @param executor
+	 * 		The executor used for asynchronous synchronizations
+	 * @param index
+	 * 		The index synchronized entries are added to
+	 * @param logDirectory
+	 * 		The directory of the log files, only used by {@link #LOG}
+	 * @throws IllegalArgumentException
+	 * 		If the type is not known
+	 */
+	public static FeedService create(String type, SyncExecutor executor, SearchIndex index, File logDirectory) {
+		switch (type) {
+		case JPA:
+			return new FeedServiceImpl(executor, index);
+		case LOG:
+			return new LogFeedService(executor, index, logDirectory);
+		default:
+			throw new IllegalArgumentException("Unknown feed service " + type + ", expected " + JPA + " or " + LOG);
+		}
+	}
+	
+	/**
+	 * Subscribe to a demo feed if there are no feeds yet, unless the <code>feedreader.demo</code> 
+	 * system property is <code>false</code>. The feed is synchronized in the background.
+	 * 
+	 * @param service
+	 * 		The service to add the feed to
+	 * @return
+	 * 		<code>true</code> if the demo feed was added
+	 */
+	public static boolean addDemoFeed(FeedService service) {
+		if(!DEMO || service.countFeeds() > 0){
+			return false;
+		}
+		Feed feed = new Feed();
+		feed.setUrl(DEMO_FEED);
+		service.add(feed);
+		service.syncronizeAsync(feed);
+		return true;
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+/**
+ * The result of fetching a feed document with {@link FeedFetcher}
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class FetchResult {
+	
+	private final boolean notModified;
+	
+	private final byte[] body;
+	
+	private final String contentType;
+	
+	private final String etag;
+	
+	private final String lastModified;
+	
+	private final String contentHash;
+	
+	private final long expires;
+	
+	private final long transferredBytes;
+	
+	private final String movedTo;
+
+	private FetchResult(boolean notModified, byte[] body, String contentType, String etag, 
+			String lastModified, String contentHash, long expires, long transferredBytes, String movedTo) {
+		this.notModified = notModified;
+		this.body = body;
+		this.contentType = contentType;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.contentHash = contentHash;
+		this.expires = expires;
+		this.transferredBytes = transferredBytes;
+		this.movedTo = movedTo;
+	}
+	
+	static FetchResult notModified(String etag, String lastModified, long expires) {
+		return new FetchResult(true, null, null, etag, lastModified, null, expires, 0, null);
+	}
+	
+	static FetchResult fetched(byte[] body, String contentType, String etag, String lastModified, 
+			String contentHash, long expires) {
+		return fetched(body, contentType, etag, lastModified, contentHash, expires, body.length);
+	}
+	
+	static FetchResult fetched(byte[] body, String contentType, String etag, String lastModified, 
+			String contentHash, long expires, long transferredBytes) {
+		return new FetchResult(false, body, contentType, etag, lastModified, contentHash, expires, 
+				transferredBytes, null);
+	}
+	
+	/**
+	 * Get a copy of the result reporting that the feed has permanently moved
+	 * 
+	 * @param url
+	 * 		The new url of the feed, or <code>null</code> if it did not move
+	 */
+	FetchResult movedTo(String url) {
+		if(url == null){
+			return this;
+		}
+		return new FetchResult(notModified, body, contentType, etag, lastModified, contentHash, expires, 
+				transferredBytes, url);
+	}
+
+	/**
+	 * Did the server report that the feed has not changed since it was last fetched
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * Get the raw feed document. <code>null</code> if the feed was not modified.
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * Get the content type reported by the server, used for detecting the encoding
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Get the ETag validator returned by the server
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Get the Last-Modified validator returned by the server
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Get the hex encoded hash of the feed document. <code>null</code> if the feed was not modified.
+	 */
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * Get the time in milliseconds until which the server allows the response to be cached, 
+	 * from the <code>Cache-Control: max-age</code> or <code>Expires</code> headers. 
+	 * 0 if the server did not say.
+	 */
+	public long getExpires() {
+		return expires;
+	}
+
+	/**
+	 * Get the number of bytes received from the server, smaller than the document if it was compressed
+	 */
+	public long getTransferredBytes() {
+		return transferredBytes;
+	}
+	
+	/**
+	 * Get the url the feed has permanently been redirected to
+	 * 
+	 * @return
+	 * 		The new url, or <code>null</code> if the feed was not permanently redirected
+	 */
+	public String getMovedTo() {
+		return movedTo;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+/**
+ * The state of a {@link LatencyHistogram} at one point in time. All durations are in milliseconds.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class HistogramSnapshot implements Serializable {
+	
+	private final long count;
+	
+	private final double mean;
+	
+	private final double p50;
+	
+	private final double p95;
+	
+	private final double p99;
+	
+	private final double max;
+	
+	@ConstructorProperties({"count", "mean", "p50", "p95", "p99", "max"})
+	public HistogramSnapshot(long count, double mean, double p50, double p95, double p99, double max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p95 = p95;
+		this.p99 = p99;
+		this.max = max;
+	}
+
+	/**
+	 * Get the number of recorded durations
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the mean duration
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Get the median duration
+	 */
+	public double getP50() {
+		return p50;
+	}
+
+	/**
+	 * Get the 95th percentile of the durations
+	 */
+	public double getP95() {
+		return p95;
+	}
+
+	/**
+	 * Get the 99th percentile of the durations
+	 */
+	public double getP99() {
+		return p99;
+	}
+
+	/**
+	 * Get the longest duration
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[count=%d, mean=%.2fms, p50=%.2fms, p95=%.2fms, p99=%.2fms, max=%.2fms]", 
+				count, mean, p50, p95, p99, max);
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.persistence.exceptions.ConcurrencyException;
+import org.eclipse.persistence.internal.databaseaccess.Accessor;
+import org.eclipse.persistence.sessions.Login;
+import org.eclipse.persistence.sessions.server.ConnectionPool;
+import org.eclipse.persistence.sessions.server.ServerSession;
+
+/**
+ * A EclipseLink connection pool which records how long callers had to wait for a connection.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class InstrumentedConnectionPool extends ConnectionPool {
+	
+	private final LongAdder acquisitions = new LongAdder();
+	
+	private final LongAdder waitNanos = new LongAdder();
+	
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * Create a new instrumented pool
+	 * 
+	 * @param name
+	 * 		The name of the pool
+	 * @param login
+	 * 		The login used to create connections
+	 * @param minNumberOfConnections
+	 * 		The minimum number of connections kept open
+	 * @param maxNumberOfConnections
+	 * 		The maximum number of connections open at the same time
+	 * @param owner
+	 * 		The server session owning the pool
+	 */
+	public InstrumentedConnectionPool(String name, Login login, int minNumberOfConnections, 
+			int maxNumberOfConnections, ServerSession owner) {
+		super(name, login, minNumberOfConnections, maxNumberOfConnections, owner);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Accessor acquireConnection() throws ConcurrencyException {
+		long start = System.nanoTime();
+		try{
+			return super.acquireConnection();
+		} finally {
+			long waited = System.nanoTime() - start;
+			acquisitions.increment();
+			waitNanos.add(waited);
+			maxWaitNanos.accumulateAndGet(waited, Math::max);
+		}
+	}
+	
+	/**
+	 * Get the number of times a connection has been acquired from the pool
+	 */
+	public long getAcquisitions() {
+		return acquisitions.sum();
+	}
+	
+	/**
+	 * Get the total time in milliseconds spent waiting for a connection
+	 */
+	public long getTotalWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+	}
+	
+	/**
+	 * Get the longest time in milliseconds a single caller waited for a connection
+	 */
+	public long getMaxWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of durations.
+ * <p>
+ * Durations are recorded in microseconds into buckets of exponentially growing width, four 
+ * buckets per power of two, so percentiles are accurate to within 25% while recording is 
+ * just a few atomic increments.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public final class LatencyHistogram {
+	
+	private static final int SUB_BUCKETS = 4;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+	
+	private final LongAdder count = new LongAdder();
+	
+	private final LongAdder sum = new LongAdder();
+	
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	/**
+	 * Record a duration
+	 * 
+	 * @param nanos
+	 * 		The duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		buckets.incrementAndGet(index(micros));
+		count.increment();
+		sum.add(micros);
+		max.accumulate(micros);
+	}
+	
+	/**
+	 * Record the time elapsed since a point in time
+	 * 
+	 * @param startNanos
+	 * 		The start of the duration, as returned by {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+	
+	/**
+	 * Take a snapshot of the recorded durations. Durations recorded while the snapshot 
+	 * is taken may or may not be included.
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] counts = new long[buckets.length()];
+		long total = 0;
+		for(int i = 0; i < counts.length; i++){
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		// Bucket bounds can exceed the largest recorded duration
+		long largest = max.get();
+		return new HistogramSnapshot(total, 
+				total == 0 ? 0 : millis(sum.sum()) / total,
+				millis(Math.min(largest, percentile(counts, total, 0.5))), 
+				millis(Math.min(largest, percentile(counts, total, 0.95))), 
+				millis(Math.min(largest, percentile(counts, total, 0.99))), 
+				millis(largest));
+	}
+	
+	private static long percentile(long[] counts, long total, double percentile) {
+		long rank = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++){
+			seen += counts[i];
+			if(seen >= rank && counts[i] > 0){
+				return upperBound(i);
+			}
+		}
+		return 0;
+	}
+	
+	private static int index(long micros) {
+		if(micros < SUB_BUCKETS){
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) ((micros >> (exponent - 2)) & (SUB_BUCKETS - 1));
+		return SUB_BUCKETS * (exponent - 1) + sub;
+	}
+	
+	private static long upperBound(int index) {
+		if(index < SUB_BUCKETS){
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + 1;
+		long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - 2);
+		return lower + (1L << (exponent - 2)) - 1;
+	}
+	
+	private static double millis(double micros) {
+		return micros / 1000.0;
+	}
+}
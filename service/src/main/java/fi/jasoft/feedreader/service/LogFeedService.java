@@ -0,0 +1,1109 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.persistence.OptimisticLockException;
+
+import com.sun.syndication.io.FeedException;
+
+import fi.jasoft.feedreader.data.EntrySummary;
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.data.FeedEntry;
+import fi.jasoft.feedreader.data.FeedSummary;
+import fi.jasoft.feedreader.data.RenderedEntry;
+import fi.jasoft.feedreader.service.FeedServiceImpl.Changes;
+import fi.jasoft.feedreader.service.FeedServiceImpl.Incoming;
+
+/**
+ * Implementation of {@link FeedService} which stores the entries of every feed in 
+ * segmented append-only log files instead of a database.
+ * <p>
+ * The feeds themselves are kept in memory and every change to them is appended to a 
+ * catalog log. The entries of a feed live in an {@link EntryLog} of their own, whose 
+ * in-memory index serves the entry listings and whose memory-mapped segments serve the 
+ * entry bodies. The timeline of all feeds is a k-way merge of the time ordered indexes of 
+ * the logs. Everything is recovered from the logs when the service is created, damaged 
+ * record tails left by a crash are truncated. Garbage left by replaced and deleted records 
+ * is compacted away by {@link #purge()}.
+ * <p>
+ * The files are stored in the directory given by the <code>feedreader.log.dir</code> system 
+ * property. New segments are started every <code>feedreader.log.segmentSize</code> bytes, and 
+ * appended records are flushed to the disk before a change is reported unless 
+ * <code>feedreader.log.fsync</code> is <code>false</code>.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class LogFeedService implements FeedService, Closeable {
+	
+	private static final Logger LOGGER = Logger.getLogger(LogFeedService.class.getName());
+	
+	/**
+	 * The default directory of the log files
+	 */
+	public static final String DIRECTORY = System.getProperty("feedreader.log.dir", "/tmp/feed-reader/log");
+	
+	private static final long SEGMENT_SIZE = Long.getLong("feedreader.log.segmentSize", 8 * 1024 * 1024);
+	
+	private static final boolean FSYNC = Boolean.parseBoolean(System.getProperty("feedreader.log.fsync", "true"));
+	
+	/*
+	 * How many of the newest stored entry keys are checked while parsing
+	 */
+	private static final int RECENT_KEYS = 200;
+	
+	/*
+	 * The most entries read from a log at a time while merging the timeline
+	 */
+	private static final int MERGE_CHUNK = 64;
+	
+	private static final byte PUT_FEED = 1;
+	
+	private static final byte DELETE_FEED = 2;
+	
+	private static final String CATALOG = "feeds.log";
+	
+	private static final String ENTRIES = "entries";
+	
+	private final File directory;
+	
+	private final SyncExecutor executor;
+	
+	private final SearchIndex index;
+	
+	private final FeedFetcher fetcher = new FeedFetcher();
+	
+	private final FeedParser parser = new StreamingFeedParser();
+	
+	private final SyncMetrics metrics = SyncMetrics.getDefault();
+	
+	private final SyncGate gate = new SyncGate(metrics);
+	
+	private final RetentionPolicy retention = new RetentionPolicy();
+	
+	private final List<FeedChangeListener> listeners = new CopyOnWriteArrayList<>();
+	
+	/*
+	 * The feeds ordered by id. Guarded by the catalog for writes, callers only get copies.
+	 */
+	private final ConcurrentSkipListMap<Long, Feed> feeds = new ConcurrentSkipListMap<>();
+	
+	private final Map<String, Long> urls = new HashMap<>();
+	
+	private final Map<Long, Integer> catalogRecords = new HashMap<>();
+	
+	private final Map<Long, EntryLog> logs = new ConcurrentHashMap<>();
+	
+	/*
+	 * The feed of every stored entry by entry id
+	 */
+	private final Map<Long, Long> owners = new ConcurrentHashMap<>();
+	
+	private final AtomicLong feedIds = new AtomicLong();
+	
+	private final AtomicLong entryIds = new AtomicLong();
+	
+	private LogSegment catalog;
+	
+	/**
+	 * Creates a feed service storing its logs in the default directory and running 
+	 * asynchronous synchronizations on the shared {@link SyncExecutor}
+	 */
+	public LogFeedService() {
+		this(SyncExecutor.getDefault(), SearchIndex.getDefault(), new File(DIRECTORY));
+	}
+	
+	/**
+	 * Creates a feed service and recovers the feeds and entries stored in the directory
+	 * 
+	 * @param executor
+	 * 		The executor used for asynchronous synchronizations
+	 * @param index
+	 * 		The index synchronized entries are added to
+	 * @param directory
+	 * 		The directory of the log files, created if missing
+	 */
+	public LogFeedService(SyncExecutor executor, SearchIndex index, File directory) {
+		this.executor = executor;
+		this.index = index;
+		this.directory = directory;
+		try{
+			recover();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to open the feed logs in " + directory, e);
+		}
+	}
+	
+	private synchronized void recover() throws IOException {
+		long start = System.currentTimeMillis();
+		Files.createDirectories(new File(directory, ENTRIES).toPath());
+		catalog = new LogSegment(new File(directory, CATALOG), 0);
+		catalog.recover((offset, payload) -> {
+			int length = LogSegment.HEADER + payload.remaining();
+			byte type = payload.get();
+			long id = payload.getLong();
+			feedIds.accumulateAndGet(id, Math::max);
+			Feed previous = type == PUT_FEED ? feeds.put(id, decodeFeed(id, payload)) : feeds.remove(id);
+			if(previous != null){
+				urls.remove(previous.getUrl());
+			}
+			if(type == PUT_FEED){
+				urls.put(feeds.get(id).getUrl(), id);
+				catalogRecords.put(id, length);
+			} else {
+				catalogRecords.remove(id);
+			}
+		});
+		
+		File[] feedDirectories = new File(directory, ENTRIES).listFiles(File::isDirectory);
+		for(File feedDirectory : feedDirectories == null ? new File[0] : feedDirectories){
+			long feedId = Long.parseLong(feedDirectory.getName());
+			EntryLog log = new EntryLog(feedDirectory, SEGMENT_SIZE, id -> entryIds.accumulateAndGet(id, Math::max));
+			if(!feeds.containsKey(feedId)){
+				// The feed was removed before its entries were deleted
+				log.delete();
+				continue;
+			}
+			logs.put(feedId, log);
+			log.ids().forEach(id -> owners.put(id, feedId));
+			
+			// The entries are flushed before the feed, a crash in between leaves a stale count
+			feeds.get(feedId).setEntryCount(log.count());
+		}
+		compactCatalog();
+		LOGGER.info("Recovered " + feeds.size() + " feeds and " + owners.size() + " entries from " 
+				+ directory + " in " + (System.currentTimeMillis() - start) + "ms");
+	}
+	
+	/**
+	 * Rewrite the catalog without replaced records if at least half of it is garbage
+	 */
+	private synchronized void compactCatalog() throws IOException {
+		long live = catalogRecords.values().stream().mapToLong(Integer::longValue).sum();
+		if(catalog.size() - live < Math.max(live, 64 * 1024)){
+			return;
+		}
+		File temp = new File(directory, CATALOG + ".tmp");
+		Files.deleteIfExists(temp.toPath());
+		LogSegment compacted = new LogSegment(temp, 0);
+		try{
+			for(Feed feed : feeds.values()){
+				compacted.append(encodeFeed(feed));
+			}
+			compacted.force();
+		} finally {
+			compacted.close();
+		}
+		catalog.close();
+		Files.move(temp.toPath(), new File(directory, CATALOG).toPath(), 
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		catalog = new LogSegment(new File(directory, CATALOG), 0);
+		catalog.recover((offset, payload) -> catalogRecords.put(payload.getLong(1), 
+				LogSegment.HEADER + payload.remaining()));
+	}
+	
+	/**
+	 * Append the current state of a feed to the catalog
+	 */
+	private void writeFeed(Feed feed, boolean force) throws IOException {
+		byte[] payload = encodeFeed(feed);
+		catalog.append(payload);
+		catalogRecords.put(feed.getId(), LogSegment.HEADER + payload.length);
+		if(force && FSYNC){
+			catalog.force();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void add(Feed feed) {
+		synchronized (this) {
+			if(urls.containsKey(feed.getUrl())){
+				throw new IllegalArgumentException("Feed " + feed.getUrl() + " already exists");
+			}
+			feed.setId(feedIds.incrementAndGet());
+			feed.setVersion(1);
+			store(feed, true);
+		}
+		fireFeedChanged(feed.getId());
+	}
+	
+	private void store(Feed feed, boolean force) {
+		Feed stored = copyOf(feed);
+		try{
+			writeFeed(stored, force);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		Feed previous = feeds.put(stored.getId(), stored);
+		if(previous != null){
+			urls.remove(previous.getUrl());
+		}
+		urls.put(stored.getUrl(), stored.getId());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void remove(Feed feed) {
+		EntryLog log;
+		synchronized (this) {
+			Feed stored = feeds.remove(feed.getId());
+			if(stored == null){
+				return;
+			}
+			urls.remove(stored.getUrl());
+			catalogRecords.remove(feed.getId());
+			try{
+				catalog.append(ByteBuffer.allocate(9).put(DELETE_FEED).putLong(feed.getId()).array());
+				if(FSYNC){
+					catalog.force();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			log = logs.remove(feed.getId());
+		}
+		gate.forget(feed.getId());
+		if(log != null){
+			log.ids().forEach(owners::remove);
+			try{
+				log.delete();
+			} catch (IOException e) {
+				// Deleted when the service is recovered next time
+				LOGGER.log(Level.WARNING, "Failed to delete the entries of " + feed.getUrl(), e);
+			}
+		}
+		index.removeFeed(feed.getId());
+		fireFeedChanged(feed.getId());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<Feed> getFeeds() {
+		return feeds.values().stream().map(this::copyOf).collect(Collectors.toList());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int countFeeds() {
+		return feeds.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<FeedSummary> getFeedSummaries(int offset, int limit) {
+		return feeds.values().stream()
+				.skip(offset)
+				.limit(limit)
+				.map(this::copyOf)
+				.map(FeedSummary::of)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Feed getFeed(long id) {
+		Feed feed = feeds.get(id);
+		return feed == null ? null : copyOf(feed);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<EntrySummary> getEntries(Feed feed, EntrySummary after, int limit) {
+		EntryLog log = logs.get(feed.getId());
+		return log == null ? Collections.emptyList() : log.page(after, limit);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<EntrySummary> getTimeline(EntrySummary after, int limit) {
+		long start = System.nanoTime();
+		PriorityQueue<MergeSource> heads = new PriorityQueue<>(Math.max(logs.size(), 1));
+		for(EntryLog log : logs.values()){
+			MergeSource source = new MergeSource(log, after);
+			if(source.advance()){
+				heads.add(source);
+			}
+		}
+		
+		List<EntrySummary> page = new ArrayList<>(Math.min(limit, 1024));
+		while(page.size() < limit && !heads.isEmpty()){
+			MergeSource newest = heads.poll();
+			page.add(newest.head);
+			if(newest.advance()){
+				heads.add(newest);
+			}
+		}
+		metrics.database("getTimeline", start);
+		return page;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int countTimeline() {
+		int count = 0;
+		for(EntryLog log : logs.values()){
+			count += log.count();
+		}
+		return count;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int countEntries(Feed feed) {
+		EntryLog log = logs.get(feed.getId());
+		return log == null ? 0 : log.count();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public FeedEntry getEntry(long id) {
+		long start = System.nanoTime();
+		Long feedId = owners.get(id);
+		EntryLog log = feedId == null ? null : logs.get(feedId);
+		if(log == null){
+			return null;
+		}
+		try{
+			Feed feed = feeds.get(feedId);
+			return log.read(id, feed == null ? null : copyOf(feed));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			metrics.database("getEntry", start);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public RenderedEntry getRenderedEntry(long id) {
+		FeedEntry entry = getEntry(id);
+		return entry == null || entry.getFeed() == null 
+				? null : EntryRenderer.toRendered(entry, entry.getFeed().getId());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<EntrySummary> search(String query, int limit) {
+		return index.search(query, limit);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setStarred(long id, boolean starred) {
+		Long feedId = owners.get(id);
+		EntryLog log = feedId == null ? null : logs.get(feedId);
+		try{
+			if(log == null || !log.star(id, starred, FSYNC)){
+				return;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		fireFeedChanged(feedId);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setRead(long id, boolean read) {
+		Long feedId = owners.get(id);
+		EntryLog log = feedId == null ? null : logs.get(feedId);
+		try{
+			if(log == null || !log.setRead(id, read, FSYNC)){
+				return;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		fireReadStateChanged(feedId);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void markAllRead(long feedId) {
+		EntryLog log = logs.get(feedId);
+		try{
+			if(log == null || log.markAllRead(FSYNC) == 0){
+				return;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		fireReadStateChanged(feedId);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PurgeResult purge() {
+		long start = System.currentTimeMillis();
+		long sizeBefore = sizeOf(directory);
+		int entries = 0;
+		int purgedFeeds = 0;
+		try{
+			for(Feed feed : feeds.values()){
+				EntryLog log = logs.get(feed.getId());
+				if(log == null || !retention.isLimited(feed) || Thread.currentThread().isInterrupted()){
+					continue;
+				}
+				List<Long> expired = log.expired(retention.cutoff(feed, System.currentTimeMillis()), 
+						retention.maxEntries(feed), retention.keepStarred(feed));
+				if(expired.isEmpty()){
+					continue;
+				}
+				List<Long> deleted = log.delete(expired, FSYNC);
+				for(Long id : deleted){
+					owners.remove(id);
+					index.remove(id);
+				}
+				synchronized (this) {
+					Feed stored = feeds.get(feed.getId());
+					if(stored != null){
+						stored.setEntryCount(log.count());
+						writeFeed(stored, true);
+					}
+				}
+				entries += deleted.size();
+				purgedFeeds++;
+				fireFeedChanged(feed.getId());
+			}
+			
+			for(EntryLog log : logs.values()){
+				log.compact();
+			}
+			compactCatalog();
+		} catch(IOException | RuntimeException e){
+			LOGGER.log(Level.WARNING, "Retention purge stopped after " + entries + " entries", e);
+		}
+		
+		PurgeResult result = new PurgeResult(entries, purgedFeeds, sizeBefore, sizeOf(directory), 
+				System.currentTimeMillis() - start);
+		if(result.getEntries() > 0 || result.getReclaimedBytes() > 0){
+			LOGGER.info(result.toString());
+		}
+		metrics.purged(result);
+		return result;
+	}
+	
+	private static long sizeOf(File file) {
+		File[] children = file.listFiles();
+		if(children == null){
+			return file.length();
+		}
+		long size = 0;
+		for(File child : children){
+			size += sizeOf(child);
+		}
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompressionStatistics getCompressionStatistics() {
+		long entries = 0;
+		long contentBytes = 0;
+		long storedBytes = 0;
+		for(EntryLog log : logs.values()){
+			long[] statistics = log.contentStatistics();
+			entries += statistics[0];
+			contentBytes += statistics[1];
+			storedBytes += statistics[2];
+		}
+		return new CompressionStatistics(entries, 0, contentBytes, storedBytes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void save(Feed feed) {
+		synchronized (this) {
+			Feed stored = feeds.get(feed.getId());
+			if(stored == null){
+				throw new IllegalStateException("Feed " + feed.getUrl() + " has been removed");
+			}
+			if(stored.getVersion() != feed.getVersion()){
+				throw new OptimisticLockException(feed);
+			}
+			Long owner = urls.get(feed.getUrl());
+			if(owner != null && owner != feed.getId()){
+				throw new IllegalArgumentException("Feed " + feed.getUrl() + " already exists");
+			}
+			feed.setVersion(feed.getVersion() + 1);
+			store(feed, true);
+		}
+		fireFeedChanged(feed.getId());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void saveRetention(Feed feed) {
+		synchronized (this) {
+			Feed stored = feeds.get(feed.getId());
+			if(stored == null){
+				return;
+			}
+			Feed changed = copyOf(stored);
+			changed.setMaxEntries(feed.getMaxEntries());
+			changed.setMaxAge(feed.getMaxAge());
+			changed.setKeepStarred(feed.getKeepStarred());
+			store(changed, true);
+		}
+		fireFeedChanged(feed.getId());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void syncronize(Feed feed) {
+		SyncResult result = gate.sync(feed, f -> CompletableFuture.completedFuture(sync(f))).join();
+		if(result.isFailed()){
+			LOGGER.log(Level.WARNING, "Failed to syncronize " + feed.getUrl(), result.getError());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<SyncResult> syncronizeAsync(Feed feed) {
+		return gate.sync(feed, f -> executor.submit(f.getUrl(), () -> sync(f)));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<List<SyncResult>> syncronizeAll(Collection<Feed> feeds) {
+		List<CompletableFuture<SyncResult>> futures = feeds.stream()
+				.map(this::syncronizeAsync)
+				.collect(Collectors.toList());
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(done -> futures.stream()
+						.map(CompletableFuture::join)
+						.collect(Collectors.toList()));
+	}
+	
+	private SyncResult sync(Feed feed) {
+		long start = System.nanoTime();
+		SyncResult result = fetchAndStore(feed);
+		metrics.completed(result, start);
+		return result;
+	}
+	
+	private SyncResult fetchAndStore(Feed feed) {
+		long start = System.currentTimeMillis();
+		try {
+			long phase = System.nanoTime();
+			FetchResult fetched = fetcher.fetch(feed);
+			metrics.fetched(phase, fetched);
+			if(fetched.getMovedTo() != null){
+				move(feed, fetched.getMovedTo());
+			}
+			if(fetched.isNotModified() || Objects.equals(fetched.getContentHash(), feed.getContentHash())){
+				updateValidators(feed, fetched);
+				return SyncResult.unchanged(feed, 0, fetched.getExpires(), System.currentTimeMillis() - start);
+			}
+			
+			EntryLog log = logOf(feed);
+			phase = System.nanoTime();
+			Incoming incoming = FeedServiceImpl.parse(parser, fetched, log.recentKeys(RECENT_KEYS));
+			metrics.parsed(phase);
+			
+			phase = System.nanoTime();
+			try{
+				Changes changes = match(feed, incoming, log);
+				if(changes.isEmpty()){
+					updateValidators(feed, fetched);
+					return SyncResult.unchanged(feed, changes.unchanged, fetched.getExpires(), 
+							System.currentTimeMillis() - start);
+				}
+				
+				persist(feed, fetched, incoming, changes, log);
+				return SyncResult.updated(feed, changes.added.size(), changes.changed.size(), changes.unchanged, 
+						fetched.getExpires(), System.currentTimeMillis() - start);
+			} finally {
+				metrics.persisted(phase);
+			}
+		} catch (IOException | FeedException | RuntimeException e) {
+			return SyncResult.failed(feed, e, System.currentTimeMillis() - start);
+		}
+	}
+	
+	private EntryLog logOf(Feed feed) throws IOException {
+		if(!feeds.containsKey(feed.getId())){
+			throw new IllegalStateException("Feed " + feed.getUrl() + " has been removed");
+		}
+		EntryLog log = logs.get(feed.getId());
+		if(log == null){
+			synchronized (this) {
+				log = logs.get(feed.getId());
+				if(log == null){
+					log = new EntryLog(new File(new File(directory, ENTRIES), String.valueOf(feed.getId())), 
+							SEGMENT_SIZE, id -> {});
+					logs.put(feed.getId(), log);
+				}
+			}
+		}
+		return log;
+	}
+	
+	private Changes match(Feed feed, Incoming incoming, EntryLog log) {
+		Date floor = null;
+		if(retention.isLimited(feed)){
+			int limit = retention.maxEntries(feed);
+			floor = retention.floor(feed, limit > 0 && log.count() >= limit 
+					? log.publishedAt(limit - 1, retention.keepStarred(feed)) : null);
+		}
+		
+		Changes changes = new Changes();
+		for (Map.Entry<String, ParsedEntry> e : incoming.entries.entrySet()) {
+			EntryLog.Slot existing = log.get(e.getKey());
+			if(existing == null){
+				Date published = FeedServiceImpl.publishedOf(e.getValue(), null);
+				if(floor != null && published != null && published.before(floor)){
+					// Purged before, or would be purged right away
+					continue;
+				}
+				changes.added.put(e.getKey(), e.getValue());
+			} else if(existing.getFingerprint().equals(FeedServiceImpl.fingerprintOf(e.getValue()))){
+				changes.unchanged++;
+			} else {
+				changes.changed.put(existing.getId(), e.getValue());
+			}
+		}
+		return changes;
+	}
+	
+	private void persist(Feed feed, FetchResult fetched, Incoming incoming, Changes changes, EntryLog log) 
+			throws IOException {
+		Date now = new Date();
+		List<FeedEntry> stored = new ArrayList<>(changes.added.size() + changes.changed.size());
+		for (Map.Entry<String, ParsedEntry> e : changes.added.entrySet()) {
+			FeedEntry entry = new FeedEntry();
+			entry.setId(entryIds.incrementAndGet());
+			entry.setEntryKey(e.getKey());
+			entry.setPublished(FeedServiceImpl.publishedOf(e.getValue(), now));
+			FeedServiceImpl.copy(e.getValue(), entry);
+			stored.add(entry);
+		}
+		Map<String, ParsedEntry> changed = new LinkedHashMap<>();
+		for (Map.Entry<String, ParsedEntry> e : incoming.entries.entrySet()) {
+			EntryLog.Slot existing = log.get(e.getKey());
+			if(existing != null && changes.changed.containsKey(existing.getId())){
+				FeedEntry entry = new FeedEntry();
+				entry.setId(existing.getId());
+				entry.setEntryKey(e.getKey());
+				entry.setPublished(new Date(existing.getPublished()));
+				entry.setStarred(existing.isStarred());
+				entry.setOrdinal(existing.getOrdinal());
+				FeedServiceImpl.copy(e.getValue(), entry);
+				stored.add(entry);
+				changed.put(e.getKey(), e.getValue());
+			}
+		}
+		
+		log.put(stored, FSYNC);
+		Feed updated;
+		synchronized (this) {
+			Feed current = feeds.get(feed.getId());
+			if(current == null){
+				throw new IllegalStateException("Feed " + feed.getUrl() + " has been removed");
+			}
+			for(FeedEntry entry : stored){
+				owners.put(entry.getId(), feed.getId());
+			}
+			current.setEntryCount(log.count());
+			current.setLastUpdated(now);
+			FeedServiceImpl.applyDocument(current, fetched, incoming);
+			current.setVersion(current.getVersion() + 1);
+			writeFeed(current, true);
+			updated = copyOf(current);
+		}
+		for(FeedEntry entry : stored){
+			entry.setFeed(updated);
+			index.add(entry);
+		}
+		
+		feed.setTitle(updated.getTitle());
+		feed.setEntryCount(updated.getEntryCount());
+		feed.setLastUpdated(updated.getLastUpdated());
+		feed.setTtl(updated.getTtl());
+		feed.setSkipHours(updated.getSkipHours());
+		feed.setPostInterval(updated.getPostInterval());
+		feed.setEtag(updated.getEtag());
+		feed.setLastModified(updated.getLastModified());
+		feed.setContentHash(updated.getContentHash());
+		feed.setVersion(updated.getVersion());
+		
+		fireFeedChanged(feed.getId());
+	}
+	
+	/**
+	 * Change the url of a permanently redirected feed. The url is kept if another feed 
+	 * already has the new one.
+	 */
+	private void move(Feed feed, String url) throws IOException {
+		synchronized (this) {
+			Feed current = feeds.get(feed.getId());
+			if(current == null || url.equals(current.getUrl())){
+				return;
+			}
+			if(urls.containsKey(url)){
+				LOGGER.fine(feed.getUrl() + " has moved to the already subscribed " + url);
+				return;
+			}
+			urls.remove(current.getUrl());
+			urls.put(url, current.getId());
+			current.setUrl(url);
+			current.setVersion(current.getVersion() + 1);
+			writeFeed(current, true);
+			feed.setVersion(current.getVersion());
+		}
+		LOGGER.info(feed.getUrl() + " has moved to " + url);
+		feed.setUrl(url);
+		fireFeedChanged(feed.getId());
+	}
+	
+	/**
+	 * Stores new HTTP validators and the hash of a feed whose entries did not change. 
+	 * Does nothing if they are the same as before.
+	 */
+	private void updateValidators(Feed feed, FetchResult fetched) throws IOException {
+		String hash = fetched.isNotModified() ? feed.getContentHash() : fetched.getContentHash();
+		if(Objects.equals(feed.getEtag(), fetched.getEtag()) 
+				&& Objects.equals(feed.getLastModified(), fetched.getLastModified())
+				&& Objects.equals(feed.getContentHash(), hash)){
+			return;
+		}
+		
+		feed.setEtag(fetched.getEtag());
+		feed.setLastModified(fetched.getLastModified());
+		feed.setContentHash(hash);
+		
+		synchronized (this) {
+			Feed current = feeds.get(feed.getId());
+			if(current != null){
+				current.setEtag(feed.getEtag());
+				current.setLastModified(feed.getLastModified());
+				current.setContentHash(feed.getContentHash());
+				
+				// Losing validators only costs a full fetch, not worth a flush
+				writeFeed(current, false);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public OpmlImport importOpml(InputStream opml, Consumer<OpmlImport> listener) throws IOException {
+		Set<String> candidates = new LinkedHashSet<>();
+		List<String> invalid = new ArrayList<>();
+		int duplicates = 0;
+		for(String url : Opml.readFeedUrls(opml)){
+			if(!Opml.isValid(url)){
+				invalid.add(url);
+			} else if(!candidates.add(url)){
+				duplicates++;
+			}
+		}
+		
+		List<Feed> added = new ArrayList<>();
+		synchronized (this) {
+			for(String url : candidates){
+				if(urls.containsKey(url)){
+					duplicates++;
+					continue;
+				}
+				Feed feed = new Feed();
+				feed.setUrl(url);
+				feed.setId(feedIds.incrementAndGet());
+				feed.setVersion(1);
+				store(feed, false);
+				added.add(feed);
+			}
+			if(FSYNC){
+				catalog.force();
+			}
+		}
+		LOGGER.info("Imported " + added.size() + " feeds, skipped " + duplicates + " duplicates and " 
+				+ invalid.size() + " invalid urls");
+		
+		for(Feed feed : added){
+			fireFeedChanged(feed.getId());
+		}
+		
+		OpmlImport result = new OpmlImport(added, duplicates, invalid, listener);
+		result.start(this::syncronizeAsync, Integer.getInteger("feedreader.import.concurrency", 4));
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void exportOpml(OutputStream out) throws IOException {
+		Opml.write(feeds.values().stream().map(FeedSummary::of).iterator(), out);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void addFeedChangeListener(FeedChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeFeedChangeListener(FeedChangeListener listener) {
+		listeners.remove(listener);
+	}
+	
+	private void fireFeedChanged(long feedId) {
+		for(FeedChangeListener listener : listeners){
+			try{
+				listener.feedChanged(feedId);
+			} catch(RuntimeException e){
+				LOGGER.log(Level.WARNING, "Feed change listener failed", e);
+			}
+		}
+	}
+	
+	private void fireReadStateChanged(long feedId) {
+		for(FeedChangeListener listener : listeners){
+			try{
+				listener.readStateChanged(feedId);
+			} catch(RuntimeException e){
+				LOGGER.log(Level.WARNING, "Feed change listener failed", e);
+			}
+		}
+	}
+	
+	/**
+	 * Close the log files. The service can not be used afterwards.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		for(EntryLog log : logs.values()){
+			log.close();
+		}
+		logs.clear();
+		owners.clear();
+		if(catalog != null){
+			catalog.force();
+			catalog.close();
+		}
+	}
+	
+	/*
+	 * Record format of a feed: type, id, version, url, title, entry count, last updated, 
+	 * ttl, skip hours, post interval, etag, last modified, content hash, max entries, 
+	 * max age, keep starred
+	 */
+	
+	private static byte[] encodeFeed(Feed feed) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(PUT_FEED);
+		out.writeLong(feed.getId());
+		out.writeInt(feed.getVersion());
+		EntryLog.writeString(out, feed.getUrl());
+		EntryLog.writeString(out, feed.getTitle());
+		out.writeInt(feed.getEntryCount());
+		out.writeLong(feed.getLastUpdated() == null ? -1 : feed.getLastUpdated().getTime());
+		out.writeInt(feed.getTtl());
+		EntryLog.writeString(out, feed.getSkipHours());
+		out.writeLong(feed.getPostInterval());
+		EntryLog.writeString(out, feed.getEtag());
+		EntryLog.writeString(out, feed.getLastModified());
+		EntryLog.writeString(out, feed.getContentHash());
+		out.writeInt(feed.getMaxEntries());
+		out.writeInt(feed.getMaxAge());
+		out.writeByte(feed.getKeepStarred() == null ? -1 : feed.getKeepStarred() ? 1 : 0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	private static Feed decodeFeed(long id, ByteBuffer in) {
+		Feed feed = new Feed();
+		feed.setId(id);
+		feed.setVersion(in.getInt());
+		feed.setUrl(EntryLog.readString(in));
+		feed.setTitle(EntryLog.readString(in));
+		feed.setEntryCount(in.getInt());
+		long lastUpdated = in.getLong();
+		feed.setLastUpdated(lastUpdated < 0 ? null : new Date(lastUpdated));
+		feed.setTtl(in.getInt());
+		feed.setSkipHours(EntryLog.readString(in));
+		feed.setPostInterval(in.getLong());
+		feed.setEtag(EntryLog.readString(in));
+		feed.setLastModified(EntryLog.readString(in));
+		feed.setContentHash(EntryLog.readString(in));
+		feed.setMaxEntries(in.getInt());
+		feed.setMaxAge(in.getInt());
+		byte keepStarred = in.get();
+		feed.setKeepStarred(keepStarred < 0 ? null : keepStarred == 1);
+		return feed;
+	}
+	
+	/**
+	 * Copy a stored feed with the unread count of its log
+	 */
+	private Feed copyOf(Feed feed) {
+		EntryLog log = logs.get(feed.getId());
+		Feed copy = new Feed();
+		copy.setUnreadCount(log == null ? 0 : log.unreadCount());
+		copy.setId(feed.getId());
+		copy.setVersion(feed.getVersion());
+		copy.setUrl(feed.getUrl());
+		copy.setTitle(feed.getTitle());
+		copy.setEntryCount(feed.getEntryCount());
+		copy.setLastUpdated(feed.getLastUpdated());
+		copy.setTtl(feed.getTtl());
+		copy.setSkipHours(feed.getSkipHours());
+		copy.setPostInterval(feed.getPostInterval());
+		copy.setEtag(feed.getEtag());
+		copy.setLastModified(feed.getLastModified());
+		copy.setContentHash(feed.getContentHash());
+		copy.setMaxEntries(feed.getMaxEntries());
+		copy.setMaxAge(feed.getMaxAge());
+		copy.setKeepStarred(feed.getKeepStarred());
+		return copy;
+	}
+	
+	/**
+	 * The entries of one log taking part in a timeline merge, read in growing chunks so 
+	 * feeds contributing nothing to a page cost a single lookup
+	 */
+	private static final class MergeSource implements Comparable<MergeSource> {
+		
+		private final EntryLog log;
+		
+		private List<EntrySummary> chunk = Collections.emptyList();
+		
+		private int position;
+		
+		private int chunkSize = 1;
+		
+		private EntrySummary head;
+		
+		MergeSource(EntryLog log, EntrySummary after) {
+			this.log = log;
+			this.head = after;
+		}
+		
+		/**
+		 * Move to the next entry of the log
+		 * 
+		 * @return
+		 * 		<code>false</code> if the log has no more entries
+		 */
+		boolean advance() {
+			if(position == chunk.size()){
+				chunk = log.page(head, chunkSize);
+				position = 0;
+				chunkSize = Math.min(chunkSize * 2, MERGE_CHUNK);
+				if(chunk.isEmpty()){
+					return false;
+				}
+			}
+			head = chunk.get(position++);
+			return true;
+		}
+
+		@Override
+		public int compareTo(MergeSource other) {
+			// Newest first, the same order as the entries of a log
+			int order = other.head.getPublished().compareTo(head.getPublished());
+			return order != 0 ? order : Long.compare(other.head.getId(), head.getId());
+		}
+	}
+}
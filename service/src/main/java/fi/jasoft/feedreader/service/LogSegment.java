@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * One file of an append-only log.
+ * <p>
+ * Every record is framed by its length and a CRC32 of its payload. Records are appended 
+ * through the file channel and read through a read-only memory mapping of the file, which 
+ * is remapped when reads reach past the mapped size. A segment left with a torn or corrupted 
+ * tail by a crash is truncated after its last intact record when it is recovered.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+final class LogSegment implements Closeable {
+	
+	private static final Logger LOGGER = Logger.getLogger(LogSegment.class.getName());
+	
+	/*
+	 * Length and checksum preceding every payload
+	 */
+	static final int HEADER = 8;
+	
+	/**
+	 * Receives the records of a segment during recovery
+	 */
+	@FunctionalInterface
+	interface RecordHandler {
+		
+		/**
+		 * Handle an intact record
+		 * 
+		 * @param offset
+		 * 		The offset of the record in the segment
+		 * @param payload
+		 * 		The payload of the record, positioned at its start
+		 */
+		void record(long offset, ByteBuffer payload) throws IOException;
+	}
+	
+	private final File file;
+	
+	private final long sequence;
+	
+	private final FileChannel channel;
+	
+	private long size;
+	
+	private MappedByteBuffer map;
+	
+	/**
+	 * Open or create a segment
+	 * 
+	 * @param file
+	 * 		The file of the segment
+	 * @param sequence
+	 * 		The position of the segment in its log, records of later segments replace earlier ones
+	 */
+	LogSegment(File file, long sequence) throws IOException {
+		this.file = file;
+		this.sequence = sequence;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, 
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.size = channel.size();
+	}
+	
+	/**
+	 * Read every record of the segment in order. The segment is truncated after the last
+	 * intact record.
+	 * 
+	 * @param handler
+	 * 		Receives the records
+	 */
+	synchronized void recover(RecordHandler handler) throws IOException {
+		ByteBuffer buffer = mapped(size);
+		CRC32 crc = new CRC32();
+		long offset = 0;
+		while(offset + HEADER <= size){
+			int length = buffer.getInt((int) offset);
+			int checksum = buffer.getInt((int) offset + 4);
+			if(length < 0 || offset + HEADER + length > size){
+				break;
+			}
+			ByteBuffer payload = slice(buffer, offset, length);
+			crc.reset();
+			crc.update(payload.duplicate());
+			if((int) crc.getValue() != checksum){
+				break;
+			}
+			handler.record(offset, payload);
+			offset += HEADER + length;
+		}
+		
+		if(offset < size){
+			LOGGER.warning("Truncating " + (size - offset) + " damaged bytes at the end of " + file);
+			map = null;
+			channel.truncate(offset);
+			channel.force(true);
+			size = offset;
+		}
+	}
+	
+	/**
+	 * Append a record
+	 * 
+	 * @param payload
+	 * 		The payload of the record
+	 * @return
+	 * 		The offset of the record in the segment
+	 */
+	synchronized long append(byte[] payload) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(payload.length).putInt((int) crc.getValue()).flip();
+		
+		long offset = size;
+		long position = offset;
+		ByteBuffer[] buffers = { header, ByteBuffer.wrap(payload) };
+		for(ByteBuffer buffer : buffers){
+			while(buffer.hasRemaining()){
+				position += channel.write(buffer, position);
+			}
+		}
+		size = position;
+		return offset;
+	}
+	
+	/**
+	 * Read the payload of a record
+	 * 
+	 * @param offset
+	 * 		The offset of the record as returned by {@link #append(byte[])}
+	 * @return
+	 * 		A read-only view of the payload in the mapped file
+	 */
+	ByteBuffer read(long offset) throws IOException {
+		ByteBuffer buffer;
+		synchronized (this) {
+			if(offset + HEADER > size){
+				throw new IOException("No record at " + offset + " in " + file);
+			}
+			buffer = mapped(offset + HEADER);
+			int length = buffer.getInt((int) offset);
+			if(offset + HEADER + length > buffer.capacity()){
+				buffer = mapped(offset + HEADER + length);
+			}
+		}
+		return slice(buffer, offset, buffer.getInt((int) offset));
+	}
+	
+	private static ByteBuffer slice(ByteBuffer buffer, long offset, int length) {
+		ByteBuffer payload = buffer.duplicate();
+		payload.limit((int) offset + HEADER + length);
+		payload.position((int) offset + HEADER);
+		return payload.slice();
+	}
+	
+	/**
+	 * Get a mapping of the file covering at least the given number of bytes
+	 */
+	private MappedByteBuffer mapped(long end) throws IOException {
+		if(map == null || map.capacity() < end){
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		return map;
+	}
+	
+	/**
+	 * Flush appended records to the disk
+	 */
+	void force() throws IOException {
+		channel.force(false);
+	}
+	
+	/**
+	 * Get the size of the segment in bytes
+	 */
+	synchronized long size() {
+		return size;
+	}
+	
+	/**
+	 * Get the position of the segment in its log
+	 */
+	long getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * Get the file of the segment
+	 */
+	File getFile() {
+		return file;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		map = null;
+		channel.close();
+	}
+	
+	/**
+	 * Close and delete the segment
+	 */
+	void delete() throws IOException {
+		close();
+		Files.deleteIfExists(file.toPath());
+	}
+}
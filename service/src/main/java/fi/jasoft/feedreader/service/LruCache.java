@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A size bounded read-through cache evicting the least recently used values.
+ * <p>
+ * Every invalidation starts a new generation. A value loaded during an older generation is 
+ * returned to its caller but not cached, so a load racing with an invalidation can not put 
+ * stale data back into the cache.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class LruCache<K, V> {
+	
+	private final Map<K, V> values;
+	
+	private final LongAdder hits = new LongAdder();
+	
+	private final LongAdder misses = new LongAdder();
+	
+	private long generation;
+	
+	/**
+	 * Create a cache
+	 * 
+	 * @param maxSize
+	 * 		The maximum number of values to keep
+	 */
+	public LruCache(int maxSize) {
+		values = new LinkedHashMap<K, V>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Get a cached value, loading it if it is not cached. The cache is not locked while loading.
+	 * 
+	 * @param key
+	 * 		The key of the value
+	 * @param loader
+	 * 		Loads the value of the key
+	 * @return
+	 * 		The cached or loaded value
+	 */
+	public V get(K key, Function<K, V> loader) {
+		long loadGeneration;
+		synchronized (this) {
+			V value = values.get(key);
+			if(value != null){
+				hits.increment();
+				return value;
+			}
+			loadGeneration = generation;
+		}
+		
+		misses.increment();
+		V value = loader.apply(key);
+		if(value != null){
+			synchronized (this) {
+				if(generation == loadGeneration){
+					values.put(key, value);
+				}
+			}
+		}
+		return value;
+	}
+	
+	/**
+	 * Remove the values whose keys match a predicate
+	 * 
+	 * @param predicate
+	 * 		Matches the keys to remove
+	 */
+	public synchronized void invalidate(Predicate<K> predicate) {
+		generation++;
+		for(Iterator<K> keys = values.keySet().iterator(); keys.hasNext();){
+			if(predicate.test(keys.next())){
+				keys.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Remove the values matching a predicate
+	 * 
+	 * @param predicate
+	 * 		Matches the values to remove
+	 */
+	public synchronized void invalidateValues(Predicate<V> predicate) {
+		generation++;
+		values.values().removeIf(predicate);
+	}
+	
+	/**
+	 * Remove all values
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		values.clear();
+	}
+	
+	/**
+	 * Get the number of cached values
+	 */
+	public synchronized int size() {
+		return values.size();
+	}
+	
+	/**
+	 * Get the number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	/**
+	 * Get the number of lookups which had to load the value
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import fi.jasoft.feedreader.data.FeedSummary;
+
+/**
+ * Reads and writes subscription lists in the OPML 2.0 format.
+ * <p>
+ * Both directions are streamed with StAX. Only the feed urls of an imported document are 
+ * kept in memory, and exported feeds are written as soon as they are read.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+final class Opml {
+	
+	/*
+	 * Length of the url column of the feed table
+	 */
+	static final int MAX_URL_LENGTH = 256;
+	
+	private static final XMLInputFactory INPUT = createInputFactory();
+	
+	private static final XMLOutputFactory OUTPUT = XMLOutputFactory.newInstance();
+	
+	private Opml() {
+		// Only static access
+	}
+	
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+	
+	/**
+	 * Read the feeds of an OPML document. Outlines may be nested in categories to any depth, 
+	 * every outline with a <code>xmlUrl</code> attribute is a feed.
+	 * 
+	 * @param in
+	 * 		The document to read. Not closed.
+	 * @return
+	 * 		The trimmed feed urls in document order, including duplicates
+	 * @throws IOException
+	 * 		If the document could not be read or is not well formed
+	 */
+	static List<String> readFeedUrls(InputStream in) throws IOException {
+		List<String> urls = new ArrayList<>();
+		try {
+			XMLStreamReader reader = INPUT.createXMLStreamReader(in);
+			try {
+				while(reader.hasNext()){
+					if(reader.next() == XMLStreamConstants.START_ELEMENT 
+							&& "outline".equals(reader.getLocalName())){
+						String url = reader.getAttributeValue(null, "xmlUrl");
+						if(url != null && !url.trim().isEmpty()){
+							urls.add(url.trim());
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Not a valid OPML document", e);
+		}
+		return urls;
+	}
+	
+	/**
+	 * Is a url something that can be stored and fetched as a feed
+	 * 
+	 * @param url
+	 * 		The url to validate
+	 */
+	static boolean isValid(String url) {
+		if(url.length() > MAX_URL_LENGTH){
+			return false;
+		}
+		try {
+			URL parsed = new URL(url);
+			return ("http".equals(parsed.getProtocol()) || "https".equals(parsed.getProtocol()))
+					&& parsed.getHost() != null && !parsed.getHost().isEmpty();
+		} catch (MalformedURLException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Write feeds as an OPML document. The feeds are written as they are iterated.
+	 * 
+	 * @param feeds
+	 * 		The feeds to write
+	 * @param out
+	 * 		The stream to write the document to. Not closed.
+	 * @throws IOException
+	 * 		If writing to the stream failed
+	 */
+	static void write(Iterator<FeedSummary> feeds, OutputStream out) throws IOException {
+		try {
+			XMLStreamWriter writer = OUTPUT.createXMLStreamWriter(out, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("opml");
+			writer.writeAttribute("version", "2.0");
+			writer.writeStartElement("head");
+			writer.writeStartElement("title");
+			writer.writeCharacters("Feed Reader subscriptions");
+			writer.writeEndElement();
+			writer.writeEndElement();
+			writer.writeStartElement("body");
+			while(feeds.hasNext()){
+				FeedSummary feed = feeds.next();
+				String text = feed.getTitle() != null ? feed.getTitle() : feed.getUrl();
+				writer.writeEmptyElement("outline");
+				writer.writeAttribute("type", "rss");
+				writer.writeAttribute("text", text);
+				writer.writeAttribute("title", text);
+				writer.writeAttribute("xmlUrl", feed.getUrl());
+			}
+			writer.writeEndElement();
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IOException("Failed to write OPML document", e);
+		}
+	}
+}
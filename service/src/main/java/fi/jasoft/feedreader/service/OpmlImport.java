@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * The outcome and progress of importing an OPML subscription list.
+ * <p>
+ * The feeds of the list are stored before the import is returned, the initial synchronizations 
+ * of the new feeds continue in the background. Only a few of them are handed to the executor 
+ * at a time so that a large import does not delay other synchronizations. The progress listener 
+ * is notified from background threads every time a synchronization completes.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class OpmlImport {
+	
+	private static final Logger LOGGER = Logger.getLogger(OpmlImport.class.getName());
+	
+	private final int added;
+	
+	private final int duplicates;
+	
+	private final List<String> invalid;
+	
+	private final Queue<Feed> pending;
+	
+	private final Consumer<OpmlImport> listener;
+	
+	private final AtomicInteger synced = new AtomicInteger();
+	
+	private final AtomicInteger failed = new AtomicInteger();
+	
+	private final CompletableFuture<OpmlImport> completion = new CompletableFuture<>();
+	
+	/**
+	 * Create the result of an import
+	 * 
+	 * @param feeds
+	 * 		The feeds added by the import
+	 * @param duplicates
+	 * 		The number of feeds skipped because they were already subscribed to
+	 * @param invalid
+	 * 		The urls skipped because they are not valid feed urls
+	 * @param listener
+	 * 		Notified of the progress of the initial synchronizations, or <code>null</code>
+	 */
+	OpmlImport(List<Feed> feeds, int duplicates, List<String> invalid, Consumer<OpmlImport> listener) {
+		this.added = feeds.size();
+		this.duplicates = duplicates;
+		this.invalid = Collections.unmodifiableList(invalid);
+		this.pending = new ConcurrentLinkedQueue<>(feeds);
+		this.listener = listener;
+	}
+	
+	/**
+	 * Start the initial synchronizations
+	 * 
+	 * @param sync
+	 * 		Starts the synchronization of a feed
+	 * @param concurrency
+	 * 		The maximum number of synchronizations started at the same time
+	 */
+	void start(Function<Feed, CompletableFuture<SyncResult>> sync, int concurrency) {
+		if(added == 0){
+			completion.complete(this);
+			return;
+		}
+		for(int i = 0; i < Math.min(concurrency, added); i++){
+			syncNext(sync);
+		}
+	}
+	
+	private void syncNext(Function<Feed, CompletableFuture<SyncResult>> sync) {
+		Feed feed = pending.poll();
+		if(feed == null){
+			return;
+		}
+		sync.apply(feed).whenComplete((result, error) -> {
+			if(error != null || result.isFailed()){
+				failed.incrementAndGet();
+			} else {
+				synced.incrementAndGet();
+			}
+			notifyListener();
+			if(isDone()){
+				completion.complete(this);
+			} else {
+				syncNext(sync);
+			}
+		});
+	}
+	
+	private void notifyListener() {
+		if(listener != null){
+			try{
+				listener.accept(this);
+			} catch(RuntimeException e){
+				LOGGER.log(Level.WARNING, "Import progress listener failed", e);
+			}
+		}
+	}
+	
+	/**
+	 * Get the number of feeds added by the import
+	 */
+	public int getAdded() {
+		return added;
+	}
+	
+	/**
+	 * Get the number of feeds skipped because they were already subscribed to, 
+	 * or listed more than once
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+	
+	/**
+	 * Get the urls skipped because they are not valid feed urls
+	 */
+	public List<String> getInvalid() {
+		return invalid;
+	}
+	
+	/**
+	 * Get the number of added feeds synchronized successfully so far
+	 */
+	public int getSynced() {
+		return synced.get();
+	}
+	
+	/**
+	 * Get the number of added feeds which failed to synchronize so far
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+	
+	/**
+	 * Have the initial synchronizations of all added feeds completed
+	 */
+	public boolean isDone() {
+		return synced.get() + failed.get() >= added;
+	}
+	
+	/**
+	 * Get a future completing with this import once all initial synchronizations have completed
+	 */
+	public CompletableFuture<OpmlImport> getCompletion() {
+		return completion;
+	}
+}
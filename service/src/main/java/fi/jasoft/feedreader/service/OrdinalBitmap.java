@@ -0,0 +1,489 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compressed set of non-negative integers, used for the read state of the numbered entries 
+ * of a feed.
+ * <p>
+ * The integers are split into chunks of 65536 by their high 16 bits and every chunk is stored 
+ * in the smallest of three forms: a sorted array of the low bits for sparse chunks, a plain 
+ * bitmap for dense chunks, or runs of consecutive integers for chunks where most entries have 
+ * been read. A feed read up to its newest entries is a single run of a few bytes no matter 
+ * how many entries it has. Chunks are rebuilt as a bitmap when they change and stored in their 
+ * smallest form again, lookups work on the stored form.
+ * <p>
+ * Not thread safe, callers synchronize the access.
+ *
+ * @author John Ahlroos / https://devsoap.com
+ */
+final class OrdinalBitmap {
+	
+	private static final byte ARRAY = 0;
+	
+	private static final byte BITMAP = 1;
+	
+	private static final byte RUNS = 2;
+	
+	private static final int CHUNK = 1 << 16;
+	
+	private static final int WORDS = CHUNK / 64;
+	
+	private static final int MAX_ARRAY = 4096;
+	
+	private final TreeMap<Integer, Chunk> chunks = new TreeMap<>();
+	
+	/**
+	 * Does the set contain an integer
+	 */
+	boolean contains(int value) {
+		Chunk chunk = value < 0 ? null : chunks.get(value >>> 16);
+		return chunk != null && chunk.contains(value & 0xFFFF);
+	}
+	
+	/**
+	 * Add an integer
+	 * 
+	 * @return
+	 * 		<code>true</code> if the integer was not in the set
+	 */
+	boolean add(int value) {
+		return set(value, true);
+	}
+	
+	/**
+	 * Remove an integer
+	 * 
+	 * @return
+	 * 		<code>true</code> if the integer was in the set
+	 */
+	boolean remove(int value) {
+		return set(value, false);
+	}
+	
+	private boolean set(int value, boolean add) {
+		if(value < 0 || contains(value) == add){
+			return false;
+		}
+		int key = value >>> 16;
+		long[] words = words(key);
+		int low = value & 0xFFFF;
+		words[low >>> 6] ^= 1L << low;
+		store(key, words);
+		return true;
+	}
+	
+	/**
+	 * Add integers, rebuilding every changed chunk once
+	 * 
+	 * @param values
+	 * 		The integers to add
+	 * @return
+	 * 		The number of integers which were not in the set
+	 */
+	int addAll(Collection<Integer> values) {
+		Map<Integer, long[]> changed = new TreeMap<>();
+		int added = 0;
+		for(int value : values){
+			if(value < 0 || contains(value)){
+				continue;
+			}
+			long[] words = changed.computeIfAbsent(value >>> 16, this::words);
+			int low = value & 0xFFFF;
+			long bit = 1L << low;
+			if((words[low >>> 6] & bit) == 0){
+				words[low >>> 6] |= bit;
+				added++;
+			}
+		}
+		changed.forEach(this::store);
+		return added;
+	}
+	
+	/**
+	 * Add a range of integers
+	 * 
+	 * @param from
+	 * 		The first integer to add
+	 * @param to
+	 * 		The integer after the last one to add
+	 * @return
+	 * 		The number of integers which were not in the set
+	 */
+	int addRange(int from, int to) {
+		int added = 0;
+		for(int start = Math.max(from, 0); start < to; ){
+			int key = start >>> 16;
+			int end = Math.min(to, (key + 1) * CHUNK);
+			Chunk chunk = chunks.get(key);
+			int before = chunk == null ? 0 : chunk.cardinality();
+			long[] words = words(key);
+			for(int low = start & 0xFFFF, last = ((end - 1) & 0xFFFF); low <= last; ){
+				if((low & 63) == 0 && low + 63 <= last){
+					words[low >>> 6] = -1L;
+					low += 64;
+				} else {
+					words[low >>> 6] |= 1L << low;
+					low++;
+				}
+			}
+			store(key, words);
+			added += chunks.get(key).cardinality() - before;
+			start = end;
+		}
+		return added;
+	}
+	
+	/**
+	 * Get the number of integers in the set
+	 */
+	int cardinality() {
+		int cardinality = 0;
+		for(Chunk chunk : chunks.values()){
+			cardinality += chunk.cardinality();
+		}
+		return cardinality;
+	}
+	
+	private long[] words(int key) {
+		long[] words = new long[WORDS];
+		Chunk chunk = chunks.get(key);
+		if(chunk != null){
+			chunk.fill(words);
+		}
+		return words;
+	}
+	
+	private void store(int key, long[] words) {
+		Chunk chunk = Chunk.of(words);
+		if(chunk == null){
+			chunks.remove(key);
+		} else {
+			chunks.put(key, chunk);
+		}
+	}
+	
+	/*
+	 * Serialized format: the number of chunks, then the key, form and content of every chunk. 
+	 * Arrays are a count and the values, runs are a count and the start and length - 1 of every 
+	 * run, bitmaps are the 1024 words.
+	 */
+	
+	/**
+	 * Serialize the set
+	 */
+	byte[] toBytes() {
+		int size = 4;
+		for(Chunk chunk : chunks.values()){
+			size += 3 + chunk.serializedSize();
+		}
+		ByteBuffer out = ByteBuffer.allocate(size);
+		out.putInt(chunks.size());
+		chunks.forEach((key, chunk) -> {
+			out.putChar((char) key.intValue());
+			chunk.write(out);
+		});
+		return out.array();
+	}
+	
+	/**
+	 * Deserialize a set serialized with {@link #toBytes()}
+	 * 
+	 * @param bytes
+	 * 		The serialized set, <code>null</code> for an empty set
+	 */
+	static OrdinalBitmap fromBytes(byte[] bytes) {
+		return bytes == null ? new OrdinalBitmap() : read(ByteBuffer.wrap(bytes));
+	}
+	
+	/**
+	 * Deserialize a set serialized with {@link #toBytes()} from the position of a buffer
+	 */
+	static OrdinalBitmap read(ByteBuffer in) {
+		OrdinalBitmap bitmap = new OrdinalBitmap();
+		int count = in.getInt();
+		for(int i = 0; i < count; i++){
+			int key = in.getChar();
+			byte form = in.get();
+			switch(form){
+			case ARRAY:
+				char[] values = new char[in.getInt()];
+				in.asCharBuffer().get(values);
+				in.position(in.position() + values.length * 2);
+				bitmap.chunks.put(key, new ArrayChunk(values));
+				break;
+			case BITMAP:
+				long[] words = new long[WORDS];
+				in.asLongBuffer().get(words);
+				in.position(in.position() + WORDS * 8);
+				bitmap.chunks.put(key, new BitmapChunk(words));
+				break;
+			case RUNS:
+				char[] runs = new char[in.getInt() * 2];
+				in.asCharBuffer().get(runs);
+				in.position(in.position() + runs.length * 2);
+				bitmap.chunks.put(key, new RunChunk(runs));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown chunk form " + form);
+			}
+		}
+		return bitmap;
+	}
+	
+	/**
+	 * The integers of one chunk
+	 */
+	private abstract static class Chunk {
+		
+		/**
+		 * Store bits in the smallest form, <code>null</code> if no bit is set
+		 */
+		static Chunk of(long[] words) {
+			int cardinality = 0;
+			int runs = 0;
+			long previous = 0;
+			for(long word : words){
+				cardinality += Long.bitCount(word);
+				// A run starts at every set bit whose lower neighbour is not set
+				runs += Long.bitCount(word & ~((word << 1) | (previous >>> 63)));
+				previous = word;
+			}
+			if(cardinality == 0){
+				return null;
+			}
+			int runSize = runs * 4;
+			int arraySize = cardinality * 2;
+			if(runSize < Math.min(arraySize, WORDS * 8)){
+				return RunChunk.of(words, runs);
+			}
+			if(cardinality <= MAX_ARRAY){
+				return ArrayChunk.of(words, cardinality);
+			}
+			return new BitmapChunk(words);
+		}
+		
+		abstract boolean contains(int low);
+		
+		abstract int cardinality();
+		
+		/**
+		 * Set the bits of the integers in a bitmap of the chunk
+		 */
+		abstract void fill(long[] words);
+		
+		abstract int serializedSize();
+		
+		abstract void write(ByteBuffer out);
+	}
+	
+	private static final class ArrayChunk extends Chunk {
+		
+		private final char[] values;
+		
+		ArrayChunk(char[] values) {
+			this.values = values;
+		}
+		
+		static ArrayChunk of(long[] words, int cardinality) {
+			char[] values = new char[cardinality];
+			int i = 0;
+			for(int w = 0; w < words.length; w++){
+				for(long word = words[w]; word != 0; word &= word - 1){
+					values[i++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+				}
+			}
+			return new ArrayChunk(values);
+		}
+
+		@Override
+		boolean contains(int low) {
+			return Arrays.binarySearch(values, (char) low) >= 0;
+		}
+
+		@Override
+		int cardinality() {
+			return values.length;
+		}
+
+		@Override
+		void fill(long[] words) {
+			for(char value : values){
+				words[value >>> 6] |= 1L << value;
+			}
+		}
+
+		@Override
+		int serializedSize() {
+			return 4 + values.length * 2;
+		}
+
+		@Override
+		void write(ByteBuffer out) {
+			out.put(ARRAY).putInt(values.length);
+			for(char value : values){
+				out.putChar(value);
+			}
+		}
+	}
+	
+	private static final class BitmapChunk extends Chunk {
+		
+		private final long[] words;
+		
+		private final int cardinality;
+		
+		BitmapChunk(long[] words) {
+			this.words = words;
+			int count = 0;
+			for(long word : words){
+				count += Long.bitCount(word);
+			}
+			this.cardinality = count;
+		}
+
+		@Override
+		boolean contains(int low) {
+			return (words[low >>> 6] & (1L << low)) != 0;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		void fill(long[] target) {
+			System.arraycopy(words, 0, target, 0, WORDS);
+		}
+
+		@Override
+		int serializedSize() {
+			return WORDS * 8;
+		}
+
+		@Override
+		void write(ByteBuffer out) {
+			out.put(BITMAP);
+			for(long word : words){
+				out.putLong(word);
+			}
+		}
+	}
+	
+	private static final class RunChunk extends Chunk {
+		
+		/*
+		 * Pairs of the start and the length - 1 of the runs, ordered by start
+		 */
+		private final char[] runs;
+		
+		private final int cardinality;
+		
+		RunChunk(char[] runs) {
+			this.runs = runs;
+			int count = 0;
+			for(int i = 1; i < runs.length; i += 2){
+				count += runs[i] + 1;
+			}
+			this.cardinality = count;
+		}
+		
+		static RunChunk of(long[] words, int count) {
+			char[] runs = new char[count * 2];
+			int run = 0;
+			int low = 0;
+			while(low < CHUNK && run < count){
+				int start = nextBit(words, low, true);
+				int end = nextBit(words, start, false);
+				runs[run * 2] = (char) start;
+				runs[run * 2 + 1] = (char) (end - start - 1);
+				run++;
+				low = end;
+			}
+			return new RunChunk(runs);
+		}
+		
+		/**
+		 * Find the next set or clear bit at or after a position, CHUNK if there is none
+		 */
+		private static int nextBit(long[] words, int from, boolean set) {
+			int w = from >>> 6;
+			if(w >= WORDS){
+				return CHUNK;
+			}
+			long word = (set ? words[w] : ~words[w]) & (-1L << from);
+			while(word == 0){
+				if(++w == WORDS){
+					return CHUNK;
+				}
+				word = set ? words[w] : ~words[w];
+			}
+			return w * 64 + Long.numberOfTrailingZeros(word);
+		}
+
+		@Override
+		boolean contains(int low) {
+			int lo = 0;
+			int hi = runs.length / 2 - 1;
+			while(lo <= hi){
+				int mid = (lo + hi) >>> 1;
+				int start = runs[mid * 2];
+				if(low < start){
+					hi = mid - 1;
+				} else if(low > start + runs[mid * 2 + 1]){
+					lo = mid + 1;
+				} else {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		void fill(long[] words) {
+			for(int i = 0; i < runs.length; i += 2){
+				for(int low = runs[i], last = runs[i] + runs[i + 1]; low <= last; low++){
+					words[low >>> 6] |= 1L << low;
+				}
+			}
+		}
+
+		@Override
+		int serializedSize() {
+			return 4 + runs.length * 2;
+		}
+
+		@Override
+		void write(ByteBuffer out) {
+			out.put(RUNS).putInt(runs.length / 2);
+			for(char value : runs){
+				out.putChar(value);
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.Date;
+
+/**
+ * An entry read from a feed document by a {@link FeedParser}
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class ParsedEntry {
+	
+	private final String uri;
+	
+	private final String link;
+	
+	private final String title;
+	
+	private final String content;
+	
+	private final Date published;
+	
+	private final Date updated;
+
+	/**
+	 * Create a new parsed entry
+	 * 
+	 * @param uri
+	 * 		The guid of a RSS item or the id of an Atom entry
+	 * @param link
+	 * 		The link to the online version of the entry
+	 * @param title
+	 * 		The title of the entry
+	 * @param content
+	 * 		The body of the entry
+	 * @param published
+	 * 		The publish date of the entry
+	 * @param updated
+	 * 		The date the entry was last updated
+	 */
+	public ParsedEntry(String uri, String link, String title, String content, Date published, Date updated) {
+		this.uri = uri;
+		this.link = link;
+		this.title = title;
+		this.content = content;
+		this.published = published;
+		this.updated = updated;
+	}
+
+	/**
+	 * Get the guid of a RSS item or the id of an Atom entry. May be <code>null</code>.
+	 */
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * Get the link to the online version of the entry. May be <code>null</code>.
+	 */
+	public String getLink() {
+		return link;
+	}
+
+	/**
+	 * Get the title of the entry. May be <code>null</code>.
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Get the body of the entry, HTML or text. Never <code>null</code>.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * Get the publish date of the entry. May be <code>null</code>.
+	 */
+	public Date getPublished() {
+		return published;
+	}
+
+	/**
+	 * Get the date the entry was last updated. May be <code>null</code>.
+	 */
+	public Date getUpdated() {
+		return updated;
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+/**
+ * The channel level information read from a feed document by a {@link FeedParser}
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class ParsedFeed {
+	
+	private final String title;
+	
+	private final int ttl;
+	
+	private final String skipHours;
+	
+	private final boolean complete;
+
+	/**
+	 * Create a new parsed feed
+	 * 
+	 * @param title
+	 * 		The title of the feed
+	 * @param ttl
+	 * 		The minimum polling interval in minutes declared by the feed, 0 if none
+	 * @param skipHours
+	 * 		Comma separated list of GMT hours the feed should not be polled, <code>null</code> if none
+	 * @param complete
+	 * 		Was the whole document read, or did the parser stop early
+	 */
+	public ParsedFeed(String title, int ttl, String skipHours, boolean complete) {
+		this.title = title;
+		this.ttl = ttl;
+		this.skipHours = skipHours;
+		this.complete = complete;
+	}
+
+	/**
+	 * Get the title of the feed. May be <code>null</code>.
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * Get the minimum polling interval in minutes declared by the feed with the RSS 
+	 * <code>ttl</code> element or the syndication module. 0 if not declared.
+	 */
+	public int getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Get the comma separated GMT hours during which the feed should not be polled.
+	 * <code>null</code> if not declared.
+	 */
+	public String getSkipHours() {
+		return skipHours;
+	}
+
+	/**
+	 * Was the whole document read. <code>false</code> if the entry handler stopped
+	 * the parser early.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.syndication.feed.module.SyModule;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Decides how often a feed is polled.
+ * <p>
+ * The interval starts from half of the observed time between new entries of the feed and
+ * grows while polls keep returning nothing new. It is never shorter than what the publisher
+ * asked for with the RSS <code>ttl</code> or <code>sy:updatePeriod</code> elements or the HTTP 
+ * cache headers, and polls are moved out of the RSS <code>skipHours</code>. Failing feeds back 
+ * off exponentially. A random jitter is applied so feeds do not all fall due at the same time.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class PollingPolicy {
+	
+	private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+	
+	private final long minInterval;
+	
+	private final long maxInterval;
+	
+	private final long defaultInterval;
+	
+	private final double jitter;
+
+	/**
+	 * Create a policy configured with the <code>feedreader.poll.min</code>, 
+	 * <code>feedreader.poll.max</code> and <code>feedreader.poll.default</code> 
+	 * system properties, given in minutes.
+	 */
+	public PollingPolicy() {
+		this(TimeUnit.MINUTES.toMillis(Long.getLong("feedreader.poll.min", 15)),
+			 TimeUnit.MINUTES.toMillis(Long.getLong("feedreader.poll.max", 24 * 60)),
+			 TimeUnit.MINUTES.toMillis(Long.getLong("feedreader.poll.default", 60)),
+			 0.1);
+	}
+	
+	/**
+	 * Create a policy
+	 * 
+	 * @param minInterval
+	 * 		The shortest interval in milliseconds between two polls of a feed
+	 * @param maxInterval
+	 * 		The longest interval in milliseconds between two polls of a feed
+	 * @param defaultInterval
+	 * 		The interval in milliseconds used until the posting frequency of a feed is known
+	 * @param jitter
+	 * 		The maximum random deviation from the interval, as a fraction of the interval
+	 */
+	public PollingPolicy(long minInterval, long maxInterval, long defaultInterval, double jitter) {
+		if(minInterval <= 0 || maxInterval < minInterval){
+			throw new IllegalArgumentException("Invalid polling interval bounds");
+		}
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.defaultInterval = defaultInterval;
+		this.jitter = jitter;
+	}
+	
+	/**
+	 * Get the shortest interval between two polls in milliseconds
+	 */
+	public long getMinInterval() {
+		return minInterval;
+	}
+	
+	/**
+	 * Compute when a feed should be polled next
+	 * 
+	 * @param feed
+	 * 		The feed, with its polling hints
+	 * @param failures
+	 * 		The number of consecutive failed polls
+	 * @param unchanged
+	 * 		The number of consecutive polls which found nothing new
+	 * @param expires
+	 * 		The time until which the server allows the feed to be cached, 0 if unknown
+	 * @param now
+	 * 		The current time
+	 * @return
+	 * 		The time of the next poll in milliseconds
+	 */
+	public long nextPoll(Feed feed, int failures, int unchanged, long expires, long now) {
+		long interval;
+		if(failures > 0){
+			interval = minInterval << Math.min(failures - 1, 20);
+		} else {
+			interval = feed.getPostInterval() > 0 
+					? TimeUnit.SECONDS.toMillis(feed.getPostInterval()) / 2 
+					: defaultInterval;
+			interval = (long) (interval * Math.min(Math.pow(1.5, unchanged), 8));
+			interval = Math.max(interval, TimeUnit.MINUTES.toMillis(feed.getTtl()));
+			interval = Math.max(interval, expires - now);
+		}
+		interval = Math.max(minInterval, Math.min(maxInterval, interval));
+		interval += (long) (interval * jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1));
+		
+		return skip(now + interval, parseHours(feed.getSkipHours()));
+	}
+	
+	/**
+	 * Move a time forward to the first hour not in the given set of GMT hours
+	 */
+	static long skip(long time, Set<Integer> skipHours) {
+		if(skipHours.isEmpty() || skipHours.size() >= 24){
+			return time;
+		}
+		Calendar c = Calendar.getInstance(GMT);
+		c.setTimeInMillis(time);
+		while(skipHours.contains(c.get(Calendar.HOUR_OF_DAY))){
+			c.add(Calendar.HOUR_OF_DAY, 1);
+			c.set(Calendar.MINUTE, 0);
+			c.set(Calendar.SECOND, 0);
+			c.set(Calendar.MILLISECOND, 0);
+		}
+		return c.getTimeInMillis();
+	}
+	
+	/**
+	 * Get the minimum polling interval in minutes declared by a feed with the RSS 
+	 * <code>ttl</code> element or the syndication module <code>updatePeriod</code> and 
+	 * <code>updateFrequency</code> elements.
+	 * 
+	 * @param ttl
+	 * 		The RSS time to live in minutes, 0 if not declared
+	 * @param updatePeriod
+	 * 		The syndication module update period, <code>null</code> if not declared
+	 * @param updateFrequency
+	 * 		The syndication module update frequency, 0 if not declared
+	 * @return
+	 * 		the interval in minutes, 0 if the feed does not declare one
+	 */
+	static int declaredInterval(int ttl, String updatePeriod, int updateFrequency) {
+		int minutes = Math.max(ttl, 0);
+		if(updatePeriod != null){
+			int period = 0;
+			String p = updatePeriod.trim().toLowerCase(Locale.ROOT);
+			if(SyModule.HOURLY.equals(p)){
+				period = 60;
+			} else if(SyModule.DAILY.equals(p)){
+				period = 24 * 60;
+			} else if(SyModule.WEEKLY.equals(p)){
+				period = 7 * 24 * 60;
+			} else if(SyModule.MONTHLY.equals(p)){
+				period = 30 * 24 * 60;
+			} else if(SyModule.YEARLY.equals(p)){
+				period = 365 * 24 * 60;
+			}
+			minutes = Math.max(minutes, period / Math.max(updateFrequency, 1));
+		}
+		return minutes;
+	}
+	
+	/**
+	 * Get the hours the feed should not be polled as declared by the RSS <code>skipHours</code> element
+	 * 
+	 * @param hours
+	 * 		The hours listed in the element
+	 * @return
+	 * 		Comma separated list of hours, or <code>null</code> if the feed does not declare any
+	 */
+	static String skipHours(Collection<?> hours) {
+		if(hours == null){
+			return null;
+		}
+		StringJoiner joined = new StringJoiner(",");
+		for(Object hour : hours){
+			joined.add(String.valueOf(hour).trim());
+		}
+		String value = joined.toString();
+		return value.isEmpty() || value.length() > 100 ? null : value;
+	}
+	
+	/**
+	 * Estimate the average time between entries of a feed from the publish dates 
+	 * of its entries, smoothed with the previous estimate.
+	 * 
+	 * @param previous
+	 * 		The previous estimate in seconds, 0 if none
+	 * @param published
+	 * 		The publish dates of the entries in the feed document
+	 * @return
+	 * 		The new estimate in seconds, or the previous estimate if the dates do not tell anything
+	 */
+	static long estimatePostInterval(long previous, Collection<Date> published) {
+		List<Long> times = new ArrayList<>(published.size());
+		for(Date date : published){
+			if(date != null){
+				times.add(date.getTime());
+			}
+		}
+		if(times.size() < 2){
+			return previous;
+		}
+		
+		Collections.sort(times);
+		long span = times.get(times.size() - 1) - times.get(0);
+		long estimate = TimeUnit.MILLISECONDS.toSeconds(span / (times.size() - 1));
+		if(estimate <= 0){
+			return previous;
+		}
+		return previous <= 0 ? estimate : (previous * 3 + estimate) / 4;
+	}
+	
+	private static Set<Integer> parseHours(String hours) {
+		if(hours == null || hours.isEmpty()){
+			return Collections.emptySet();
+		}
+		Set<Integer> parsed = new HashSet<>();
+		for(String hour : hours.split(",")){
+			try{
+				int h = Integer.parseInt(hour.trim());
+				if(h >= 0 && h < 24){
+					parsed.add(h);
+				}
+			} catch(NumberFormatException e){
+				// Ignore malformed hour
+			}
+		}
+		return parsed;
+	}
+}
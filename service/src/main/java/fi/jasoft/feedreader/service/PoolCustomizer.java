@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import org.eclipse.persistence.config.SessionCustomizer;
+import org.eclipse.persistence.sessions.Session;
+import org.eclipse.persistence.sessions.server.ConnectionPool;
+import org.eclipse.persistence.sessions.server.ServerSession;
+
+/**
+ * Replaces the internal EclipseLink connection pools with {@link InstrumentedConnectionPool}s
+ * so that the time spent waiting for a connection can be reported.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class PoolCustomizer implements SessionCustomizer {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void customize(Session session) throws Exception {
+		if(!(session instanceof ServerSession)){
+			return;
+		}
+		
+		ServerSession server = (ServerSession) session;
+		ConnectionPool write = server.getDefaultConnectionPool();
+		if(write != null && write.getClass() == ConnectionPool.class){
+			server.getConnectionPools().put(ServerSession.DEFAULT_POOL, instrument(write, server));
+		}
+		
+		ConnectionPool read = server.getReadConnectionPool();
+		if(read != null && read.getClass() == ConnectionPool.class){
+			server.setReadConnectionPool(instrument(read, server));
+		}
+	}
+	
+	private static ConnectionPool instrument(ConnectionPool pool, ServerSession server){
+		InstrumentedConnectionPool instrumented = new InstrumentedConnectionPool(
+				pool.getName(), 
+				pool.getLogin(), 
+				pool.getMinNumberOfConnections(), 
+				pool.getMaxNumberOfConnections(), 
+				server);
+		instrumented.setInitialNumberOfConnections(pool.getInitialNumberOfConnections());
+		return instrumented;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.Serializable;
+
+import org.eclipse.persistence.sessions.server.ConnectionPool;
+
+/**
+ * A snapshot of the state of a database connection pool
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class PoolStatistics implements Serializable {
+	
+	private final String name;
+	
+	private final int active;
+	
+	private final int idle;
+	
+	private final int max;
+	
+	private final long acquisitions;
+	
+	private final long totalWaitMillis;
+	
+	private final long maxWaitMillis;
+	
+	PoolStatistics(String name, int active, int idle, int max, long acquisitions, 
+			long totalWaitMillis, long maxWaitMillis) {
+		this.name = name;
+		this.active = active;
+		this.idle = idle;
+		this.max = max;
+		this.acquisitions = acquisitions;
+		this.totalWaitMillis = totalWaitMillis;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+	
+	/**
+	 * Take a snapshot of a connection pool
+	 * 
+	 * @param pool
+	 * 		The pool to read the statistics from
+	 * @return
+	 * 		The statistics of the pool at the time of the call
+	 */
+	static PoolStatistics of(ConnectionPool pool) {
+		synchronized (pool) {
+			int idle = pool.getConnectionsAvailable().size();
+			int active = pool.getTotalNumberOfConnections() - idle;
+			if(pool instanceof InstrumentedConnectionPool){
+				InstrumentedConnectionPool instrumented = (InstrumentedConnectionPool) pool;
+				return new PoolStatistics(pool.getName(), active, idle, pool.getMaxNumberOfConnections(),
+						instrumented.getAcquisitions(), instrumented.getTotalWaitMillis(), 
+						instrumented.getMaxWaitMillis());
+			}
+			return new PoolStatistics(pool.getName(), active, idle, pool.getMaxNumberOfConnections(), 0, 0, 0);
+		}
+	}
+
+	/**
+	 * Get the name of the pool
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the number of connections in use
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	/**
+	 * Get the number of open connections not in use
+	 */
+	public int getIdle() {
+		return idle;
+	}
+
+	/**
+	 * Get the maximum number of connections the pool can open
+	 */
+	public int getMax() {
+		return max;
+	}
+
+	/**
+	 * Get the number of connections acquired from the pool since startup
+	 */
+	public long getAcquisitions() {
+		return acquisitions;
+	}
+
+	/**
+	 * Get the total time in milliseconds callers have waited for a connection
+	 */
+	public long getTotalWaitMillis() {
+		return totalWaitMillis;
+	}
+
+	/**
+	 * Get the longest time in milliseconds a caller has waited for a connection
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+	
+	/**
+	 * Get the average time in milliseconds callers have waited for a connection
+	 */
+	public double getAverageWaitMillis() {
+		return acquisitions == 0 ? 0 : (double) totalWaitMillis / acquisitions;
+	}
+
+	@Override
+	public String toString() {
+		return name + "[active=" + active + ", idle=" + idle + ", max=" + max 
+				+ ", acquisitions=" + acquisitions + ", totalWait=" + totalWaitMillis 
+				+ "ms, maxWait=" + maxWaitMillis + "ms]";
+	}
+}
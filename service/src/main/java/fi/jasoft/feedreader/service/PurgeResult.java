@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of purging the entries exceeding the retention limits of the feeds
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class PurgeResult implements Serializable {
+	
+	private final int entries;
+	
+	private final int feeds;
+	
+	private final long sizeBefore;
+	
+	private final long sizeAfter;
+	
+	private final long durationMillis;
+	
+	PurgeResult(int entries, int feeds, long sizeBefore, long sizeAfter, long durationMillis) {
+		this.entries = entries;
+		this.feeds = feeds;
+		this.sizeBefore = sizeBefore;
+		this.sizeAfter = sizeAfter;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * Get the number of deleted entries
+	 */
+	public int getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Get the number of feeds entries were deleted from
+	 */
+	public int getFeeds() {
+		return feeds;
+	}
+
+	/**
+	 * Get the size in bytes of the database files before the purge, 
+	 * -1 if the database is not stored in files
+	 */
+	public long getSizeBefore() {
+		return sizeBefore;
+	}
+
+	/**
+	 * Get the size in bytes of the database files after the purge and compaction, 
+	 * -1 if the database is not stored in files
+	 */
+	public long getSizeAfter() {
+		return sizeAfter;
+	}
+	
+	/**
+	 * Get the number of bytes the database files shrank by, 0 if not known
+	 */
+	public long getReclaimedBytes() {
+		return sizeBefore < 0 || sizeAfter < 0 ? 0 : sizeBefore - sizeAfter;
+	}
+
+	/**
+	 * Get how long the purge took
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries of %d feeds purged in %dms, %d bytes reclaimed", 
+				entries, feeds, durationMillis, getReclaimedBytes());
+	}
+}
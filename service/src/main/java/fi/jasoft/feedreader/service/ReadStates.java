@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.persistence.EntityManager;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Stores which entries of a feed have been read as an {@link OrdinalBitmap} of entry ordinals 
+ * in the <code>READBITS</code> column of the feed.
+ * <p>
+ * Entries are numbered in the order they are stored, the <code>NEXTORDINAL</code> column of 
+ * the feed holds the next free number. The ordinals of deleted entries are added to the bitmap 
+ * as well, so the number of unread entries is always the next ordinal minus the size of the 
+ * bitmap. It is kept in the <code>UNREADCOUNT</code> column and only ever changed relative to 
+ * its current value in the same transaction as the change causing it, so listing feeds with 
+ * their unread counts reads one column and a synchronization storing entries never has to 
+ * wait for the bitmap.
+ * <p>
+ * The bitmap of a feed is read, changed and written back while holding the lock of the feed.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+final class ReadStates {
+	
+	private static final Lock[] LOCKS = new Lock[64];
+	
+	static {
+		for(int i = 0; i < LOCKS.length; i++){
+			LOCKS[i] = new ReentrantLock();
+		}
+	}
+	
+	private ReadStates() {
+		// Only static access
+	}
+	
+	/**
+	 * Get the lock to hold while changing the read entries of a feed
+	 */
+	static Lock lock(long feedId) {
+		return LOCKS[(int) ((feedId ^ (feedId >>> 32)) & (LOCKS.length - 1))];
+	}
+	
+	/**
+	 * Reserve ordinals for new unread entries of a feed. Has to be called within the 
+	 * transaction storing the entries, the lock of the feed is not needed.
+	 * 
+	 * @param feedId
+	 * 		The id of the feed
+	 * @param count
+	 * 		The number of entries
+	 * @param em
+	 * 		The entity manager of the transaction
+	 * @return
+	 * 		The first reserved ordinal
+	 */
+	static int reserve(long feedId, int count, EntityManager em) {
+		em.createNativeQuery("UPDATE FEED SET NEXTORDINAL = NEXTORDINAL + ?1, "
+				+ "UNREADCOUNT = UNREADCOUNT + ?1 WHERE ID = ?2")
+			.setParameter(1, count)
+			.setParameter(2, feedId)
+			.executeUpdate();
+		Number next = (Number) em.createNativeQuery("SELECT NEXTORDINAL FROM FEED WHERE ID = ?1")
+			.setParameter(1, feedId)
+			.getSingleResult();
+		return next.intValue() - count;
+	}
+	
+	/**
+	 * Load the bitmap of the read entries of a feed
+	 */
+	static OrdinalBitmap load(long feedId, EntityManager em) {
+		Object bits = em.createNativeQuery("SELECT READBITS FROM FEED WHERE ID = ?1")
+			.setParameter(1, feedId)
+			.getSingleResult();
+		return OrdinalBitmap.fromBytes(bits instanceof byte[] ? (byte[]) bits : null);
+	}
+	
+	/**
+	 * Store the bitmap of the read entries of a feed within the current transaction
+	 * 
+	 * @param feedId
+	 * 		The id of the feed
+	 * @param bits
+	 * 		The changed bitmap
+	 * @param read
+	 * 		The number of entries marked read by the change, negative if entries were marked unread
+	 * @param em
+	 * 		The entity manager of the transaction
+	 */
+	static void store(long feedId, OrdinalBitmap bits, int read, EntityManager em) {
+		em.createNativeQuery("UPDATE FEED SET READBITS = ?1, UNREADCOUNT = UNREADCOUNT - ?2 WHERE ID = ?3")
+			.setParameter(1, bits.toBytes())
+			.setParameter(2, read)
+			.setParameter(3, feedId)
+			.executeUpdate();
+	}
+	
+	/**
+	 * Mark an entry read or unread
+	 * 
+	 * @param feedId
+	 * 		The feed of the entry
+	 * @param ordinal
+	 * 		The ordinal of the entry
+	 * @param read
+	 * 		Is the entry read
+	 * @return
+	 * 		<code>true</code> if the state of the entry changed
+	 */
+	static boolean setRead(long feedId, int ordinal, boolean read) {
+		return update(feedId, (bits, next) -> {
+			if(ordinal >= next){
+				return 0;
+			}
+			if(read){
+				return bits.add(ordinal) ? 1 : 0;
+			}
+			return bits.remove(ordinal) ? -1 : 0;
+		}) != 0;
+	}
+	
+	/**
+	 * Mark all entries of a feed read
+	 * 
+	 * @return
+	 * 		The number of entries which were unread
+	 */
+	static int markAllRead(long feedId) {
+		return update(feedId, (bits, next) -> bits.addRange(0, next));
+	}
+	
+	/**
+	 * Mark the ordinals of entries about to be deleted read, within the transaction deleting 
+	 * them. The caller holds the lock of the feed until the transaction ends.
+	 * 
+	 * @param feedId
+	 * 		The feed of the entries
+	 * @param ordinals
+	 * 		The ordinals of the entries
+	 * @param em
+	 * 		The entity manager of the transaction
+	 */
+	static void retire(long feedId, Collection<Integer> ordinals, EntityManager em) {
+		if(ordinals.isEmpty()){
+			return;
+		}
+		OrdinalBitmap bits = load(feedId, em);
+		int read = bits.addAll(ordinals);
+		if(read > 0){
+			store(feedId, bits, read, em);
+		}
+	}
+	
+	/**
+	 * Change the bitmap of a feed in a transaction of its own
+	 * 
+	 * @return
+	 * 		The number of entries marked read by the change
+	 */
+	private static int update(long feedId, Change change) {
+		Lock lock = lock(feedId);
+		lock.lock();
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			em.getTransaction().begin();
+			List<?> next = em.createNativeQuery("SELECT NEXTORDINAL FROM FEED WHERE ID = ?1")
+				.setParameter(1, feedId)
+				.getResultList();
+			if(next.isEmpty()){
+				// Removed meanwhile
+				em.getTransaction().rollback();
+				return 0;
+			}
+			OrdinalBitmap bits = load(feedId, em);
+			int read = change.apply(bits, ((Number) next.get(0)).intValue());
+			if(read == 0){
+				em.getTransaction().rollback();
+				return 0;
+			}
+			store(feedId, bits, read, em);
+			em.getTransaction().commit();
+			
+			// The cached feed has the old unread count
+			em.getEntityManagerFactory().getCache().evict(Feed.class, feedId);
+			return read;
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * A change to the read entries of a feed
+	 */
+	@FunctionalInterface
+	private interface Change {
+		
+		/**
+		 * Change the bitmap
+		 * 
+		 * @param bits
+		 * 		The read ordinals
+		 * @param next
+		 * 		The next free ordinal
+		 * @return
+		 * 		The number of entries marked read, negative if entries were marked unread
+		 */
+		int apply(OrdinalBitmap bits, int next);
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Decides how many and how old entries are kept for a feed.
+ * <p>
+ * Every feed can limit the number of its entries and their age, and whether starred entries 
+ * are kept regardless of the limits. Feeds which do not set a limit use the defaults of the 
+ * policy. Starred entries that are kept do not count towards the entry limit.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class RetentionPolicy {
+	
+	private final int maxEntries;
+	
+	private final int maxAge;
+	
+	private final boolean keepStarred;
+	
+	/**
+	 * Create a policy configured with the <code>feedreader.retention.maxEntries</code>, 
+	 * <code>feedreader.retention.maxAge</code> (in days) and <code>feedreader.retention.keepStarred</code>
+	 * system properties. By default entries are kept forever.
+	 */
+	public RetentionPolicy() {
+		this(Integer.getInteger("feedreader.retention.maxEntries", 0),
+			 Integer.getInteger("feedreader.retention.maxAge", 0),
+			 Boolean.parseBoolean(System.getProperty("feedreader.retention.keepStarred", "true")));
+	}
+	
+	/**
+	 * Create a policy
+	 * 
+	 * @param maxEntries
+	 * 		The default maximum number of entries of a feed, 0 or negative for no limit
+	 * @param maxAge
+	 * 		The default maximum age of entries in days, 0 or negative for no limit
+	 * @param keepStarred
+	 * 		Are starred entries kept by default
+	 */
+	public RetentionPolicy(int maxEntries, int maxAge, boolean keepStarred) {
+		this.maxEntries = maxEntries;
+		this.maxAge = maxAge;
+		this.keepStarred = keepStarred;
+	}
+	
+	/**
+	 * Get the maximum number of entries kept for a feed
+	 * 
+	 * @param feed
+	 * 		The feed
+	 * @return
+	 * 		The number of entries, 0 if not limited
+	 */
+	public int maxEntries(Feed feed) {
+		int limit = feed.getMaxEntries() != 0 ? feed.getMaxEntries() : maxEntries;
+		return Math.max(limit, 0);
+	}
+	
+	/**
+	 * Get the publish date before which entries of a feed are purged
+	 * 
+	 * @param feed
+	 * 		The feed
+	 * @param now
+	 * 		The current time
+	 * @return
+	 * 		The date or <code>null</code> if the age of the entries is not limited
+	 */
+	public Date cutoff(Feed feed, long now) {
+		int days = feed.getMaxAge() != 0 ? feed.getMaxAge() : maxAge;
+		return days > 0 ? new Date(now - TimeUnit.DAYS.toMillis(days)) : null;
+	}
+	
+	/**
+	 * Are starred entries of a feed kept regardless of the limits
+	 * 
+	 * @param feed
+	 * 		The feed
+	 */
+	public boolean keepStarred(Feed feed) {
+		return feed.getKeepStarred() != null ? feed.getKeepStarred() : keepStarred;
+	}
+	
+	/**
+	 * Does the policy limit the entries of a feed at all
+	 * 
+	 * @param feed
+	 * 		The feed
+	 */
+	public boolean isLimited(Feed feed) {
+		return maxEntries(feed) > 0 || cutoff(feed, 0) != null;
+	}
+	
+	/**
+	 * Get the publish date before which new entries of a feed would be purged right away, 
+	 * either because they are too old or because the feed is full of newer entries. 
+	 * Synchronization skips such entries instead of storing them again after every purge.
+	 * 
+	 * @param feed
+	 * 		The feed
+	 * @param em
+	 * 		The entity manager to look up the stored entries with
+	 * @return
+	 * 		The date or <code>null</code> if every new entry is kept
+	 */
+	Date floor(Feed feed, EntityManager em) {
+		int limit = maxEntries(feed);
+		Date oldestKept = null;
+		if(limit > 0 && feed.getEntryCount() >= limit){
+			List<Date> oldest = em.createQuery("SELECT e.published FROM FeedEntry e WHERE e.feed.id = :feed "
+					+ (keepStarred(feed) ? "AND e.starred = false " : "")
+					+ "ORDER BY e.published DESC, e.id DESC", Date.class)
+					.setParameter("feed", feed.getId())
+					.setFirstResult(limit - 1)
+					.setMaxResults(1)
+					.getResultList();
+			oldestKept = oldest.isEmpty() ? null : oldest.get(0);
+		}
+		return floor(feed, oldestKept);
+	}
+	
+	/**
+	 * Get the publish date before which new entries of a feed would be purged right away
+	 * 
+	 * @param feed
+	 * 		The feed
+	 * @param oldestKept
+	 * 		The publish date of the oldest entry kept by the entry limit if the feed is full, 
+	 * 		otherwise <code>null</code>
+	 * @return
+	 * 		The date or <code>null</code> if every new entry is kept
+	 */
+	Date floor(Feed feed, Date oldestKept) {
+		Date floor = cutoff(feed, System.currentTimeMillis());
+		if(oldestKept != null && (floor == null || oldestKept.after(floor))){
+			floor = oldestKept;
+		}
+		return floor;
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Deletes the entries exceeding the limits of a {@link RetentionPolicy} and compacts the database.
+ * <p>
+ * Entries are deleted in small batches, each in its own transaction, so that synchronizations 
+ * and readers are never blocked for long. Once entries have been deleted the database is 
+ * checkpointed and defragmented to give the space back to the file system.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+class RetentionPurge {
+	
+	private static final Logger LOGGER = Logger.getLogger(RetentionPurge.class.getName());
+	
+	private static final int BATCH_SIZE = Integer.getInteger("feedreader.retention.batch", 200);
+	
+	private static final int FEED_PAGE = 100;
+	
+	private final RetentionPolicy policy;
+	
+	private final SearchIndex index;
+	
+	private final FeedChangeListener listener;
+	
+	/**
+	 * Create a purge
+	 * 
+	 * @param policy
+	 * 		The limits to purge entries by
+	 * @param index
+	 * 		The index to remove deleted entries from, or <code>null</code>
+	 * @param listener
+	 * 		Notified of every feed entries were deleted from
+	 */
+	RetentionPurge(RetentionPolicy policy, SearchIndex index, FeedChangeListener listener) {
+		this.policy = policy;
+		this.index = index;
+		this.listener = listener;
+	}
+	
+	/**
+	 * Purge the entries of all feeds. Stops early if the calling thread is interrupted.
+	 * 
+	 * @return
+	 * 		The number of deleted entries and the space reclaimed
+	 */
+	PurgeResult purge() {
+		long start = System.currentTimeMillis();
+		long sizeBefore = FeedPersistence.getDatabaseSize();
+		int entries = 0;
+		int feeds = 0;
+		
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			long lastId = Long.MIN_VALUE;
+			List<Feed> page;
+			do {
+				page = em.createQuery("SELECT f FROM Feed f WHERE f.id > :last ORDER BY f.id", Feed.class)
+						.setParameter("last", lastId)
+						.setMaxResults(FEED_PAGE)
+						.getResultList();
+				for(Feed feed : page){
+					lastId = feed.getId();
+					if(Thread.currentThread().isInterrupted()){
+						break;
+					}
+					if(policy.isLimited(feed)){
+						int deleted = purge(feed, em);
+						if(deleted > 0){
+							entries += deleted;
+							feeds++;
+							listener.feedChanged(feed.getId());
+						}
+					}
+				}
+				em.clear();
+			} while(page.size() == FEED_PAGE && !Thread.currentThread().isInterrupted());
+			
+			if(entries > 0){
+				FeedPersistence.compact();
+			}
+		} catch(RuntimeException e){
+			LOGGER.log(Level.WARNING, "Retention purge stopped after " + entries + " entries", e);
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+		
+		PurgeResult result = new PurgeResult(entries, feeds, sizeBefore, 
+				entries > 0 ? FeedPersistence.getDatabaseSize() : sizeBefore, 
+				System.currentTimeMillis() - start);
+		if(entries > 0){
+			LOGGER.info(result.toString());
+		}
+		return result;
+	}
+	
+	/**
+	 * Delete the entries of a feed exceeding its limits
+	 * 
+	 * @return
+	 * 		The number of deleted entries
+	 */
+	private int purge(Feed feed, EntityManager em) {
+		String unstarred = policy.keepStarred(feed) ? "AND e.starred = false " : "";
+		int deleted = 0;
+		
+		Date cutoff = policy.cutoff(feed, System.currentTimeMillis());
+		if(cutoff != null){
+			List<Long> ids;
+			do {
+				ids = em.createQuery("SELECT e.id FROM FeedEntry e WHERE e.feed.id = :feed " 
+						+ "AND e.published < :cutoff " + unstarred + "ORDER BY e.id", Long.class)
+						.setParameter("feed", feed.getId())
+						.setParameter("cutoff", cutoff)
+						.setMaxResults(BATCH_SIZE)
+						.getResultList();
+				deleted += delete(feed.getId(), ids, em);
+			} while(ids.size() == BATCH_SIZE);
+		}
+		
+		int limit = policy.maxEntries(feed);
+		if(limit > 0 && feed.getEntryCount() - deleted > limit){
+			List<Long> ids;
+			do {
+				// Everything after the newest entries allowed, the deleted rows shift out of the offset
+				ids = em.createQuery("SELECT e.id FROM FeedEntry e WHERE e.feed.id = :feed " 
+						+ unstarred + "ORDER BY e.published DESC, e.id DESC", Long.class)
+						.setParameter("feed", feed.getId())
+						.setFirstResult(limit)
+						.setMaxResults(BATCH_SIZE)
+						.getResultList();
+				deleted += delete(feed.getId(), ids, em);
+			} while(ids.size() == BATCH_SIZE);
+		}
+		
+		if(deleted > 0){
+			em.getTransaction().begin();
+			long count = em.createQuery("SELECT COUNT(e) FROM FeedEntry e WHERE e.feed.id = :feed", Long.class)
+					.setParameter("feed", feed.getId())
+					.getSingleResult();
+			em.createQuery("UPDATE Feed f SET f.entryCount = :count WHERE f.id = :feed")
+					.setParameter("count", (int) count)
+					.setParameter("feed", feed.getId())
+					.executeUpdate();
+			em.getTransaction().commit();
+		}
+		return deleted;
+	}
+	
+	/**
+	 * Delete entries of a feed and mark them read, so the unread count of the feed stays 
+	 * the number of its unread ordinals
+	 */
+	private int delete(long feedId, List<Long> ids, EntityManager em) {
+		if(ids.isEmpty()){
+			return 0;
+		}
+		int deleted;
+		Lock lock = ReadStates.lock(feedId);
+		lock.lock();
+		try{
+			em.getTransaction().begin();
+			List<Integer> ordinals = em.createQuery("SELECT e.ordinal FROM FeedEntry e "
+					+ "WHERE e.id IN :ids AND e.ordinal IS NOT NULL", Integer.class)
+					.setParameter("ids", ids)
+					.getResultList();
+			ReadStates.retire(feedId, ordinals, em);
+			deleted = em.createQuery("DELETE FROM FeedEntry e WHERE e.id IN :ids")
+					.setParameter("ids", ids)
+					.executeUpdate();
+			em.getTransaction().commit();
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			lock.unlock();
+		}
+		em.getEntityManagerFactory().getCache().evict(Feed.class, feedId);
+		if(index != null){
+			for(Long id : ids){
+				index.remove(id);
+			}
+		}
+		return deleted;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Predicate;
+
+import com.sun.syndication.feed.WireFeed;
+import com.sun.syndication.feed.module.SyModule;
+import com.sun.syndication.feed.rss.Channel;
+import com.sun.syndication.feed.synd.SyndContent;
+import com.sun.syndication.feed.synd.SyndEntry;
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.feed.synd.SyndFeedImpl;
+import com.sun.syndication.io.FeedException;
+import com.sun.syndication.io.WireFeedInput;
+import com.sun.syndication.io.XmlReader;
+
+/**
+ * A {@link FeedParser} using Rome. Supports every format Rome supports but builds
+ * the whole document in memory before handing out the first entry.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class RomeFeedParser implements FeedParser {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ParsedFeed parse(InputStream in, String contentType, Predicate<ParsedEntry> handler) 
+			throws IOException, FeedException {
+		WireFeed wire = new WireFeedInput().build(contentType != null 
+				? new XmlReader(in, contentType) 
+				: new XmlReader(in));
+		SyndFeed feed = new SyndFeedImpl(wire);
+		
+		int ttl = 0;
+		String skipHours = null;
+		if(wire instanceof Channel){
+			ttl = ((Channel) wire).getTtl();
+			skipHours = PollingPolicy.skipHours(((Channel) wire).getSkipHours());
+		}
+		
+		SyModule sy = (SyModule) feed.getModule(SyModule.URI);
+		if(sy != null){
+			ttl = PollingPolicy.declaredInterval(ttl, sy.getUpdatePeriod(), sy.getUpdateFrequency());
+		}
+		
+		boolean complete = true;
+		// Rome returns raw lists
+		for(Object item : feed.getEntries()){
+			SyndEntry e = (SyndEntry) item;
+			ParsedEntry entry = new ParsedEntry(e.getUri(), e.getLink(), e.getTitle(), contentOf(e), 
+					e.getPublishedDate(), e.getUpdatedDate());
+			if(!handler.test(entry)){
+				complete = false;
+				break;
+			}
+		}
+		return new ParsedFeed(feed.getTitle(), Math.max(ttl, 0), skipHours, complete);
+	}
+	
+	/**
+	 * Get the body of an entry. Uses the description if available, otherwise 
+	 * the concatenated contents.
+	 */
+	private static String contentOf(SyndEntry e) {
+		if (e.getDescription() != null && e.getDescription().getValue() != null) {
+			return e.getDescription().getValue();
+		}
+		StringBuilder content = new StringBuilder();
+		for (Object item : e.getContents()) {
+			SyndContent c = (SyndContent) item;
+			if(c.getValue() != null){
+				content.append(c.getValue());
+			}
+		}
+		return content.toString();
+	}
+}
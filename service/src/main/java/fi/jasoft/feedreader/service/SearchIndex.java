@@ -0,0 +1,671 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.persistence.EntityManager;
+
+import fi.jasoft.feedreader.data.EntrySummary;
+import fi.jasoft.feedreader.data.FeedEntry;
+
+/**
+ * An in-process inverted index over the titles and bodies of feed entries.
+ * <p>
+ * Entry bodies are stripped of HTML and split into lower case terms. Every term maps to the 
+ * entries containing it, and queries are ranked with BM25, terms in the title weighing more 
+ * than terms in the body. The last term of a query also matches as a prefix so the index 
+ * can be used while typing.
+ * <p>
+ * Changes are appended to a log file as they are made, and the index is read back from the 
+ * log on startup instead of being rebuilt from the database. The log is rewritten without 
+ * the removed entries once it has grown to twice the size of the index.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class SearchIndex {
+	
+	private static final Logger LOGGER = Logger.getLogger(SearchIndex.class.getName());
+	
+	private static final File DEFAULT_FILE = new File(
+			System.getProperty("feedreader.search.file", "/tmp/feed-reader/search.idx"));
+	
+	private static final Pattern TAGS = Pattern.compile("<[^>]*>");
+	
+	private static final Pattern ENTITIES = Pattern.compile("&(#\\d+|#x[0-9a-fA-F]+|[a-zA-Z]+);");
+	
+	private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+	
+	private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+			"a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is", "it", 
+			"of", "on", "or", "that", "the", "this", "to", "was", "with"));
+	
+	/*
+	 * Terms in the title count this many times
+	 */
+	private static final int TITLE_WEIGHT = 3;
+	
+	/*
+	 * Maximum number of terms a prefix expands to
+	 */
+	private static final int MAX_PREFIX_TERMS = 64;
+	
+	/*
+	 * BM25 parameters
+	 */
+	private static final double K1 = 1.2;
+	
+	private static final double B = 0.75;
+	
+	/*
+	 * Strings of at most this many characters always fit in the 65535 bytes of modified 
+	 * UTF-8 DataOutput.writeUTF accepts, longer titles are truncated and longer terms dropped
+	 */
+	private static final int MAX_STRING_LENGTH = 65535 / 3;
+	
+	/*
+	 * Log record types
+	 */
+	private static final byte ADD = 1;
+	
+	private static final byte REMOVE = 2;
+	
+	private static final byte REMOVE_FEED = 3;
+	
+	private static SearchIndex defaultIndex;
+	
+	private final File file;
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private final Map<Long, Document> documents = new HashMap<>();
+	
+	private final NavigableMap<String, Map<Long, Integer>> postings = new TreeMap<>();
+	
+	private long totalLength;
+	
+	private int logRecords;
+	
+	private DataOutputStream log;
+	
+	/**
+	 * Create an index stored in a file. Reads the entries already stored in the file.
+	 * 
+	 * @param file
+	 * 		The file to store the index in
+	 */
+	public SearchIndex(File file) {
+		this.file = file;
+		load();
+	}
+	
+	/**
+	 * Get the application wide index, stored in the file given by the 
+	 * <code>feedreader.search.file</code> system property
+	 */
+	public static synchronized SearchIndex getDefault() {
+		if(defaultIndex == null){
+			defaultIndex = new SearchIndex(DEFAULT_FILE);
+		}
+		return defaultIndex;
+	}
+	
+	/**
+	 * Close the application wide index, if it has been opened
+	 */
+	public static synchronized void closeDefault() {
+		if(defaultIndex != null){
+			defaultIndex.close();
+			defaultIndex = null;
+		}
+	}
+	
+	/**
+	 * Add an entry to the index, replacing the entry if it already has been indexed
+	 * 
+	 * @param entry
+	 * 		The stored entry
+	 */
+	public void add(FeedEntry entry) {
+		Document document = new Document(entry.getId(), entry.getFeed().getId(), entry.getTitle(), 
+				entry.getPublished() == null ? 0 : entry.getPublished().getTime(), 
+				terms(entry.getTitle(), entry.getContent()));
+		lock.writeLock().lock();
+		try{
+			put(document);
+			append(document);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Remove an entry from the index
+	 * 
+	 * @param entryId
+	 * 		The id of the entry
+	 */
+	public void remove(long entryId) {
+		lock.writeLock().lock();
+		try{
+			if(delete(entryId)){
+				appendRemove(REMOVE, entryId);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Remove all entries of a feed from the index
+	 * 
+	 * @param feedId
+	 * 		The id of the feed
+	 */
+	public void removeFeed(long feedId) {
+		lock.writeLock().lock();
+		try{
+			deleteFeed(feedId);
+			appendRemove(REMOVE_FEED, feedId);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Find the entries best matching a query
+	 * 
+	 * @param query
+	 * 		The words to search for. All of them have to match, the last one also as a prefix.
+	 * @param limit
+	 * 		The maximum number of entries to return
+	 * @return
+	 * 		The matching entries, best match first
+	 */
+	public List<EntrySummary> search(String query, int limit) {
+		List<String> terms = tokenize(query, true);
+		if(terms.isEmpty() || limit <= 0){
+			return Collections.emptyList();
+		}
+		
+		lock.readLock().lock();
+		try{
+			// Postings of each query term, the last term expanded by prefix
+			List<Map<Long, Integer>> termPostings = new ArrayList<>(terms.size());
+			for(int i = 0; i < terms.size(); i++){
+				Map<Long, Integer> matches = i == terms.size() - 1 
+						? prefixPostings(terms.get(i)) 
+						: postings.get(terms.get(i));
+				if(matches == null || matches.isEmpty()){
+					return Collections.emptyList();
+				}
+				termPostings.add(matches);
+			}
+			
+			// Drive the intersection from the rarest term
+			Map<Long, Integer> rarest = Collections.min(termPostings, (a, b) -> a.size() - b.size());
+			double averageLength = documents.isEmpty() ? 1 : (double) totalLength / documents.size();
+			
+			PriorityQueue<Scored> best = new PriorityQueue<>();
+			candidates:
+			for(Long id : rarest.keySet()){
+				Document document = documents.get(id);
+				double score = 0;
+				for(Map<Long, Integer> matches : termPostings){
+					Integer frequency = matches.get(id);
+					if(frequency == null){
+						continue candidates;
+					}
+					double idf = Math.log(1 + (documents.size() - matches.size() + 0.5) / (matches.size() + 0.5));
+					score += idf * frequency * (K1 + 1) 
+							/ (frequency + K1 * (1 - B + B * document.length / averageLength));
+				}
+				best.add(new Scored(document, score));
+				if(best.size() > limit){
+					best.poll();
+				}
+			}
+			
+			List<EntrySummary> results = new ArrayList<>(best.size());
+			while(!best.isEmpty()){
+				Document document = best.poll().document;
+				results.add(new EntrySummary(document.id, document.title, 
+						document.published == 0 ? null : new Date(document.published)));
+			}
+			Collections.reverse(results);
+			return results;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get the number of indexed entries
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try{
+			return documents.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Add the stored entries of a feed which are not indexed yet, for example entries stored 
+	 * by another process sharing the database
+	 * 
+	 * @param feedId
+	 * 		The id of the feed
+	 * @param em
+	 * 		The entity manager to load the entries with
+	 * @return
+	 * 		The number of added entries
+	 */
+	public int addMissing(long feedId, EntityManager em) {
+		List<Long> missing = new ArrayList<>();
+		List<Long> stored = em.createQuery("SELECT e.id FROM FeedEntry e WHERE e.feed.id = :feed", Long.class)
+				.setParameter("feed", feedId)
+				.getResultList();
+		lock.readLock().lock();
+		try{
+			for(Long id : stored){
+				if(!documents.containsKey(id)){
+					missing.add(id);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		
+		for(int i = 0; i < missing.size(); i += 500){
+			em.createQuery("SELECT e FROM FeedEntry e WHERE e.id IN :ids", FeedEntry.class)
+				.setParameter("ids", missing.subList(i, Math.min(missing.size(), i + 500)))
+				.getResultList()
+				.forEach(this::add);
+			em.clear();
+		}
+		return missing.size();
+	}
+	
+	/**
+	 * Rebuild the index from the database if it does not contain the same number of entries 
+	 * as the database, for example because the index file was lost.
+	 * 
+	 * @return
+	 * 		<code>true</code> if the index was rebuilt
+	 */
+	public boolean rebuildIfStale() {
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			long stored = em.createQuery("SELECT COUNT(e) FROM FeedEntry e", Number.class)
+					.getSingleResult().longValue();
+			if(stored == size()){
+				return false;
+			}
+			
+			long start = System.currentTimeMillis();
+			clear();
+			long lastId = -1;
+			while(true){
+				List<FeedEntry> batch = em.createQuery("SELECT e FROM FeedEntry e WHERE e.id > :last "
+						+ "ORDER BY e.id", FeedEntry.class)
+						.setParameter("last", lastId)
+						.setMaxResults(500)
+						.getResultList();
+				if(batch.isEmpty()){
+					break;
+				}
+				for(FeedEntry entry : batch){
+					add(entry);
+					lastId = entry.getId();
+				}
+				em.clear();
+			}
+			LOGGER.info("Indexed " + size() + " entries in " + (System.currentTimeMillis() - start) + "ms");
+			return true;
+		} finally {
+			em.close();
+		}
+	}
+	
+	/**
+	 * Rewrite the index file without removed entries and close it
+	 */
+	public void close() {
+		lock.writeLock().lock();
+		try{
+			compact();
+			closeLog();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Split text into index terms. HTML tags and entities are removed, and the 
+	 * terms are lower cased.
+	 * 
+	 * @param text
+	 * 		The text to split, can be <code>null</code>
+	 * @param stopWords
+	 * 		Should common words be left out
+	 * @return
+	 * 		The terms in the order they appear in the text
+	 */
+	static List<String> tokenize(String text, boolean stopWords) {
+		if(text == null || text.isEmpty()){
+			return Collections.emptyList();
+		}
+		String plain = ENTITIES.matcher(TAGS.matcher(text).replaceAll(" ")).replaceAll(" ");
+		List<String> terms = new ArrayList<>();
+		for(String term : SEPARATORS.split(plain.toLowerCase(Locale.ROOT))){
+			if(!term.isEmpty() && !(stopWords && STOP_WORDS.contains(term))){
+				terms.add(term);
+			}
+		}
+		return terms;
+	}
+	
+	private static Map<String, Integer> terms(String title, String content) {
+		Map<String, Integer> terms = new HashMap<>();
+		for(String term : tokenize(title, true)){
+			terms.merge(term, TITLE_WEIGHT, Integer::sum);
+		}
+		for(String term : tokenize(content, true)){
+			terms.merge(term, 1, Integer::sum);
+		}
+		return terms;
+	}
+	
+	private Map<Long, Integer> prefixPostings(String prefix) {
+		Map<Long, Integer> exact = postings.get(prefix);
+		Map<Long, Integer> merged = exact == null ? new HashMap<>() : new HashMap<>(exact);
+		int expanded = 0;
+		for(Map.Entry<String, Map<Long, Integer>> e : postings.tailMap(prefix, false).entrySet()){
+			if(!e.getKey().startsWith(prefix) || ++expanded > MAX_PREFIX_TERMS){
+				break;
+			}
+			for(Map.Entry<Long, Integer> posting : e.getValue().entrySet()){
+				merged.merge(posting.getKey(), posting.getValue(), Integer::sum);
+			}
+		}
+		return merged;
+	}
+	
+	private void put(Document document) {
+		delete(document.id);
+		documents.put(document.id, document);
+		totalLength += document.length;
+		for(Map.Entry<String, Integer> term : document.terms.entrySet()){
+			postings.computeIfAbsent(term.getKey(), t -> new HashMap<>()).put(document.id, term.getValue());
+		}
+	}
+	
+	private boolean delete(long id) {
+		Document document = documents.remove(id);
+		if(document == null){
+			return false;
+		}
+		totalLength -= document.length;
+		for(String term : document.terms.keySet()){
+			Map<Long, Integer> matches = postings.get(term);
+			if(matches != null){
+				matches.remove(id);
+				if(matches.isEmpty()){
+					postings.remove(term);
+				}
+			}
+		}
+		return true;
+	}
+	
+	private void deleteFeed(long feedId) {
+		List<Long> ids = new ArrayList<>();
+		for(Document document : documents.values()){
+			if(document.feedId == feedId){
+				ids.add(document.id);
+			}
+		}
+		ids.forEach(this::delete);
+	}
+	
+	private void clear() {
+		lock.writeLock().lock();
+		try{
+			documents.clear();
+			postings.clear();
+			totalLength = 0;
+			compact();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Read the log file, applying its records in order
+	 */
+	private void load() {
+		if(!file.exists()){
+			return;
+		}
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+			while(true){
+				byte type;
+				try{
+					type = in.readByte();
+				} catch(EOFException e){
+					break;
+				}
+				if(type == ADD){
+					put(Document.read(in));
+				} else if(type == REMOVE){
+					delete(in.readLong());
+				} else if(type == REMOVE_FEED){
+					deleteFeed(in.readLong());
+				} else {
+					throw new IOException("Unknown record type " + type);
+				}
+				logRecords++;
+			}
+		} catch(IOException e){
+			// A partially written last record is expected after a crash, keep what could be read
+			LOGGER.log(Level.WARNING, "Search index " + file + " truncated after " + logRecords + " records", e);
+			compact();
+		}
+	}
+	
+	private void append(Document document) {
+		try{
+			// Encoded completely before anything is written, a failure can not leave a partial record
+			ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+			DataOutputStream encoder = new DataOutputStream(record);
+			encoder.writeByte(ADD);
+			document.write(encoder);
+			
+			DataOutputStream out = log();
+			record.writeTo(out);
+			out.flush();
+			logged();
+		} catch(IOException e){
+			LOGGER.log(Level.WARNING, "Failed to write search index " + file, e);
+		}
+	}
+	
+	private void appendRemove(byte type, long id) {
+		try{
+			DataOutputStream out = log();
+			out.writeByte(type);
+			out.writeLong(id);
+			out.flush();
+			logged();
+		} catch(IOException e){
+			LOGGER.log(Level.WARNING, "Failed to write search index " + file, e);
+		}
+	}
+	
+	private void logged() {
+		if(++logRecords > 2 * documents.size() + 1000){
+			compact();
+		}
+	}
+	
+	private DataOutputStream log() throws IOException {
+		if(log == null){
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		}
+		return log;
+	}
+	
+	/**
+	 * Rewrite the log with one record per indexed entry
+	 */
+	private void compact() {
+		closeLog();
+		File temp = new File(file.getPath() + ".tmp");
+		try{
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))){
+				for(Document document : documents.values()){
+					out.writeByte(ADD);
+					document.write(out);
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+					StandardCopyOption.ATOMIC_MOVE);
+			logRecords = documents.size();
+		} catch(IOException e){
+			LOGGER.log(Level.WARNING, "Failed to write search index " + file, e);
+		}
+	}
+	
+	private void closeLog() {
+		if(log != null){
+			try{
+				log.close();
+			} catch(IOException e){
+				LOGGER.log(Level.WARNING, "Failed to close search index " + file, e);
+			} finally {
+				log = null;
+			}
+		}
+	}
+	
+	/**
+	 * An indexed entry with the terms it contains
+	 */
+	private static final class Document {
+		
+		final long id;
+		
+		final long feedId;
+		
+		final String title;
+		
+		final long published;
+		
+		final Map<String, Integer> terms;
+		
+		final int length;
+		
+		Document(long id, long feedId, String title, long published, Map<String, Integer> terms) {
+			this.id = id;
+			this.feedId = feedId;
+			this.title = title == null || title.length() <= MAX_STRING_LENGTH ? title 
+					: title.substring(0, MAX_STRING_LENGTH);
+			this.published = published;
+			this.terms = terms;
+			terms.keySet().removeIf(term -> term.length() > MAX_STRING_LENGTH);
+			this.length = terms.values().stream().mapToInt(Integer::intValue).sum();
+		}
+		
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(id);
+			out.writeLong(feedId);
+			out.writeUTF(title == null ? "" : title);
+			out.writeLong(published);
+			out.writeInt(terms.size());
+			for(Map.Entry<String, Integer> term : terms.entrySet()){
+				out.writeUTF(term.getKey());
+				out.writeInt(term.getValue());
+			}
+		}
+		
+		static Document read(DataInputStream in) throws IOException {
+			long id = in.readLong();
+			long feedId = in.readLong();
+			String title = in.readUTF();
+			long published = in.readLong();
+			int size = in.readInt();
+			Map<String, Integer> terms = new HashMap<>(size * 2);
+			for(int i = 0; i < size; i++){
+				terms.put(in.readUTF(), in.readInt());
+			}
+			return new Document(id, feedId, title.isEmpty() ? null : title, published, terms);
+		}
+	}
+	
+	/**
+	 * A matching entry and its score, ordered worst first
+	 */
+	private static final class Scored implements Comparable<Scored> {
+		
+		final Document document;
+		
+		final double score;
+		
+		Scored(Document document, double score) {
+			this.document = document;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(Scored other) {
+			int compare = Double.compare(score, other.score);
+			return compare != 0 ? compare : Long.compare(document.published, other.document.published);
+		}
+	}
+}
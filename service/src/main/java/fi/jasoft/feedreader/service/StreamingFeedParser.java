@@ -0,0 +1,418 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.sun.syndication.io.FeedException;
+import com.sun.syndication.io.XmlReader;
+import com.sun.syndication.io.impl.DateParser;
+
+/**
+ * A {@link FeedParser} reading RSS 0.9x/2.0, RSS 1.0 and Atom 1.0 documents with StAX.
+ * <p>
+ * Entries are handed out one at a time as soon as they have been read, and nothing but the 
+ * current entry is kept in memory. When the handler asks to stop, the rest of the document 
+ * is never read. Documents in other formats, or documents the streaming parser cannot read 
+ * before the first entry, are handed to a fallback parser.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class StreamingFeedParser implements FeedParser {
+	
+	private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+	
+	private static final String RSS1_NS = "http://purl.org/rss/1.0/";
+	
+	private static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+	
+	private static final String CONTENT_NS = "http://purl.org/rss/1.0/modules/content/";
+	
+	private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+	
+	private static final String SY_NS = "http://purl.org/rss/1.0/modules/syndication/";
+	
+	/*
+	 * How much of the document is kept for restarting with the fallback parser
+	 */
+	private static final int MARK_LIMIT = 64 * 1024;
+	
+	private static final XMLInputFactory FACTORY = createFactory();
+	
+	private final FeedParser fallback;
+	
+	/**
+	 * Create a streaming parser falling back to {@link RomeFeedParser}
+	 */
+	public StreamingFeedParser() {
+		this(new RomeFeedParser());
+	}
+	
+	/**
+	 * Create a streaming parser
+	 * 
+	 * @param fallback
+	 * 		The parser used for documents in formats the streaming parser does not support
+	 */
+	public StreamingFeedParser(FeedParser fallback) {
+		this.fallback = fallback;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ParsedFeed parse(InputStream in, String contentType, Predicate<ParsedEntry> handler)
+			throws IOException, FeedException {
+		InputStream buffered = in.markSupported() ? in : new BufferedInputStream(in, MARK_LIMIT);
+		buffered.mark(MARK_LIMIT);
+		
+		Reader reader = contentType != null 
+				? new XmlReader(buffered, contentType) 
+				: new XmlReader(buffered);
+		
+		Parse parse = new Parse(handler);
+		XMLStreamReader xml = null;
+		try{
+			xml = FACTORY.createXMLStreamReader(reader);
+			xml.nextTag();
+			String root = xml.getLocalName();
+			String ns = xml.getNamespaceURI();
+			if("rss".equals(root) || ("RDF".equals(root) && RDF_NS.equals(ns))){
+				return parse.rss(xml);
+			} else if("feed".equals(root) && ATOM_NS.equals(ns)){
+				return parse.atom(xml);
+			}
+		} catch(XMLStreamException e){
+			if(parse.emitted > 0){
+				throw new FeedException("Invalid feed document", e);
+			}
+		} finally {
+			close(xml);
+		}
+		
+		// Not a format we can stream, start over with the fallback parser
+		try{
+			buffered.reset();
+		} catch(IOException e){
+			throw new FeedException("Feed document could not be parsed and is too large to re-read", e);
+		}
+		return fallback.parse(buffered, contentType, handler);
+	}
+	
+	/**
+	 * The state of parsing one document
+	 */
+	private static final class Parse {
+		
+		final Predicate<ParsedEntry> handler;
+		
+		int emitted;
+		
+		String title;
+		
+		int ttl;
+		
+		String updatePeriod;
+		
+		int updateFrequency;
+		
+		List<String> skipHours;
+		
+		Parse(Predicate<ParsedEntry> handler) {
+			this.handler = handler;
+		}
+		
+		ParsedFeed rss(XMLStreamReader xml) throws XMLStreamException {
+			int depth = 1;
+			boolean inChannel = false;
+			while(xml.hasNext()){
+				int event = xml.next();
+				if(event == XMLStreamConstants.END_ELEMENT){
+					if(--depth == 1){
+						inChannel = false;
+					}
+				} else if(event == XMLStreamConstants.START_ELEMENT){
+					String name = xml.getLocalName();
+					if("item".equals(name)){
+						if(!emit(rssItem(xml))){
+							return feed(false);
+						}
+					} else if("channel".equals(name) && depth == 1){
+						inChannel = true;
+						depth++;
+					} else if(inChannel && depth == 2){
+						channelElement(xml, name);
+					} else {
+						depth++;
+					}
+				}
+			}
+			return feed(true);
+		}
+		
+		ParsedFeed atom(XMLStreamReader xml) throws XMLStreamException {
+			while(xml.nextTag() == XMLStreamConstants.START_ELEMENT){
+				String name = xml.getLocalName();
+				if("entry".equals(name) && ATOM_NS.equals(xml.getNamespaceURI())){
+					if(!emit(atomEntry(xml))){
+						return feed(false);
+					}
+				} else {
+					channelElement(xml, name);
+				}
+			}
+			return feed(true);
+		}
+		
+		/**
+		 * Read a child element of the RSS channel or the Atom feed. Consumes the element.
+		 */
+		private void channelElement(XMLStreamReader xml, String name) throws XMLStreamException {
+			String ns = xml.getNamespaceURI();
+			if(SY_NS.equals(ns)){
+				if("updatePeriod".equals(name)){
+					updatePeriod = text(xml);
+				} else if("updateFrequency".equals(name)){
+					updateFrequency = parseInt(text(xml));
+				} else {
+					skip(xml);
+				}
+			} else if(!isCore(ns)){
+				skip(xml);
+			} else if("title".equals(name)){
+				title = text(xml);
+			} else if("ttl".equals(name)){
+				ttl = parseInt(text(xml));
+			} else if("skipHours".equals(name)){
+				skipHours = new ArrayList<>();
+				while(xml.nextTag() == XMLStreamConstants.START_ELEMENT){
+					if("hour".equals(xml.getLocalName())){
+						skipHours.add(text(xml));
+					} else {
+						skip(xml);
+					}
+				}
+			} else {
+				skip(xml);
+			}
+		}
+		
+		private ParsedEntry rssItem(XMLStreamReader xml) throws XMLStreamException {
+			String uri = xml.getAttributeValue(RDF_NS, "about");
+			String link = null, itemTitle = null, description = null, encoded = null;
+			Date published = null, dcDate = null;
+			
+			while(xml.nextTag() == XMLStreamConstants.START_ELEMENT){
+				String name = xml.getLocalName();
+				String ns = xml.getNamespaceURI();
+				if(CONTENT_NS.equals(ns) && "encoded".equals(name)){
+					encoded = text(xml);
+				} else if(DC_NS.equals(ns) && "date".equals(name)){
+					dcDate = DateParser.parseDate(text(xml));
+				} else if(!isCore(ns)){
+					skip(xml);
+				} else if("title".equals(name)){
+					itemTitle = text(xml);
+				} else if("link".equals(name)){
+					link = text(xml);
+				} else if("guid".equals(name)){
+					uri = text(xml);
+				} else if("description".equals(name)){
+					description = text(xml);
+				} else if("pubDate".equals(name)){
+					published = DateParser.parseDate(text(xml));
+				} else {
+					skip(xml);
+				}
+			}
+			
+			String content = description != null ? description : (encoded != null ? encoded : "");
+			return new ParsedEntry(trim(uri), trim(link), itemTitle, content, 
+					published != null ? published : dcDate, null);
+		}
+		
+		private ParsedEntry atomEntry(XMLStreamReader xml) throws XMLStreamException {
+			String id = null, link = null, entryTitle = null, summary = null, content = null;
+			Date published = null, updated = null;
+			
+			while(xml.nextTag() == XMLStreamConstants.START_ELEMENT){
+				String name = xml.getLocalName();
+				if(!ATOM_NS.equals(xml.getNamespaceURI())){
+					skip(xml);
+				} else if("id".equals(name)){
+					id = text(xml);
+				} else if("link".equals(name)){
+					String rel = xml.getAttributeValue(null, "rel");
+					if(link == null && (rel == null || "alternate".equals(rel))){
+						link = xml.getAttributeValue(null, "href");
+					}
+					skip(xml);
+				} else if("title".equals(name)){
+					entryTitle = text(xml);
+				} else if("summary".equals(name)){
+					summary = text(xml);
+				} else if("content".equals(name)){
+					content = text(xml);
+				} else if("published".equals(name)){
+					published = DateParser.parseDate(text(xml));
+				} else if("updated".equals(name)){
+					updated = DateParser.parseDate(text(xml));
+				} else {
+					skip(xml);
+				}
+			}
+			
+			String body = summary != null ? summary : (content != null ? content : "");
+			return new ParsedEntry(trim(id), trim(link), entryTitle, body, published, updated);
+		}
+		
+		private boolean emit(ParsedEntry entry) {
+			emitted++;
+			return handler.test(entry);
+		}
+		
+		private ParsedFeed feed(boolean complete) {
+			int declared = PollingPolicy.declaredInterval(ttl, updatePeriod, updateFrequency);
+			return new ParsedFeed(title, declared, PollingPolicy.skipHours(skipHours), complete);
+		}
+	}
+	
+	/**
+	 * Is the namespace one of the core RSS/Atom namespaces
+	 */
+	private static boolean isCore(String ns) {
+		return ns == null || ns.isEmpty() || RSS1_NS.equals(ns) || ATOM_NS.equals(ns);
+	}
+	
+	/**
+	 * Read the content of the current element as a string. Text is returned as is, 
+	 * nested markup (such as Atom xhtml content) is serialized back to XML.
+	 * Leaves the reader at the end tag of the element.
+	 */
+	private static String text(XMLStreamReader xml) throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		int depth = 0;
+		while(true){
+			int event = xml.next();
+			switch(event){
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					if(depth == 0){
+						text.append(xml.getText());
+					} else {
+						escape(xml.getText(), text);
+					}
+					break;
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					text.append('<').append(xml.getLocalName());
+					for(int i = 0; i < xml.getAttributeCount(); i++){
+						text.append(' ').append(xml.getAttributeLocalName(i)).append("=\"");
+						escape(xml.getAttributeValue(i), text);
+						text.append('"');
+					}
+					text.append('>');
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if(depth-- == 0){
+						return text.toString().trim();
+					}
+					text.append("</").append(xml.getLocalName()).append('>');
+					break;
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new XMLStreamException("Unexpected end of document");
+				default:
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * Skip the current element and all of its children
+	 */
+	private static void skip(XMLStreamReader xml) throws XMLStreamException {
+		int depth = 1;
+		while(depth > 0){
+			int event = xml.next();
+			if(event == XMLStreamConstants.START_ELEMENT){
+				depth++;
+			} else if(event == XMLStreamConstants.END_ELEMENT){
+				depth--;
+			} else if(event == XMLStreamConstants.END_DOCUMENT){
+				throw new XMLStreamException("Unexpected end of document");
+			}
+		}
+	}
+	
+	private static void escape(String value, StringBuilder out) {
+		for(int i = 0; i < value.length(); i++){
+			char c = value.charAt(i);
+			switch(c){
+				case '<': out.append("&lt;"); break;
+				case '>': out.append("&gt;"); break;
+				case '&': out.append("&amp;"); break;
+				case '"': out.append("&quot;"); break;
+				default: out.append(c);
+			}
+		}
+	}
+	
+	private static int parseInt(String value) {
+		try{
+			return value == null ? 0 : Integer.parseInt(value.trim());
+		} catch(NumberFormatException e){
+			return 0;
+		}
+	}
+	
+	private static String trim(String value) {
+		return value == null ? null : value.trim();
+	}
+	
+	private static void close(XMLStreamReader xml) {
+		if(xml != null){
+			try{
+				xml.close();
+			} catch(XMLStreamException e){
+				// Nothing to do
+			}
+		}
+	}
+	
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs feed synchronizations in the background with bounded parallelism.
+ * <p>
+ * Tasks are grouped by the host of the feed url and at most <code>feedreader.sync.perHost</code>
+ * tasks for the same host run at the same time, the rest are queued until a slot for that host
+ * frees up. Queued tasks never occupy a worker thread.
+ * <p>
+ * By default a fixed pool of <code>feedreader.sync.threads</code> threads is used. Setting 
+ * <code>feedreader.sync.virtual=true</code> uses virtual threads instead when the running JDK 
+ * supports them, in which case the global parallelism is bounded by the same thread count.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class SyncExecutor {
+	
+	private static final Logger LOGGER = Logger.getLogger(SyncExecutor.class.getName());
+	
+	private static final int THREADS = Integer.getInteger("feedreader.sync.threads", 4);
+	
+	private static final int PER_HOST = Integer.getInteger("feedreader.sync.perHost", 2);
+	
+	private static final boolean VIRTUAL = Boolean.getBoolean("feedreader.sync.virtual");
+	
+	private static SyncExecutor defaultExecutor;
+	
+	private final ExecutorService executor;
+	
+	private final int maxConcurrent;
+	
+	private final int maxPerHost;
+	
+	private final Map<String, Integer> runningPerHost = new HashMap<>();
+	
+	private final Map<String, Queue<Task>> queuedPerHost = new HashMap<>();
+	
+	/*
+	 * Hosts with queued tasks and a free slot, in the order they became ready
+	 */
+	private final Set<String> readyHosts = new LinkedHashSet<>();
+	
+	private int running;
+	
+	/**
+	 * Create a new executor
+	 * 
+	 * @param maxConcurrent
+	 * 		The maximum number of synchronizations running at the same time
+	 * @param maxPerHost
+	 * 		The maximum number of synchronizations against the same host running at the same time
+	 * @param virtualThreads
+	 * 		Should virtual threads be used if available
+	 */
+	public SyncExecutor(int maxConcurrent, int maxPerHost, boolean virtualThreads) {
+		if(maxConcurrent < 1 || maxPerHost < 1){
+			throw new IllegalArgumentException("Concurrency limits must be positive");
+		}
+		this.maxConcurrent = maxConcurrent;
+		this.maxPerHost = maxPerHost;
+		ExecutorService virtual = virtualThreads ? createVirtualThreadExecutor() : null;
+		this.executor = virtual != null ? virtual : createThreadPool(maxConcurrent);
+	}
+	
+	/**
+	 * Get the shared executor configured from system properties. 
+	 */
+	public static synchronized SyncExecutor getDefault() {
+		if(defaultExecutor == null){
+			defaultExecutor = new SyncExecutor(THREADS, PER_HOST, VIRTUAL);
+		}
+		return defaultExecutor;
+	}
+	
+	/**
+	 * Shut down the shared executor if it has been created. Queued synchronizations 
+	 * are discarded.
+	 */
+	public static synchronized void shutdownDefault() {
+		if(defaultExecutor != null){
+			defaultExecutor.shutdown();
+			defaultExecutor = null;
+		}
+	}
+	
+	/**
+	 * Submit a task against a feed url
+	 * 
+	 * @param url
+	 * 		The url of the feed, used to group tasks by host
+	 * @param task
+	 * 		The task to run
+	 * @return
+	 * 		A future completing with the result of the task
+	 */
+	public <T> CompletableFuture<T> submit(String url, Supplier<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		String host = hostOf(url);
+		Task queued = new Task(future, () -> {
+			try{
+				future.complete(task.get());
+			} catch(Throwable t){
+				future.completeExceptionally(t);
+			} finally {
+				release(host);
+			}
+		});
+		
+		synchronized (this) {
+			queuedPerHost.computeIfAbsent(host, h -> new ArrayDeque<>()).add(queued);
+			markReady(host);
+		}
+		dispatch();
+		return future;
+	}
+	
+	/**
+	 * Stop accepting tasks and discard queued ones, their futures are cancelled. 
+	 * Running tasks are allowed to finish.
+	 */
+	public void shutdown() {
+		List<Task> discarded = new ArrayList<>();
+		synchronized (this) {
+			queuedPerHost.values().forEach(discarded::addAll);
+			queuedPerHost.clear();
+			readyHosts.clear();
+		}
+		executor.shutdown();
+		discarded.forEach(task -> task.future.cancel(false));
+	}
+	
+	/**
+	 * Get the number of tasks currently running
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+	
+	/**
+	 * Get the number of tasks waiting for a free slot
+	 */
+	public synchronized int getQueued() {
+		int queued = 0;
+		for(Queue<Task> q : queuedPerHost.values()){
+			queued += q.size();
+		}
+		return queued;
+	}
+	
+	/**
+	 * Mark a host ready to run its next queued task if it has one and a free slot. 
+	 * A host is marked at most once, hosts are served round robin.
+	 */
+	private void markReady(String host) {
+		Queue<Task> queue = queuedPerHost.get(host);
+		if(queue != null && !queue.isEmpty() && runningPerHost.getOrDefault(host, 0) < maxPerHost){
+			readyHosts.add(host);
+		}
+	}
+	
+	private void dispatch() {
+		while(true){
+			Task next;
+			String host;
+			synchronized (this) {
+				if(running >= maxConcurrent || readyHosts.isEmpty()){
+					return;
+				}
+				Iterator<String> hosts = readyHosts.iterator();
+				host = hosts.next();
+				hosts.remove();
+				Queue<Task> queue = queuedPerHost.get(host);
+				if(queue == null || queue.isEmpty()){
+					queuedPerHost.remove(host);
+					continue;
+				}
+				next = queue.poll();
+				if(queue.isEmpty()){
+					queuedPerHost.remove(host);
+				}
+				runningPerHost.merge(host, 1, Integer::sum);
+				running++;
+				markReady(host);
+			}
+			try{
+				executor.execute(next.runnable);
+			} catch(RejectedExecutionException e){
+				synchronized (this) {
+					running--;
+					if(runningPerHost.merge(host, -1, Integer::sum) == 0){
+						runningPerHost.remove(host);
+					}
+				}
+				next.future.completeExceptionally(e);
+			}
+		}
+	}
+	
+	private void release(String host) {
+		synchronized (this) {
+			running--;
+			if(runningPerHost.merge(host, -1, Integer::sum) == 0){
+				runningPerHost.remove(host);
+			}
+			markReady(host);
+		}
+		dispatch();
+	}
+	
+	private static String hostOf(String url) {
+		try{
+			String host = URI.create(url).getHost();
+			return host == null ? "" : host.toLowerCase(Locale.ROOT);
+		} catch(IllegalArgumentException | NullPointerException e){
+			return "";
+		}
+	}
+	
+	private static ExecutorService createThreadPool(int threads) {
+		AtomicInteger counter = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread t = new Thread(r, "feed-sync-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<>(), factory);
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+	
+	private static ExecutorService createVirtualThreadExecutor() {
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(ReflectiveOperationException e){
+			LOGGER.log(Level.INFO, "Virtual threads not supported by this JVM, using a thread pool");
+			return null;
+		}
+	}
+	
+	/**
+	 * A queued task and the future completed by it
+	 */
+	private static final class Task {
+		
+		final CompletableFuture<?> future;
+		
+		final Runnable runnable;
+		
+		Task(CompletableFuture<?> future, Runnable runnable) {
+			this.future = future;
+			this.runnable = runnable;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Lets only one synchronization of a feed run at a time. A request to synchronize a feed 
+ * already being synchronized joins the running synchronization and receives its result, 
+ * instead of fetching the feed again and racing it to store the same entries.
+ * <p>
+ * A feed synchronized successfully less than <code>feedreader.sync.freshness</code> seconds 
+ * ago is not synchronized again, the requests receive the result of the previous 
+ * synchronization. A failed synchronization is kept for the shorter 
+ * <code>feedreader.sync.failureFreshness</code> seconds, so requests arriving right after 
+ * a failure do not hammer a failing feed, while the feed can still be retried soon.
+ * <p>
+ * Only the feed instance given by the request starting a synchronization is updated with 
+ * the stored state of the feed, requests joining it have to reload the feed.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+final class SyncGate {
+	
+	private static final long FRESHNESS = TimeUnit.SECONDS.toMillis(Long.getLong("feedreader.sync.freshness", 10));
+	
+	private static final long FAILURE_FRESHNESS = TimeUnit.SECONDS.toMillis(Long.getLong("feedreader.sync.failureFreshness", 2));
+	
+	private final Map<Long, CompletableFuture<SyncResult>> running = new ConcurrentHashMap<>();
+	
+	private final Map<Long, Completed> recent = new ConcurrentHashMap<>();
+	
+	private final SyncMetrics metrics;
+	
+	private final long freshness;
+	
+	private final long failureFreshness;
+	
+	/**
+	 * Create a gate with the configured freshness windows
+	 * 
+	 * @param metrics
+	 * 		The metrics to record joined and suppressed synchronizations in
+	 */
+	SyncGate(SyncMetrics metrics) {
+		this(metrics, FRESHNESS, FAILURE_FRESHNESS);
+	}
+	
+	/**
+	 * Create a gate
+	 * 
+	 * @param metrics
+	 * 		The metrics to record joined and suppressed synchronizations in
+	 * @param freshness
+	 * 		The time in milliseconds a successfully synchronized feed is not synchronized again
+	 * @param failureFreshness
+	 * 		The time in milliseconds a feed which failed to synchronize is not synchronized again
+	 */
+	SyncGate(SyncMetrics metrics, long freshness, long failureFreshness) {
+		this.metrics = metrics;
+		this.freshness = freshness;
+		this.failureFreshness = failureFreshness;
+	}
+	
+	/**
+	 * Synchronize a feed unless it is already being synchronized or has just been synchronized
+	 * 
+	 * @param feed
+	 * 		The feed to synchronize
+	 * @param sync
+	 * 		Starts the synchronization of the feed, called at most once
+	 * @return
+	 * 		A future completing with the result of the synchronization of the feed
+	 */
+	CompletableFuture<SyncResult> sync(Feed feed, Function<Feed, CompletableFuture<SyncResult>> sync) {
+		long feedId = feed.getId();
+		SyncResult fresh = fresh(feedId);
+		if(fresh != null){
+			metrics.suppressed();
+			return CompletableFuture.completedFuture(fresh);
+		}
+		
+		CompletableFuture<SyncResult> flight = new CompletableFuture<>();
+		CompletableFuture<SyncResult> existing = running.putIfAbsent(feedId, flight);
+		if(existing != null){
+			metrics.joined();
+			return existing;
+		}
+		fresh = fresh(feedId);
+		if(fresh != null){
+			// A synchronization completed after the first check
+			running.remove(feedId, flight);
+			flight.complete(fresh);
+			metrics.suppressed();
+			return flight;
+		}
+		
+		CompletableFuture<SyncResult> started;
+		try{
+			started = sync.apply(feed);
+		} catch(RuntimeException e){
+			running.remove(feedId, flight);
+			flight.completeExceptionally(e);
+			return flight;
+		}
+		started.whenComplete((result, error) -> {
+			// Recorded before the flight is removed, so a request in between does not start another
+			if(result != null){
+				recent.put(feedId, new Completed(result, System.currentTimeMillis()));
+			}
+			running.remove(feedId, flight);
+			if(error != null){
+				flight.completeExceptionally(error);
+			} else {
+				flight.complete(result);
+			}
+		});
+		return flight;
+	}
+	
+	/**
+	 * Forget a feed, for example because it was removed
+	 * 
+	 * @param feedId
+	 * 		The id of the feed
+	 */
+	void forget(long feedId) {
+		recent.remove(feedId);
+	}
+	
+	/**
+	 * Get the result of the synchronization of a feed if it completed within the freshness 
+	 * window of its outcome
+	 */
+	private SyncResult fresh(long feedId) {
+		Completed previous = recent.get(feedId);
+		if(previous == null){
+			return null;
+		}
+		long window = previous.result.isFailed() ? failureFreshness : freshness;
+		if(System.currentTimeMillis() - previous.at >= window){
+			return null;
+		}
+		return previous.result;
+	}
+	
+	/**
+	 * The result of a synchronization and when it completed
+	 */
+	private static final class Completed {
+		
+		final SyncResult result;
+		
+		final long at;
+		
+		Completed(SyncResult result, long at) {
+			this.result = result;
+			this.at = at;
+		}
+	}
+}
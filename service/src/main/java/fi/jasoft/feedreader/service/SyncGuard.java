@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import javax.persistence.EntityManager;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * Decides whether a synchronization may store what it fetched. Used when several processes 
+ * synchronize the same database, so a process which lost the right to synchronize a feed 
+ * while fetching it does not store the feed after another process has taken over.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+@FunctionalInterface
+public interface SyncGuard {
+	
+	/**
+	 * Called in the transaction storing the new and changed entries of a feed, before they 
+	 * are stored. Changes made with the entity manager are committed with the entries.
+	 * 
+	 * @param feed
+	 * 		The feed instance the synchronization was started with, not managed by the entity 
+	 * 		manager
+	 * @param em
+	 * 		The entity manager of the transaction
+	 * @return
+	 * 		<code>true</code> to store the entries, <code>false</code> to roll back and fail 
+	 * 		the synchronization
+	 */
+	boolean permits(Feed feed, EntityManager em);
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the feed synchronization and the database calls 
+ * of the feed service, and the startup and render times of the application.
+ * <p>
+ * Recording is a few atomic increments so the metrics are always on. The application 
+ * wide instance is registered as a platform MXBean.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class SyncMetrics implements SyncMetricsMXBean {
+	
+	private static final Logger LOGGER = Logger.getLogger(SyncMetrics.class.getName());
+	
+	static final String OBJECT_NAME = "fi.jasoft.feedreader:type=SyncMetrics";
+	
+	private static SyncMetrics defaultMetrics;
+	
+	private final Map<SyncResult.Status, LongAdder> syncs = new ConcurrentHashMap<>();
+	
+	private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+	
+	private final LongAdder bytesDownloaded = new LongAdder();
+	
+	private final LongAdder newEntries = new LongAdder();
+	
+	private final LongAdder updatedEntries = new LongAdder();
+	
+	private final LongAdder unchangedEntries = new LongAdder();
+	
+	private final LongAdder purgedEntries = new LongAdder();
+	
+	private final LongAdder reclaimedBytes = new LongAdder();
+	
+	private final LongAdder joinedSyncs = new LongAdder();
+	
+	private final LongAdder suppressedSyncs = new LongAdder();
+	
+	private final LatencyHistogram syncLatency = new LatencyHistogram();
+	
+	private final LatencyHistogram fetchLatency = new LatencyHistogram();
+	
+	private final LatencyHistogram parseLatency = new LatencyHistogram();
+	
+	private final LatencyHistogram persistLatency = new LatencyHistogram();
+	
+	private final Map<String, LatencyHistogram> databaseLatency = new ConcurrentHashMap<>();
+	
+	private final LatencyHistogram renderLatency = new LatencyHistogram();
+	
+	private volatile long warmUpMillis = -1;
+	
+	private volatile long firstRenderMillis = -1;
+	
+	/**
+	 * Get the application wide metrics, registering them as an MXBean on first use
+	 */
+	public static synchronized SyncMetrics getDefault() {
+		if(defaultMetrics == null){
+			defaultMetrics = new SyncMetrics();
+			try{
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if(server.isRegistered(name)){
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(defaultMetrics, name);
+			} catch(JMException e){
+				LOGGER.log(Level.WARNING, "Failed to register " + OBJECT_NAME, e);
+			}
+		}
+		return defaultMetrics;
+	}
+	
+	/**
+	 * Unregister the application wide metrics
+	 */
+	public static synchronized void shutdownDefault() {
+		if(defaultMetrics != null){
+			try{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+			} catch(JMException e){
+				LOGGER.log(Level.FINE, "Failed to unregister " + OBJECT_NAME, e);
+			}
+			defaultMetrics = null;
+		}
+	}
+	
+	/**
+	 * Record the time taken to fetch a feed and the size of the response
+	 * 
+	 * @param startNanos
+	 * 		When the fetch started, as returned by {@link System#nanoTime()}
+	 * @param fetched
+	 * 		The fetched document
+	 */
+	void fetched(long startNanos, FetchResult fetched) {
+		fetchLatency.recordSince(startNanos);
+		bytesDownloaded.add(fetched.getTransferredBytes());
+	}
+	
+	/**
+	 * Record the time taken to parse a feed
+	 */
+	void parsed(long startNanos) {
+		parseLatency.recordSince(startNanos);
+	}
+	
+	/**
+	 * Record the time taken to match and store the entries of a feed
+	 */
+	void persisted(long startNanos) {
+		persistLatency.recordSince(startNanos);
+	}
+	
+	/**
+	 * Record the outcome of a synchronization
+	 * 
+	 * @param result
+	 * 		The outcome
+	 * @param startNanos
+	 * 		When the synchronization started, as returned by {@link System#nanoTime()}
+	 */
+	void completed(SyncResult result, long startNanos) {
+		syncLatency.recordSince(startNanos);
+		syncs.computeIfAbsent(result.getStatus(), s -> new LongAdder()).increment();
+		newEntries.add(result.getNewEntries());
+		updatedEntries.add(result.getUpdatedEntries());
+		unchangedEntries.add(result.getUnchangedEntries());
+		if(result.getError() != null){
+			failures.computeIfAbsent(result.getError().getClass().getSimpleName(), c -> new LongAdder())
+				.increment();
+		}
+	}
+	
+	/**
+	 * Record a request to synchronize a feed which joined a running synchronization of the feed
+	 */
+	void joined() {
+		joinedSyncs.increment();
+	}
+	
+	/**
+	 * Record a request to synchronize a feed which was synchronized too recently to do it again
+	 */
+	void suppressed() {
+		suppressedSyncs.increment();
+	}
+	
+	/**
+	 * Record the time taken by a database call
+	 * 
+	 * @param method
+	 * 		The service method making the call
+	 * @param startNanos
+	 * 		When the call started, as returned by {@link System#nanoTime()}
+	 */
+	void database(String method, long startNanos) {
+		databaseLatency.computeIfAbsent(method, m -> new LatencyHistogram()).recordSince(startNanos);
+	}
+
+	/**
+	 * Record the time taken to warm up the application after it was started
+	 * 
+	 * @param startNanos
+	 * 		When the application was started, as returned by {@link System#nanoTime()}
+	 */
+	public void warmedUp(long startNanos) {
+		warmUpMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+	
+	/**
+	 * Record the time taken to build a new user interface with its first data
+	 * 
+	 * @param startNanos
+	 * 		When the request creating the interface started, as returned by {@link System#nanoTime()}
+	 * @param applicationStartNanos
+	 * 		When the application was started, the time of the first render is recorded 
+	 * 		relative to it
+	 */
+	public void rendered(long startNanos, long applicationStartNanos) {
+		renderLatency.recordSince(startNanos);
+		if(firstRenderMillis < 0){
+			synchronized (this) {
+				if(firstRenderMillis < 0){
+					firstRenderMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - applicationStartNanos);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record a completed retention purge
+	 * 
+	 * @param result
+	 * 		The outcome of the purge
+	 */
+	void purged(PurgeResult result) {
+		purgedEntries.add(result.getEntries());
+		reclaimedBytes.add(Math.max(result.getReclaimedBytes(), 0));
+	}
+
+	@Override
+	public Map<String, Long> getSyncs() {
+		Map<String, Long> counts = new TreeMap<>();
+		for(SyncResult.Status status : SyncResult.Status.values()){
+			LongAdder count = syncs.get(status);
+			counts.put(status.name().toLowerCase(), count == null ? 0 : count.sum());
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getFailures() {
+		Map<String, Long> counts = new TreeMap<>();
+		failures.forEach((cause, count) -> counts.put(cause, count.sum()));
+		return counts;
+	}
+
+	@Override
+	public long getBytesDownloaded() {
+		return bytesDownloaded.sum();
+	}
+
+	@Override
+	public long getNewEntries() {
+		return newEntries.sum();
+	}
+
+	@Override
+	public long getUpdatedEntries() {
+		return updatedEntries.sum();
+	}
+
+	@Override
+	public long getUnchangedEntries() {
+		return unchangedEntries.sum();
+	}
+
+	@Override
+	public long getPurgedEntries() {
+		return purgedEntries.sum();
+	}
+
+	@Override
+	public long getReclaimedBytes() {
+		return reclaimedBytes.sum();
+	}
+
+	@Override
+	public long getJoinedSyncs() {
+		return joinedSyncs.sum();
+	}
+
+	@Override
+	public long getSuppressedSyncs() {
+		return suppressedSyncs.sum();
+	}
+
+	@Override
+	public HistogramSnapshot getSyncLatency() {
+		return syncLatency.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getFetchLatency() {
+		return fetchLatency.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getParseLatency() {
+		return parseLatency.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getPersistLatency() {
+		return persistLatency.snapshot();
+	}
+
+	@Override
+	public HistogramSnapshot getRenderLatency() {
+		return renderLatency.snapshot();
+	}
+
+	@Override
+	public long getWarmUpMillis() {
+		return warmUpMillis;
+	}
+
+	@Override
+	public long getFirstRenderMillis() {
+		return firstRenderMillis;
+	}
+
+	@Override
+	public Map<String, HistogramSnapshot> getDatabaseLatency() {
+		Map<String, HistogramSnapshot> snapshots = new TreeMap<>();
+		databaseLatency.forEach((method, histogram) -> snapshots.put(method, histogram.snapshot()));
+		return snapshots;
+	}
+}
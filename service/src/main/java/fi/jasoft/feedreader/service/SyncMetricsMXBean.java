@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link SyncMetrics}, registered as 
+ * <code>fi.jasoft.feedreader:type=SyncMetrics</code>
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public interface SyncMetricsMXBean {
+	
+	/**
+	 * Get the number of synchronizations by outcome
+	 */
+	Map<String, Long> getSyncs();
+	
+	/**
+	 * Get the number of failed synchronizations by the type of the failure
+	 */
+	Map<String, Long> getFailures();
+	
+	/**
+	 * Get the number of bytes downloaded
+	 */
+	long getBytesDownloaded();
+	
+	/**
+	 * Get the number of new entries stored
+	 */
+	long getNewEntries();
+	
+	/**
+	 * Get the number of changed entries updated
+	 */
+	long getUpdatedEntries();
+	
+	/**
+	 * Get the number of entries found unchanged
+	 */
+	long getUnchangedEntries();
+	
+	/**
+	 * Get the number of entries deleted by retention purges
+	 */
+	long getPurgedEntries();
+	
+	/**
+	 * Get the number of bytes of database files reclaimed by retention purges
+	 */
+	long getReclaimedBytes();
+	
+	/**
+	 * Get the number of requests to synchronize a feed which joined a running synchronization 
+	 * of the same feed
+	 */
+	long getJoinedSyncs();
+	
+	/**
+	 * Get the number of requests to synchronize a feed which received the result of a 
+	 * synchronization completed within the freshness window
+	 */
+	long getSuppressedSyncs();
+	
+	/**
+	 * Get the durations of whole synchronizations
+	 */
+	HistogramSnapshot getSyncLatency();
+	
+	/**
+	 * Get the durations of fetching feeds
+	 */
+	HistogramSnapshot getFetchLatency();
+	
+	/**
+	 * Get the durations of parsing fetched feeds
+	 */
+	HistogramSnapshot getParseLatency();
+	
+	/**
+	 * Get the durations of matching and storing parsed entries
+	 */
+	HistogramSnapshot getPersistLatency();
+	
+	/**
+	 * Get the durations of building new user interfaces with their first data
+	 */
+	HistogramSnapshot getRenderLatency();
+	
+	/**
+	 * Get the time in milliseconds from starting the application until it was warmed up, 
+	 * -1 if it has not been warmed up yet
+	 */
+	long getWarmUpMillis();
+	
+	/**
+	 * Get the time in milliseconds from starting the application until the first user 
+	 * interface was built, -1 if none has been built yet
+	 */
+	long getFirstRenderMillis();
+	
+	/**
+	 * Get the durations of database calls by the service method making them
+	 */
+	Map<String, HistogramSnapshot> getDatabaseLatency();
+}
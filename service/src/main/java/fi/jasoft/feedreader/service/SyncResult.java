@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.io.Serializable;
+
+import fi.jasoft.feedreader.data.Feed;
+
+/**
+ * The outcome of synchronizing a single feed
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class SyncResult implements Serializable {
+	
+	/**
+	 * The state a feed was left in after synchronization
+	 */
+	public enum Status {
+		
+		/**
+		 * The feed was fetched and its entries were stored
+		 */
+		UPDATED,
+		
+		/**
+		 * The online feed had not changed since the previous synchronization
+		 */
+		UNCHANGED,
+		
+		/**
+		 * The feed could not be synchronized, see {@link SyncResult#getError()}
+		 */
+		FAILED
+	}
+	
+	private final long feedId;
+	
+	private final String url;
+	
+	private final Status status;
+	
+	private final int newEntries;
+	
+	private final int updatedEntries;
+	
+	private final int unchangedEntries;
+	
+	private final long expires;
+	
+	private final long durationMillis;
+	
+	private final Throwable error;
+	
+	private SyncResult(Feed feed, Status status, int newEntries, int updatedEntries, int unchangedEntries, 
+			long expires, long durationMillis, Throwable error) {
+		this.feedId = feed.getId();
+		this.url = feed.getUrl();
+		this.status = status;
+		this.newEntries = newEntries;
+		this.updatedEntries = updatedEntries;
+		this.unchangedEntries = unchangedEntries;
+		this.expires = expires;
+		this.durationMillis = durationMillis;
+		this.error = error;
+	}
+	
+	/**
+	 * Create a result for a successfully synchronized feed
+	 * 
+	 * @param feed
+	 * 		The synchronized feed
+	 * @param newEntries
+	 * 		The number of entries added to the feed
+	 * @param updatedEntries
+	 * 		The number of existing entries whose content changed
+	 * @param unchangedEntries
+	 * 		The number of existing entries which did not change
+	 * @param expires
+	 * 		The time until which the server allows the feed to be cached, 0 if not known
+	 * @param durationMillis
+	 * 		How long the synchronization took
+	 */
+	static SyncResult updated(Feed feed, int newEntries, int updatedEntries, int unchangedEntries, 
+			long expires, long durationMillis) {
+		return new SyncResult(feed, Status.UPDATED, newEntries, updatedEntries, unchangedEntries, 
+				expires, durationMillis, null);
+	}
+	
+	/**
+	 * Create a result for a feed which had not changed since it was last synchronized
+	 * 
+	 * @param feed
+	 * 		The synchronized feed
+	 * @param unchangedEntries
+	 * 		The number of entries read from the online feed, all of them already known
+	 * @param expires
+	 * 		The time until which the server allows the feed to be cached, 0 if not known
+	 * @param durationMillis
+	 * 		How long the synchronization took
+	 */
+	static SyncResult unchanged(Feed feed, int unchangedEntries, long expires, long durationMillis) {
+		return new SyncResult(feed, Status.UNCHANGED, 0, 0, unchangedEntries, expires, durationMillis, null);
+	}
+	
+	/**
+	 * Create a result for a feed which failed to synchronize
+	 * 
+	 * @param feed
+	 * 		The feed which failed
+	 * @param error
+	 * 		The cause of the failure
+	 * @param durationMillis
+	 * 		How long the synchronization took before failing
+	 */
+	static SyncResult failed(Feed feed, Throwable error, long durationMillis) {
+		return new SyncResult(feed, Status.FAILED, 0, 0, 0, 0, durationMillis, error);
+	}
+
+	/**
+	 * Get the id of the synchronized feed
+	 */
+	public long getFeedId() {
+		return feedId;
+	}
+
+	/**
+	 * Get the url of the synchronized feed
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Get the outcome of the synchronization
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Get the number of entries added to the feed
+	 */
+	public int getNewEntries() {
+		return newEntries;
+	}
+	
+	/**
+	 * Get the number of existing entries whose content changed
+	 */
+	public int getUpdatedEntries() {
+		return updatedEntries;
+	}
+	
+	/**
+	 * Get the number of entries which were already known and did not change
+	 */
+	public int getUnchangedEntries() {
+		return unchangedEntries;
+	}
+
+	/**
+	 * Get the time in milliseconds until which the server allows the feed to be cached. 
+	 * 0 if the server did not say.
+	 */
+	public long getExpires() {
+		return expires;
+	}
+
+	/**
+	 * Get how long the synchronization took in milliseconds
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * Get the cause of a failed synchronization. Returns <code>null</code> 
+	 * if the synchronization did not fail.
+	 */
+	public Throwable getError() {
+		return error;
+	}
+	
+	/**
+	 * Did the synchronization fail
+	 */
+	public boolean isFailed() {
+		return status == Status.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		if(error != null){
+			return url + ": " + status + " (" + error + ")";
+		}
+		return url + ": " + status + " [new=" + newEntries + ", updated=" + updatedEntries 
+				+ ", unchanged=" + unchangedEntries + "]";
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.service;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.data.FeedSummary;
+
+/**
+ * Polls every feed in the background on its own interval decided by a {@link PollingPolicy}.
+ * <p>
+ * Due polls are kept in a priority queue ordered by their due time, a single thread waits for
+ * the next one and hands it to {@link FeedService#syncronizeAsync(Feed)}. When the sync completes
+ * the feed is put back in the queue with its next due time. The list of feeds is rescanned 
+ * periodically to pick up added and removed feeds.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class SyncScheduler {
+	
+	private static final Logger LOGGER = Logger.getLogger(SyncScheduler.class.getName());
+	
+	private static final long RESCAN_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+	
+	private static final int RESCAN_PAGE = 500;
+	
+	private final FeedService feedService;
+	
+	private final PollingPolicy policy;
+	
+	private final DelayQueue<Poll> queue = new DelayQueue<>();
+	
+	private final Map<Long, PollState> states = new ConcurrentHashMap<>();
+	
+	private Thread thread;
+	
+	private volatile boolean running;
+
+	/**
+	 * Create a scheduler with the default polling policy
+	 * 
+	 * @param feedService
+	 * 		The service used to list and synchronize the feeds
+	 */
+	public SyncScheduler(FeedService feedService) {
+		this(feedService, new PollingPolicy());
+	}
+	
+	/**
+	 * Create a scheduler
+	 * 
+	 * @param feedService
+	 * 		The service used to list and synchronize the feeds
+	 * @param policy
+	 * 		The policy deciding when feeds are polled
+	 */
+	public SyncScheduler(FeedService feedService, PollingPolicy policy) {
+		this.feedService = feedService;
+		this.policy = policy;
+	}
+	
+	/**
+	 * Start polling
+	 */
+	public synchronized void start() {
+		if(running){
+			return;
+		}
+		running = true;
+		thread = new Thread(this::run, "feed-scheduler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Stop polling. Synchronizations already running are not interrupted.
+	 */
+	public synchronized void stop() {
+		running = false;
+		if(thread != null){
+			thread.interrupt();
+			thread = null;
+		}
+		queue.clear();
+		states.clear();
+	}
+	
+	/**
+	 * Get the number of feeds waiting for their next poll
+	 */
+	public int getScheduled() {
+		return queue.size();
+	}
+	
+	private void run() {
+		long nextRescan = 0;
+		while(running){
+			try{
+				long now = System.currentTimeMillis();
+				if(now >= nextRescan){
+					rescan();
+					nextRescan = now + RESCAN_INTERVAL;
+				}
+				
+				Poll due = queue.poll(nextRescan - now, TimeUnit.MILLISECONDS);
+				if(due != null){
+					dispatch(due.feedId);
+				}
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				return;
+			} catch(RuntimeException e){
+				LOGGER.log(Level.WARNING, "Feed scheduling failed", e);
+			}
+		}
+	}
+	
+	/**
+	 * Schedule feeds which are not yet scheduled and forget removed ones. New feeds are spread 
+	 * randomly over the minimum interval so they are not all polled at once.
+	 */
+	private void rescan() {
+		Set<Long> existing = new HashSet<>();
+		int offset = 0;
+		List<FeedSummary> page;
+		do{
+			page = feedService.getFeedSummaries(offset, RESCAN_PAGE);
+			for(FeedSummary feed : page){
+				existing.add(feed.getId());
+				if(states.putIfAbsent(feed.getId(), new PollState()) == null){
+					long delay = (long) (ThreadLocalRandom.current().nextDouble() * policy.getMinInterval());
+					queue.add(new Poll(feed.getId(), System.currentTimeMillis() + delay));
+				}
+			}
+			offset += page.size();
+		} while(page.size() == RESCAN_PAGE);
+		
+		states.keySet().retainAll(existing);
+	}
+	
+	private void dispatch(long feedId) {
+		PollState state = states.get(feedId);
+		if(state == null){
+			// Feed removed
+			return;
+		}
+		
+		Feed feed;
+		CompletableFuture<SyncResult> sync;
+		try{
+			feed = feedService.getFeed(feedId);
+			if(feed == null){
+				states.remove(feedId);
+				return;
+			}
+			sync = feedService.syncronizeAsync(feed);
+		} catch(RuntimeException e){
+			LOGGER.log(Level.WARNING, "Failed to start polling feed " + feedId, e);
+			// The feed could not be loaded, only the failure backoff applies
+			state.failures++;
+			queue.add(new Poll(feedId, policy.nextPoll(new Feed(), state.failures, 0, 0, System.currentTimeMillis())));
+			return;
+		}
+		
+		sync.whenComplete((result, error) -> {
+			if(!running || states.get(feedId) != state){
+				return;
+			}
+			
+			long expires = 0;
+			if(error != null || result.isFailed()){
+				state.failures++;
+			} else {
+				state.failures = 0;
+				state.unchanged = result.getStatus() == SyncResult.Status.UNCHANGED ? state.unchanged + 1 : 0;
+				expires = result.getExpires();
+			}
+			
+			long next = policy.nextPoll(feed, state.failures, state.unchanged, expires, System.currentTimeMillis());
+			queue.add(new Poll(feedId, next));
+		});
+	}
+	
+	/**
+	 * The polling history of a feed
+	 */
+	private static final class PollState {
+		
+		volatile int failures;
+		
+		volatile int unchanged;
+	}
+	
+	/**
+	 * A feed due for polling at a given time
+	 */
+	private static final class Poll implements Delayed {
+		
+		final long feedId;
+		
+		final long due;
+		
+		Poll(long feedId, long due) {
+			this.feedId = feedId;
+			this.due = due;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(due, ((Poll) o).due);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.worker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+
+import fi.jasoft.feedreader.data.FeedLease;
+import fi.jasoft.feedreader.data.LeaseHolder;
+import fi.jasoft.feedreader.service.FeedPersistence;
+
+/**
+ * The leases of one sync worker on the feeds in the <code>FEEDLEASE</code> table.
+ * <p>
+ * Every feed has a lease row holding when it is due next. A worker claims a due feed by 
+ * setting itself as the owner of the row with a conditional update, which only succeeds 
+ * if the row has no owner or its lease has expired, so exactly one of the workers racing 
+ * for a feed gets it. Every claim increases the token of the lease. Renewing and releasing 
+ * a lease are conditional on the owner and the token, so a worker whose lease expired and 
+ * was taken over by another worker can no longer change it.
+ * <p>
+ * Lease expiry is decided with the clocks of the workers, the time to live of the leases 
+ * has to be much longer than the difference between them.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class FeedLeases {
+	
+	private static final Logger LOGGER = Logger.getLogger(FeedLeases.class.getName());
+	
+	/*
+	 * Workers without a heartbeat for this many lease lifetimes are considered stopped
+	 */
+	private static final int HEARTBEAT_LIFETIMES = 3;
+	
+	private final String owner;
+	
+	private final long ttl;
+
+	/**
+	 * Create the leases of a worker
+	 * 
+	 * @param owner
+	 * 		The id of the worker, unique among all running workers
+	 * @param ttl
+	 * 		The time in milliseconds a lease is held unless it is renewed
+	 */
+	public FeedLeases(String owner, long ttl) {
+		this.owner = owner;
+		this.ttl = ttl;
+	}
+	
+	/**
+	 * Get the id of the worker
+	 */
+	public String getOwner() {
+		return owner;
+	}
+	
+	/**
+	 * Get the time in milliseconds a lease is held unless it is renewed
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+	
+	/**
+	 * Record that the worker is running and forget the workers which have stopped recording 
+	 * their heartbeats
+	 * 
+	 * @return
+	 * 		The number of running workers, including this one
+	 */
+	public int heartbeat() {
+		long now = System.currentTimeMillis();
+		return transaction(em -> {
+			int updated = em.createQuery("UPDATE LeaseHolder h SET h.heartbeat = :now WHERE h.id = :id")
+					.setParameter("now", now)
+					.setParameter("id", owner)
+					.executeUpdate();
+			if(updated == 0){
+				LeaseHolder holder = new LeaseHolder();
+				holder.setId(owner);
+				holder.setHeartbeat(now);
+				em.persist(holder);
+			}
+			em.createQuery("DELETE FROM LeaseHolder h WHERE h.heartbeat < :stale")
+				.setParameter("stale", now - HEARTBEAT_LIFETIMES * ttl)
+				.executeUpdate();
+			return em.createQuery("SELECT COUNT(h) FROM LeaseHolder h", Number.class)
+					.getSingleResult().intValue();
+		});
+	}
+	
+	/**
+	 * Create leases due right away for feeds which do not have one, and delete the leases 
+	 * of removed feeds. Workers rescanning at the same time may both try to create the same 
+	 * lease, the one failing leaves it to the other.
+	 */
+	public void rescan() {
+		long now = System.currentTimeMillis();
+		try{
+			int created = transaction(em -> em.createNativeQuery("INSERT INTO FEEDLEASE "
+					+ "(FEED_ID, OWNER, TOKEN, EXPIRES, DUE, FAILURES, UNCHANGED) "
+					+ "SELECT ID, NULL, 0, 0, ?1, 0, 0 FROM FEED WHERE ID NOT IN (SELECT FEED_ID FROM FEEDLEASE)")
+					.setParameter(1, now)
+					.executeUpdate());
+			if(created > 0){
+				LOGGER.info("Created leases for " + created + " new feeds");
+			}
+		} catch(PersistenceException e){
+			LOGGER.log(Level.FINE, "Another worker created the leases", e);
+		}
+		transaction(em -> em.createQuery("DELETE FROM FeedLease l "
+				+ "WHERE l.feedId NOT IN (SELECT f.id FROM Feed f)")
+				.executeUpdate());
+	}
+	
+	/**
+	 * Count the feeds which are due and not leased by a running worker
+	 */
+	public int countDue() {
+		long now = System.currentTimeMillis();
+		return transaction(em -> em.createQuery("SELECT COUNT(l) FROM FeedLease l "
+				+ "WHERE l.due <= :now AND (l.owner IS NULL OR l.expires < :now)", Number.class)
+				.setParameter("now", now)
+				.getSingleResult().intValue());
+	}
+	
+	/**
+	 * Count the feeds leased by running workers
+	 */
+	public int countLeased() {
+		long now = System.currentTimeMillis();
+		return transaction(em -> em.createQuery("SELECT COUNT(l) FROM FeedLease l "
+				+ "WHERE l.owner IS NOT NULL AND l.expires >= :now", Number.class)
+				.setParameter("now", now)
+				.getSingleResult().intValue());
+	}
+	
+	/**
+	 * Lease due feeds, the longest overdue first. Feeds whose lease has expired are taken 
+	 * over from the worker holding it.
+	 * 
+	 * @param limit
+	 * 		The maximum number of feeds to lease
+	 * @return
+	 * 		The leased feeds, fewer than the limit if other workers leased some of them first
+	 */
+	public List<FeedLease> claim(int limit) {
+		if(limit <= 0){
+			return Collections.emptyList();
+		}
+		long now = System.currentTimeMillis();
+		List<Long> candidates = transaction(em -> em.createQuery("SELECT l.feedId FROM FeedLease l "
+				+ "WHERE l.due <= :now AND (l.owner IS NULL OR l.expires < :now) ORDER BY l.due", Long.class)
+				.setParameter("now", now)
+				.setMaxResults(limit)
+				.getResultList());
+		
+		List<FeedLease> claimed = new ArrayList<>(candidates.size());
+		for(Long feedId : candidates){
+			FeedLease lease = transaction(em -> {
+				int updated = em.createQuery("UPDATE FeedLease l "
+						+ "SET l.owner = :owner, l.token = l.token + 1, l.expires = :expires "
+						+ "WHERE l.feedId = :feed AND l.due <= :now AND (l.owner IS NULL OR l.expires < :now)")
+						.setParameter("owner", owner)
+						.setParameter("expires", now + ttl)
+						.setParameter("feed", feedId)
+						.setParameter("now", now)
+						.executeUpdate();
+				if(updated == 0){
+					return null;
+				}
+				return em.createQuery("SELECT l FROM FeedLease l WHERE l.feedId = :feed", FeedLease.class)
+						.setParameter("feed", feedId)
+						.getSingleResult();
+			});
+			if(lease != null){
+				claimed.add(lease);
+			}
+		}
+		return claimed;
+	}
+	
+	/**
+	 * Extend a lease by its time to live
+	 * 
+	 * @param lease
+	 * 		The lease to renew
+	 * @return
+	 * 		<code>false</code> if the lease is no longer held
+	 */
+	public boolean renew(FeedLease lease) {
+		return transaction(em -> renew(lease, em));
+	}
+	
+	/**
+	 * Extend a lease by its time to live within a transaction. The update only succeeds while 
+	 * the worker is the owner, the token is the one it claimed the lease with and the lease 
+	 * has not expired, so once another worker has taken the lease over, renewing it fails and 
+	 * the transaction can be rolled back. Together with {@link #release(FeedLease, long, int, int)} 
+	 * being conditional on the token, this is what keeps a stalled worker from storing or 
+	 * releasing a feed taken over from it. No rows are locked, HSQLDB 1.8 has no row locks.
+	 * 
+	 * @param lease
+	 * 		The lease to renew
+	 * @param em
+	 * 		The entity manager of the transaction
+	 * @return
+	 * 		<code>false</code> if the lease is no longer held
+	 */
+	public boolean renew(FeedLease lease, EntityManager em) {
+		long now = System.currentTimeMillis();
+		return em.createQuery("UPDATE FeedLease l SET l.expires = :expires "
+				+ "WHERE l.feedId = :feed AND l.owner = :owner AND l.token = :token AND l.expires >= :now")
+				.setParameter("expires", now + ttl)
+				.setParameter("feed", lease.getFeedId())
+				.setParameter("owner", owner)
+				.setParameter("token", lease.getToken())
+				.setParameter("now", now)
+				.executeUpdate() == 1;
+	}
+	
+	/**
+	 * Release a lease after synchronizing the feed and record when the feed is due next
+	 * 
+	 * @param lease
+	 * 		The lease to release
+	 * @param due
+	 * 		The time the feed is due next in milliseconds since the epoch
+	 * @param failures
+	 * 		The number of synchronizations in a row which have failed
+	 * @param unchanged
+	 * 		The number of synchronizations in a row which found no changes
+	 * @return
+	 * 		<code>false</code> if the lease was no longer held and has not been changed
+	 */
+	public boolean release(FeedLease lease, long due, int failures, int unchanged) {
+		return transaction(em -> em.createQuery("UPDATE FeedLease l SET l.owner = NULL, l.expires = 0, "
+				+ "l.due = :due, l.failures = :failures, l.unchanged = :unchanged "
+				+ "WHERE l.feedId = :feed AND l.owner = :owner AND l.token = :token")
+				.setParameter("due", due)
+				.setParameter("failures", failures)
+				.setParameter("unchanged", unchanged)
+				.setParameter("feed", lease.getFeedId())
+				.setParameter("owner", owner)
+				.setParameter("token", lease.getToken())
+				.executeUpdate() == 1);
+	}
+	
+	/**
+	 * Release all leases of the worker without changing when the feeds are due, so other 
+	 * workers take them over right away, and remove the heartbeat of the worker
+	 */
+	public void releaseAll() {
+		transaction(em -> {
+			em.createQuery("UPDATE FeedLease l SET l.owner = NULL, l.expires = 0 WHERE l.owner = :owner")
+				.setParameter("owner", owner)
+				.executeUpdate();
+			return em.createQuery("DELETE FROM LeaseHolder h WHERE h.id = :id")
+				.setParameter("id", owner)
+				.executeUpdate();
+		});
+	}
+	
+	private static <T> T transaction(Function<EntityManager, T> work) {
+		EntityManager em = FeedPersistence.createEntityManager();
+		try{
+			em.getTransaction().begin();
+			T result = work.apply(em);
+			em.getTransaction().commit();
+			return result;
+		} finally {
+			if(em.getTransaction().isActive()){
+				em.getTransaction().rollback();
+			}
+			em.close();
+		}
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2017 John Ahlroos
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.jasoft.feedreader.worker;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+
+import fi.jasoft.feedreader.data.Feed;
+import fi.jasoft.feedreader.data.FeedLease;
+import fi.jasoft.feedreader.service.FeedPersistence;
+import fi.jasoft.feedreader.service.FeedServiceImpl;
+import fi.jasoft.feedreader.service.PollingPolicy;
+import fi.jasoft.feedreader.service.SyncExecutor;
+import fi.jasoft.feedreader.service.SyncResult;
+
+/**
+ * A headless process synchronizing feeds stored in a shared database. Any number of 
+ * workers can run at the same time, they split the feeds between them with {@link FeedLeases}.
+ * <p>
+ * A worker leases at most <code>feedreader.worker.parallelism</code> feeds at a time, and no 
+ * more than its share of the due feeds divided evenly between the running workers, so one 
+ * worker does not take all due feeds while the others are idle. Leases are renewed while the 
+ * feeds are synchronized and released with the time the feed is due next, decided by the 
+ * {@link PollingPolicy}. The leases of a worker which crashes expire after 
+ * <code>feedreader.lease.ttl</code> seconds and are taken over by the other workers. 
+ * A synchronization only stores its entries if renewing the lease, conditional on the owner, 
+ * the token and the lease not having expired, succeeds in the same transaction. A feed taken 
+ * over from a worker which was only stalled is therefore not stored by the stalled worker. 
+ * A synchronization still running after <code>feedreader.worker.maxHold</code> seconds is 
+ * given up, its lease is released so the feed is not held by a hung synchronization forever. 
+ * The guard only permits the synchronization started with the current lease to store, and a 
+ * feed is not synchronized again by the worker while a synchronization given up is running.
+ * <p>
+ * All workers and the web application have to use the same database, run as an HSQLDB 
+ * server and given to every process with the <code>feedreader.db.url</code> system property. 
+ * The web application should be started with <code>feedreader.workers=true</code> so it 
+ * leaves synchronizing to the workers.
+ * 
+ * @author John Ahlroos / https://devsoap.com
+ */
+public class SyncWorker implements Runnable {
+	
+	private static final Logger LOGGER = Logger.getLogger(SyncWorker.class.getName());
+	
+	private static final int PARALLELISM = Integer.getInteger("feedreader.worker.parallelism", 8);
+	
+	private static final long TTL = TimeUnit.SECONDS.toMillis(Long.getLong("feedreader.lease.ttl", 120));
+	
+	/*
+	 * How long to wait before looking for due feeds again when none were found
+	 */
+	private static final long IDLE = TimeUnit.SECONDS.toMillis(Long.getLong("feedreader.worker.idle", 5));
+	
+	private static final long RESCAN_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+	
+	private static final long MAX_HOLD = TimeUnit.SECONDS.toMillis(Long.getLong("feedreader.worker.maxHold", 600));
+	
+	private final FeedServiceImpl feedService;
+	
+	private final FeedLeases leases;
+	
+	private final PollingPolicy policy;
+	
+	private final int parallelism;
+	
+	private final Map<Long, Held> held = new ConcurrentHashMap<>();
+	
+	/*
+	 * Synchronizations given up after running too long, still occupying a synchronization slot
+	 */
+	private final Map<Long, Held> abandoned = new ConcurrentHashMap<>();
+	
+	private final BlockingQueue<Long> completed = new LinkedBlockingQueue<>();
+	
+	private volatile boolean running = true;
+
+	/**
+	 * Create a worker with the default polling policy and the configured parallelism
+	 * 
+	 * @param feedService
+	 * 		The service synchronizing the feeds. Its synchronizations are guarded by the 
+	 * 		leases of the worker.
+	 * @param leases
+	 * 		The leases of the worker
+	 */
+	public SyncWorker(FeedServiceImpl feedService, FeedLeases leases) {
+		this(feedService, leases, new PollingPolicy(), PARALLELISM);
+	}
+	
+	/**
+	 * Create a worker
+	 * 
+	 * @param feedService
+	 * 		The service synchronizing the feeds. Its synchronizations are guarded by the 
+	 * 		leases of the worker.
+	 * @param leases
+	 * 		The leases of the worker
+	 * @param policy
+	 * 		The policy deciding when feeds are polled
+	 * @param parallelism
+	 * 		The maximum number of feeds synchronized at a time
+	 */
+	public SyncWorker(FeedServiceImpl feedService, FeedLeases leases, PollingPolicy policy, int parallelism) {
+		this.feedService = feedService;
+		this.leases = leases;
+		this.policy = policy;
+		this.parallelism = parallelism;
+		feedService.setSyncGuard(this::holds);
+	}
+	
+	/**
+	 * Synchronize feeds until the worker is stopped or the thread is interrupted. The leases 
+	 * of the worker are released when it stops.
+	 */
+	@Override
+	public void run() {
+		LOGGER.info("Sync worker " + leases.getOwner() + " started");
+		long nextHeartbeat = 0;
+		long nextRescan = 0;
+		int workers = 1;
+		try{
+			while(running && !Thread.currentThread().isInterrupted()){
+				try{
+					long now = System.currentTimeMillis();
+					if(now >= nextHeartbeat){
+						workers = leases.heartbeat();
+						renewHeld();
+						nextHeartbeat = now + TTL / 3;
+					}
+					if(now >= nextRescan){
+						leases.rescan();
+						nextRescan = now + RESCAN_INTERVAL;
+					}
+					
+					int claimed = claim(workers);
+					long wait = Math.min(claimed > 0 ? 0 : IDLE, Math.max(0, nextHeartbeat - now));
+					if(completed.poll(wait, TimeUnit.MILLISECONDS) != null){
+						completed.clear();
+					}
+				} catch(RuntimeException e){
+					LOGGER.log(Level.WARNING, "Leasing feeds failed", e);
+					Thread.sleep(IDLE);
+				}
+			}
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		} finally {
+			leases.releaseAll();
+			LOGGER.info("Sync worker " + leases.getOwner() + " stopped");
+		}
+	}
+	
+	/**
+	 * Stop leasing feeds. Synchronizations already running are not interrupted, but they 
+	 * are not stored after the leases have been released.
+	 */
+	public void stop() {
+		running = false;
+	}
+	
+	/**
+	 * Get the number of feeds being synchronized by the worker
+	 */
+	public int getHeld() {
+		return held.size();
+	}
+	
+	/**
+	 * Lease due feeds until the worker holds its share of the due and leased feeds, as far 
+	 * as it has free capacity, and start synchronizing them
+	 * 
+	 * @param workers
+	 * 		The number of running workers
+	 * @return
+	 * 		The number of leased feeds
+	 */
+	private int claim(int workers) {
+		int busy = held.size() + abandoned.size();
+		if(busy >= parallelism){
+			return 0;
+		}
+		int due = leases.countDue();
+		if(due == 0){
+			return 0;
+		}
+		int share = (due + leases.countLeased() + workers - 1) / workers;
+		List<FeedLease> claimed = leases.claim(Math.min(parallelism, share) - busy);
+		claimed.forEach(this::dispatch);
+		return claimed.size();
+	}
+	
+	private void dispatch(FeedLease lease) {
+		Feed feed = feedService.getFeed(lease.getFeedId());
+		if(feed == null){
+			// Removed, the lease is deleted by the next rescan
+			leases.release(lease, lease.getDue(), lease.getFailures(), lease.getUnchanged());
+			return;
+		}
+		if(abandoned.containsKey(feed.getId())){
+			// Synchronizing again would join the synchronization given up
+			leases.release(lease, policy.nextPoll(feed, lease.getFailures(), lease.getUnchanged(), 0, 
+					System.currentTimeMillis()), lease.getFailures(), lease.getUnchanged());
+			return;
+		}
+		
+		Held holding = new Held(lease, feed, System.currentTimeMillis());
+		held.put(lease.getFeedId(), holding);
+		feedService.syncronizeAsync(feed).whenComplete((result, error) -> {
+			if(!held.remove(lease.getFeedId(), holding)){
+				// Given up, the lease has been released already
+				abandoned.remove(lease.getFeedId(), holding);
+				completed.offer(lease.getFeedId());
+				return;
+			}
+			try{
+				int failures = lease.getFailures();
+				int unchanged = lease.getUnchanged();
+				long expires = 0;
+				if(error != null || result.isFailed()){
+					failures++;
+				} else {
+					failures = 0;
+					unchanged = result.getStatus() == SyncResult.Status.UNCHANGED ? unchanged + 1 : 0;
+					expires = result.getExpires();
+				}
+				long next = policy.nextPoll(feed, failures, unchanged, expires, System.currentTimeMillis());
+				if(!leases.release(lease, next, failures, unchanged)){
+					LOGGER.warning("Lost the lease of " + feed.getUrl() + " while synchronizing it");
+				}
+			} catch(RuntimeException e){
+				LOGGER.log(Level.WARNING, "Failed to release the lease of " + feed.getUrl(), e);
+			} finally {
+				completed.offer(lease.getFeedId());
+			}
+		});
+	}
+	
+	/**
+	 * Renew the leases of the running synchronizations, and give up the ones which have 
+	 * been running for too long. Their feeds are released with the failure backoff, if the 
+	 * synchronization completes after all it can no longer store or release anything.
+	 */
+	private void renewHeld() {
+		long now = System.currentTimeMillis();
+		for(Held holding : held.values()){
+			FeedLease lease = holding.lease;
+			if(now - holding.since > MAX_HOLD){
+				// Recorded first, so a synchronization completing in between finds it
+				abandoned.put(lease.getFeedId(), holding);
+				if(!held.remove(lease.getFeedId(), holding)){
+					// Completed meanwhile
+					abandoned.remove(lease.getFeedId(), holding);
+					continue;
+				}
+				int failures = lease.getFailures() + 1;
+				leases.release(lease, policy.nextPoll(holding.feed, failures, lease.getUnchanged(), 0, now), 
+						failures, lease.getUnchanged());
+				LOGGER.warning("Gave up synchronizing " + holding.feed.getUrl() + " after " 
+						+ TimeUnit.MILLISECONDS.toSeconds(now - holding.since) + "s");
+			} else if(!leases.renew(lease)){
+				LOGGER.warning("Lease of feed " + lease.getFeedId() + " expired before it could be renewed");
+			}
+		}
+	}
+	
+	/**
+	 * Guards the synchronizations of the feed service, only the synchronizations started with 
+	 * a lease this worker still holds are stored
+	 */
+	private boolean holds(Feed feed, EntityManager em) {
+		Held holding = held.get(feed.getId());
+		return holding != null && holding.feed == feed && leases.renew(holding.lease, em);
+	}
+	
+	/**
+	 * Run a worker until the process is stopped. The id of the worker is given with the 
+	 * <code>feedreader.worker.id</code> system property, or generated.
+	 * 
+	 * @param args
+	 * 		Not used
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		// Other processes change the same rows
+		if(System.getProperty("feedreader.db.sharedCache") == null){
+			System.setProperty("feedreader.db.sharedCache", "false");
+		}
+		String id = System.getProperty("feedreader.worker.id", 
+				ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8));
+		if(id.length() > 64){
+			id = id.substring(id.length() - 64);
+		}
+		
+		FeedPersistence.start();
+		// The web application indexes the entries for searching
+		SyncWorker worker = new SyncWorker(new FeedServiceImpl(SyncExecutor.getDefault(), null), 
+				new FeedLeases(id, TTL));
+		Thread thread = new Thread(worker, "sync-worker");
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			worker.stop();
+			thread.interrupt();
+			try{
+				thread.join(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			SyncExecutor.shutdownDefault();
+			FeedPersistence.stop();
+		}));
+		thread.start();
+		thread.join();
+	}
+	
+	/**
+	 * A lease of a feed being synchronized and when the synchronization started
+	 */
+	private static final class Held {
+		
+		final FeedLease lease;
+		
+		final Feed feed;
+		
+		final long since;
+		
+		Held(FeedLease lease, Feed feed, long since) {
+			this.lease = lease;
+			this.feed = feed;
+			this.since = since;
+		}
+	}
+}